@@ -0,0 +1,146 @@
+package org.foraci.dolby;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the regions of an input that could not be parsed while reading in recovery mode.
+ * Consecutive failures with no good frame in between are merged into one region. The number of regions kept
+ * can be limited, in which case only the most recent are kept (and the rest are only counted).
+ */
+public class DamageLog
+{
+    private final ArrayDeque<Region> regions = new ArrayDeque<Region>();
+    private int maxRegions = Integer.MAX_VALUE;
+    private long regionCount = 0;
+    private boolean open = false;
+
+    /**
+     * @param maxRegions the number of most recent regions to keep
+     */
+    public void setMaxRegions(int maxRegions)
+    {
+        this.maxRegions = maxRegions;
+        while (regions.size() > maxRegions) {
+            regions.removeFirst();
+        }
+    }
+
+    /**
+     * Records a damaged frame
+     * @param afterFrame the number of good frames read before the damage
+     * @param start the byte position of the damaged burst
+     * @param reason a description of the error
+     */
+    public void damaged(int afterFrame, long start, String reason)
+    {
+        if (open && !regions.isEmpty()) {
+            regions.getLast().errors++;
+            return;
+        }
+        if (regions.size() == maxRegions) {
+            regions.removeFirst();
+        }
+        regions.addLast(new Region(afterFrame, start, reason));
+        regionCount++;
+        open = true;
+    }
+
+    /**
+     * Records where the reader found the next burst preamble following a damaged frame
+     * @param position the byte position of the preamble
+     */
+    public void resynced(long position)
+    {
+        if (!regions.isEmpty()) {
+            regions.getLast().end = position;
+        }
+    }
+
+    /**
+     * Called after a frame was read without error, closing the current damaged region (if any)
+     */
+    public void good()
+    {
+        open = false;
+    }
+
+    /**
+     * @return the regions kept, oldest first
+     */
+    public List<Region> getRegions()
+    {
+        return new ArrayList<Region>(regions);
+    }
+
+    /**
+     * @return the number of regions found, including any no longer kept
+     */
+    public long getRegionCount()
+    {
+        return regionCount;
+    }
+
+    public void report(PrintStream out)
+    {
+        out.println("damaged regions: " + regionCount + ((regionCount > regions.size()) ? " (last " + regions.size() + " kept)" : ""));
+        for (Region region : regions) {
+            out.println("\t" + region);
+        }
+    }
+
+    /**
+     * A contiguous damaged region of the input
+     */
+    public static class Region
+    {
+        private final int afterFrame;
+        private final long start;
+        private long end = -1;
+        private int errors = 1;
+        private final String reason;
+
+        private Region(int afterFrame, long start, String reason)
+        {
+            this.afterFrame = afterFrame;
+            this.start = start;
+            this.reason = reason;
+        }
+
+        public int getAfterFrame()
+        {
+            return afterFrame;
+        }
+
+        public long getStart()
+        {
+            return start;
+        }
+
+        /**
+         * @return the byte position where parsing resumed, or -1 if the input ended in this region
+         */
+        public long getEnd()
+        {
+            return end;
+        }
+
+        public int getErrors()
+        {
+            return errors;
+        }
+
+        public String getReason()
+        {
+            return reason;
+        }
+
+        public String toString()
+        {
+            return "after frame " + afterFrame + ": " + start + " - " + ((end == -1) ? "EOF" : Long.toString(end))
+                    + " (" + errors + " error(s), first: " + reason + ")";
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameLayout;
+import org.foraci.dolby.dolbye.FrameMetadata;
+import org.foraci.dolby.dolbye.SegmentCrc;
+import org.foraci.dolby.s337m.FormatProbe;
+import org.foraci.dolby.s337m.StreamFormat;
+import org.foraci.dolby.util.io.StreamByteSource;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Patches the dialnorm, program description or timecode of every Dolby E frame of a file in place. Each frame is
+ * parsed by a <code>DolbyEReader</code> (decoding only the segment groups holding the fields), which gives the bit
+ * offsets of the fields; the metadata segment is then read back from the file, de-keyed, patched, given a new CRC,
+ * re-keyed, and only the words that changed are written back. The audio is never read or copied.
+ * Frames whose metadata segment fails its CRC are left as they are.
+ */
+public class DolbyEFrameRewriter extends ParserHelper
+{
+    private static final int EXIT_BAD_ARGS = -1;
+    private static final String ARG_IN = "-1";
+    private static final String ARG_OFFSET = "-offset";
+    private static final String ARG_SAMPLE_SIZE = "-sample";
+    private static final String ARG_PROGRAM = "-program";
+    private static final String ARG_DIALNORM = "-dialnorm";
+    private static final String ARG_DESCRIPTION = "-description";
+    private static final String ARG_TIMECODE = "-timecode";
+    private static final String ARG_LOG_LEVEL = "-v";
+    private static final int KEEP = -1;
+
+    private final DolbyEReader reader;
+    private final FileChannel channel;
+    private final int sampleSize;
+    private final boolean bigEndian;
+    private final int[] dialnorms = new int[FrameMetadata.MAX_PROGRAMS];
+    private final int[][] descriptions = new int[FrameMetadata.MAX_PROGRAMS][]; // the characters sent, one per frame
+    private int startTimecode = FrameMetadata.TIMECODE_INVALID;
+    private ByteBuffer buffer = ByteBuffer.allocate(0);
+    private int[] raw = new int[0]; // the sample words of the metadata segment, left-justified
+    private int[] words = new int[0]; // the same words, right-justified and without their key
+    private int frames = 0;
+    private int patched = 0;
+    private int skipped = 0;
+    private long wordsWritten = 0;
+
+    /**
+     * @param reader the reader over the file (not yet read)
+     * @param channel the file, open for writing
+     * @param sampleSize the bytes per sample word
+     * @param bigEndian whether sample words are stored most significant byte first
+     */
+    public DolbyEFrameRewriter(DolbyEReader reader, FileChannel channel, int sampleSize, boolean bigEndian)
+    {
+        this.reader = reader;
+        this.channel = channel;
+        this.sampleSize = sampleSize;
+        this.bigEndian = bigEndian;
+        for (int i = 0; i < dialnorms.length; i++) {
+            dialnorms[i] = KEEP;
+        }
+    }
+
+    /**
+     * @param program the program, or -1 for all programs
+     * @param dialnorm the dialnorm (1 to 31)
+     */
+    public void setDialnorm(int program, int dialnorm)
+    {
+        if (dialnorm < 1 || dialnorm > 31) {
+            throw new IllegalArgumentException("dialnorm must be 1 to 31: " + dialnorm);
+        }
+        for (int i = 0; i < dialnorms.length; i++) {
+            if (program == -1 || program == i) {
+                dialnorms[i] = dialnorm;
+            }
+        }
+    }
+
+    /**
+     * Sends a description one character per frame (between the 0x02 and 0x03 markers), from the first frame on
+     * @param program the program, or -1 for all programs
+     * @param description the description, of printable ASCII characters
+     */
+    public void setDescription(int program, String description)
+    {
+        if (description.length() > FrameMetadata.MAX_DESCRIPTION_LENGTH) {
+            throw new IllegalArgumentException("description longer than " + FrameMetadata.MAX_DESCRIPTION_LENGTH + " characters");
+        }
+        int[] chars = new int[description.length() + 2];
+        chars[0] = 0x02;
+        for (int i = 0; i < description.length(); i++) {
+            char c = description.charAt(i);
+            if (c < 0x20 || c > 0x7E) {
+                throw new IllegalArgumentException("description must be printable ASCII: " + description);
+            }
+            chars[i + 1] = c;
+        }
+        chars[chars.length - 1] = 0x03;
+        for (int i = 0; i < descriptions.length; i++) {
+            if (program == -1 || program == i) {
+                descriptions[i] = chars;
+            }
+        }
+    }
+
+    /**
+     * Renumbers the timecodes, counting up from the first frame
+     * @param startTimecode the packed timecode of the first frame (see {@link ReadRange#parseTimecode(String)})
+     */
+    public void setStartTimecode(int startTimecode)
+    {
+        this.startTimecode = startTimecode;
+    }
+
+    /**
+     * @return the segment groups the reader has to decode for the fields patched
+     */
+    public int getSegmentGroups()
+    {
+        int groups = FrameMetadata.GROUP_HEADER;
+        for (int i = 0; i < FrameMetadata.MAX_PROGRAMS; i++) {
+            if (descriptions[i] != null) {
+                groups |= FrameMetadata.GROUP_PROGRAM;
+            }
+            if (dialnorms[i] != KEEP) {
+                groups |= FrameMetadata.GROUP_AC3;
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Reads and patches every frame to the end of the file
+     */
+    public void run() throws IOException
+    {
+        reader.setSegmentGroups(getSegmentGroups());
+        try {
+            while (true) {
+                int count = reader.getFrameCount();
+                reader.probeForAESFrame(); // past the guard band
+                reader.readFrameOrResync();
+                if (reader.getFrameCount() != count) { // a Dolby E frame, not another burst or a damaged frame
+                    rewrite(reader.getFrameMetadata(), reader.getFrameLayout());
+                }
+            }
+        } catch (EOFException e) {
+            // done
+        }
+        channel.force(false);
+    }
+
+    public void report()
+    {
+        log("rewrote " + patched + " of " + frames + " frames (" + wordsWritten + " words written), "
+                + skipped + " left as they were");
+    }
+
+    private void rewrite(FrameMetadata metadata, FrameLayout layout) throws IOException
+    {
+        int frame = frames++;
+        int depth = layout.getBitDepth();
+        int start = layout.getMetadataStart();
+        int crcWord = layout.getMetadataCrc();
+        long position = reader.toInputPosition(layout.getSyncPosition());
+        readWords(position, crcWord + 1, depth, layout);
+        long crc = 0;
+        for (int i = start; i <= crcWord; i++) {
+            crc = SegmentCrc.update(crc, words[i], depth);
+        }
+        if (crc != 0) {
+            warn("metadata segment of frame " + metadata.getFrame() + " fails its CRC; not rewritten");
+            skipped++;
+            return;
+        }
+        int end = crcWord * depth; // fields must lie in the segment
+        for (int p = 0; p < FrameMetadata.MAX_PROGRAMS; p++) {
+            if (dialnorms[p] != KEEP) {
+                setBits(layout.getAc3Field(p, FrameMetadata.DIALNORM),
+                        FrameMetadata.getFieldWidth(FrameMetadata.DIALNORM), dialnorms[p], end);
+            }
+            if (descriptions[p] != null) {
+                setBits(layout.getDescription(p), 8, descriptions[p][frame % descriptions[p].length], end);
+            }
+        }
+        if (startTimecode != FrameMetadata.TIMECODE_INVALID && layout.getTimecode() != FrameLayout.NONE) {
+            setTimecode(layout.getTimecode(), getTimecode(metadata, frame), end);
+        }
+        crc = 0;
+        for (int i = start; i < crcWord; i++) {
+            crc = SegmentCrc.update(crc, words[i], depth);
+        }
+        words[crcWord] = SegmentCrc.toWord(crc, depth);
+        int written = writeWords(position, start, crcWord + 1, depth, layout);
+        if (written > 0) {
+            patched++;
+            wordsWritten += written;
+        }
+    }
+
+    private void readWords(long position, int count, int depth, FrameLayout layout) throws IOException
+    {
+        int length = count * sampleSize;
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(length);
+            raw = new int[count];
+            words = new int[count];
+        }
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException();
+            }
+        }
+        byte[] b = buffer.array();
+        for (int i = 0; i < count; i++) {
+            int w = 0;
+            int o = i * sampleSize;
+            if (bigEndian) {
+                for (int n = 0; n < sampleSize; n++) {
+                    w = (w << 8) | (b[o + n] & 0xFF);
+                }
+            } else {
+                for (int n = sampleSize - 1; n >= 0; n--) {
+                    w = (w << 8) | (b[o + n] & 0xFF);
+                }
+            }
+            raw[i] = w << ((4 - sampleSize) * 8);
+            words[i] = raw[i] >>> (32 - depth);
+            if (layout.isKeyPresent() && i >= layout.getMetadataStart()) {
+                words[i] ^= layout.getKey();
+            }
+        }
+    }
+
+    /**
+     * Writes back the runs of words that changed
+     * @return the number of words written
+     */
+    private int writeWords(long position, int from, int to, int depth, FrameLayout layout) throws IOException
+    {
+        int key = layout.isKeyPresent() ? layout.getKey() : 0;
+        int lowBits = (1 << (32 - depth)) - 1; // the bits of the sample below the Dolby E word are kept
+        byte[] b = buffer.array();
+        int written = 0;
+        int run = -1;
+        for (int i = from; i <= to; i++) {
+            boolean changed = false;
+            if (i < to) {
+                int w = ((words[i] ^ key) << (32 - depth)) | (raw[i] & lowBits);
+                if (w != raw[i]) {
+                    raw[i] = w;
+                    encode(w, b, i * sampleSize);
+                    changed = true;
+                }
+            }
+            if (changed && run == -1) {
+                run = i;
+            } else if (!changed && run != -1) {
+                ByteBuffer slice = ByteBuffer.wrap(b, run * sampleSize, (i - run) * sampleSize);
+                while (slice.hasRemaining()) {
+                    channel.write(slice, position + slice.position());
+                }
+                written += i - run;
+                run = -1;
+            }
+        }
+        return written;
+    }
+
+    private void encode(int w, byte[] b, int o)
+    {
+        w >>>= (4 - sampleSize) * 8;
+        for (int n = 0; n < sampleSize; n++) {
+            b[bigEndian ? o + sampleSize - 1 - n : o + n] = (byte) (w >>> (n * 8));
+        }
+    }
+
+    private void setBits(int offset, int n, int value, int end)
+    {
+        if (offset == FrameLayout.NONE || offset + n > end) {
+            return;
+        }
+        int depth = reader.getFrameLayout().getBitDepth();
+        for (int i = 0; i < n; i++) {
+            int pos = offset + i;
+            int shift = depth - 1 - (pos % depth);
+            int bit = (value >>> (n - 1 - i)) & 1;
+            words[pos / depth] = (words[pos / depth] & ~(1 << shift)) | (bit << shift);
+        }
+    }
+
+    private void setTimecode(int offset, int timecode, int end)
+    {
+        int hours = (timecode >> 24) & 0xFF;
+        int minutes = (timecode >> 16) & 0xFF;
+        int seconds = (timecode >> 8) & 0xFF;
+        int frames = timecode & 0xFF;
+        setBits(offset + FrameLayout.TC_HOURS_TENS, 2, hours / 10, end);
+        setBits(offset + FrameLayout.TC_HOURS, 4, hours % 10, end);
+        setBits(offset + FrameLayout.TC_MINUTES_TENS, 3, minutes / 10, end);
+        setBits(offset + FrameLayout.TC_MINUTES, 4, minutes % 10, end);
+        setBits(offset + FrameLayout.TC_SECONDS_TENS, 3, seconds / 10, end);
+        setBits(offset + FrameLayout.TC_SECONDS, 4, seconds % 10, end);
+        setBits(offset + FrameLayout.TC_FRAMES_TENS, 2, frames / 10, end);
+        setBits(offset + FrameLayout.TC_FRAMES, 4, frames % 10, end);
+    }
+
+    /**
+     * @return the packed timecode of a frame, counting from the start timecode. Above 30 frames per second,
+     * each timecode frame spans two Dolby E frames.
+     */
+    private int getTimecode(FrameMetadata metadata, int frame)
+    {
+        int rate = (int) Math.round(metadata.getFrameRate());
+        int perTimecodeFrame = (rate > 30) ? 2 : 1;
+        int fps = rate / perTimecodeFrame;
+        boolean drop = metadata.isDropFrame() && fps == 30;
+        int h = (startTimecode >> 24) & 0xFF;
+        int m = (startTimecode >> 16) & 0xFF;
+        int s = (startTimecode >> 8) & 0xFF;
+        int f = startTimecode & 0xFF;
+        int totalMinutes = h * 60 + m;
+        long count = (long) (totalMinutes * 60 + s) * fps + f + frame / perTimecodeFrame;
+        if (drop) {
+            count -= 2 * (totalMinutes - totalMinutes / 10); // the start as a frame count
+            long tens = count / 17982; // frames per ten minutes
+            long rest = count % 17982;
+            count += 18 * tens + ((rest < 2) ? 0 : 2 * ((rest - 2) / 1798)); // back to timecode labels
+        }
+        f = (int) (count % fps);
+        count /= fps;
+        s = (int) (count % 60);
+        count /= 60;
+        m = (int) (count % 60);
+        h = (int) ((count / 60) % 24);
+        return (h << 24) | (m << 16) | (s << 8) | f;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        String name = getArg(args, ARG_IN);
+        if (name == null || !new File(name).isFile()) {
+            System.err.println("No file specified; specify with: -1 filename [-sample size] [-offset bytes] [-program n]"
+                    + " [-dialnorm value] [-description text] [-timecode hh:mm:ss:ff]");
+            System.exit(EXIT_BAD_ARGS);
+        }
+        File file = new File(name);
+        long offset = (findArg(args, ARG_OFFSET)) ? Long.parseLong(getArg(args, ARG_OFFSET)) : -1;
+        int sampleSize = 4;
+        boolean bigEndian = false;
+        if (findArg(args, ARG_SAMPLE_SIZE)) {
+            sampleSize = Integer.parseInt(getArg(args, ARG_SAMPLE_SIZE));
+        } else {
+            StreamFormat format = FormatProbe.probe(file, null);
+            if (format != null) {
+                log("detected " + format);
+                sampleSize = format.getSampleSize();
+                bigEndian = format.isBigEndian();
+                if (offset == -1) {
+                    offset = format.getOffset();
+                }
+            }
+        }
+        offset = Math.max(offset, 0);
+
+        StreamByteSource in = new StreamByteSource(new FileInputStream(file), sampleSize);
+        in.skipBytes(offset);
+        DolbyEReader reader = new DolbyEReader(in, sampleSize, false);
+        reader.setBigEndian(bigEndian);
+        reader.setInputOffset(offset);
+        reader.setLogLevel((findArg(args, ARG_LOG_LEVEL)) ? Integer.parseInt(getArg(args, ARG_LOG_LEVEL)) : LOGLEVEL_WARN);
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        DolbyEFrameRewriter rewriter = new DolbyEFrameRewriter(reader, channel, sampleSize, bigEndian);
+        int program = (findArg(args, ARG_PROGRAM)) ? Integer.parseInt(getArg(args, ARG_PROGRAM)) : -1;
+        boolean patch = false;
+        try {
+            if (findArg(args, ARG_DIALNORM)) {
+                rewriter.setDialnorm(program, Integer.parseInt(getArg(args, ARG_DIALNORM)));
+                patch = true;
+            }
+            if (findArg(args, ARG_DESCRIPTION)) {
+                rewriter.setDescription(program, getArg(args, ARG_DESCRIPTION));
+                patch = true;
+            }
+            if (findArg(args, ARG_TIMECODE)) {
+                rewriter.setStartTimecode(ReadRange.parseTimecode(getArg(args, ARG_TIMECODE)));
+                patch = true;
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(EXIT_BAD_ARGS);
+        }
+        if (!patch) {
+            System.err.println("Nothing to patch; specify " + ARG_DIALNORM + ", " + ARG_DESCRIPTION + " and/or " + ARG_TIMECODE);
+            System.exit(EXIT_BAD_ARGS);
+        }
+        try {
+            rewriter.run();
+        } finally {
+            rewriter.report();
+            channel.close();
+            in.close();
+        }
+    }
+}
@@ -1,12 +1,32 @@
 package org.foraci.dolby;
 
 import org.foraci.anc.util.io.CountingInputStream;
-import org.foraci.anc.util.io.MultiplexingInputStream;
 import org.foraci.anc.util.timecode.NtscConverter;
+import org.foraci.dolby.ac3.Ac3PayloadDecoder;
+import org.foraci.dolby.ac3.EnhancedAc3PayloadDecoder;
+import org.foraci.dolby.cache.FileIdentity;
+import org.foraci.dolby.cache.ResultCache;
+import org.foraci.dolby.dolbye.FrameLayout;
+import org.foraci.dolby.dolbye.FrameMetadata;
 import org.foraci.dolby.dolbye.ProgramConfig;
+import org.foraci.dolby.dolbye.SegmentCrc;
+import org.foraci.dolby.s337m.BurstAlignmentStats;
 import org.foraci.dolby.s337m.BurstInfo;
+import org.foraci.dolby.s337m.FormatProbe;
+import org.foraci.dolby.s337m.PayloadDecoder;
+import org.foraci.dolby.s337m.PayloadReader;
+import org.foraci.dolby.s337m.StreamFormat;
+import org.foraci.dolby.util.io.AsyncPrefetchInputStream;
+import org.foraci.dolby.util.io.ByteSource;
+import org.foraci.dolby.util.io.LookaheadInputStream;
+import org.foraci.dolby.util.io.MappedFileSource;
+import org.foraci.dolby.util.io.StreamByteSource;
+import org.foraci.dolby.util.io.SubframeWordReader;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * This is a Dolby E reader that can read 337M-wrapped Dolby E frames from a single file
@@ -19,97 +39,482 @@ public class DolbyEReader extends ParserHelper
     private static final int EXIT_BAD_ARGS = -1;
     private static final String ARG_IN1 = "-1";
     private static final String ARG_IN2 = "-2";
+    private static final String STDIN = "-";
     private static final String ARG_OFFSET = "-offset";
     private static final String ARG_ALIGN = "-align";
     private static final String ARG_AESPROBE = "-aesprobe";
     private static final String ARG_SAMPLE_SIZE = "-sample";
+    private static final String SAMPLE_SIZE_AUTO = "auto";
     private static final String ARG_LOG_LEVEL = "-v";
+    private static final String ARG_GUARDBAND = "-guardband";
+    private static final String ARG_RECOVER = "-recover";
+    private static final String ARG_DELTA = "-delta";
+    private static final String ARG_ASYNC = "-async";
+    private static final String ARG_CACHE = "-cache";
+    private static final String ARG_CACHE_SIZE = "-cachesize";
+    private static final String ARG_START_BYTE = "-startbyte";
+    private static final String ARG_END_BYTE = "-endbyte";
+    private static final String ARG_START_FRAME = "-startframe";
+    private static final String ARG_END_FRAME = "-endframe";
+    private static final String ARG_START_TIMECODE = "-starttc";
+    private static final String ARG_END_TIMECODE = "-endtc";
+    private static final String ARG_FRAMES = "-frames";
+    private static final String ARG_EVERY = "-every";
+    private static final String ARG_EVERY_SECONDS = "-everysec";
+    private static final String ARG_GROUPS = "-groups";
+    private static final String ARG_METERS = "-meters";
+    private static final String ARG_METER_WINDOW = "-meterwindow";
+    private static final String ARG_BOUNDED = "-bounded";
+    private static final String ARG_TIMING = "-timing";
+    private static final String ARG_MMAP = "-mmap";
+    private static final String ARG_LOW_LATENCY = "-lowlatency";
+
+    private static final int RESYNC_MARK_LIMIT = 256 * 1024; // must cover the largest burst we expect to read
+    private static final int SEGMENT_BLOCK_WORDS = 1024; // audio words de-keyed and run through the CRC at a time
+    private static final int BOUNDED_WARNING_LIMIT = 100;
+    private static final int BOUNDED_WARNING_WINDOW = 1500; // frames; a minute at 25 fps
+    private static final int BOUNDED_DAMAGE_REGIONS = 1000;
 
     public static final int E_SYNC_16 = 0x78E;
     public static final int E_SYNC_20 = 0x788E;
     public static final int E_SYNC_24 = 0x7888E;
 
-    private DataInputStream in;
+    private final ByteSource source;
     private int sampleSize;
+    private boolean bigEndian = false;
     private boolean subframeMode;
     private int frameCount;
     private int eBitDepth = 0;
+    private long position = 0; // bytes read from the (muxed) input
+    private long markPosition = 0;
+    private long frameStart = 0; // position of the preamble of the burst being read
+    private long inputOffset = 0; // position in the input(s) where this reader started
+    private ReadRange range = null;
+    private boolean inRange = false;
+    private boolean rangeEnded = false;
+    private long rangeFrames = 0;
+    private int sampleFrames = 1; // decode one frame in this many
+    private double sampleSeconds = 0; // or one frame per this many seconds, if not zero
+    private int sampleCountdown = 0; // frames to skip before the next one decoded
+    private int segmentGroups = FrameMetadata.GROUP_ALL;
+    private int warningWindow = 0; // frames between resets of the warning count, or zero
+    private final BurstAlignmentStats burstStats;
+    private final DamageLog damageLog = new DamageLog();
+    private final FrameMetadata metadata = new FrameMetadata();
+    private final List<FrameListener> listeners = new ArrayList<FrameListener>();
+    private final PayloadDecoder[] decoders = new PayloadDecoder[32]; // by 337M data type (5 bits)
+    private final long[] burstCounts = new long[32];
+
+    /**
+     * Creates a reader for two inputs in subframe mode (e.g. two GXF audio tracks)
+     * @param words the reader combining the sample words of the two inputs
+     * @param sampleSize the size of each sample word, in bytes
+     */
+    public DolbyEReader(SubframeWordReader words, int sampleSize)
+    {
+        this(words, sampleSize, true);
+    }
 
-    public DolbyEReader(DataInputStream in, int sampleSize, boolean subframeMode)
+    /**
+     * Creates a reader for a single input stream
+     */
+    public DolbyEReader(InputStream in, int sampleSize)
     {
-        this.in = in;
+        this(new StreamByteSource(in, sampleSize), sampleSize, false);
+    }
+
+    /**
+     * @param source the sample words of the input(s)
+     * @param sampleSize the size of each sample word, in bytes
+     * @param subframeMode whether the source combines two inputs (so byte positions count the bytes of both)
+     */
+    public DolbyEReader(ByteSource source, int sampleSize, boolean subframeMode)
+    {
+        this.source = source;
         this.sampleSize = sampleSize;
         this.subframeMode = subframeMode;
         this.frameCount = 0;
+        this.burstStats = new BurstAlignmentStats(sampleSize);
+        setPayloadDecoder(BurstInfo.DATA_TYPE_ATSC_A_52B_AC3_AUDIO, new Ac3PayloadDecoder());
+        setPayloadDecoder(BurstInfo.DATA_TYPE_ATSC_A_52B_ENHANCED_AC3_AUDIO, new EnhancedAc3PayloadDecoder());
     }
 
     public static void main(String[] args) throws Exception
     {
-        if (args.length == 0) {
-            System.err.println("No file specified; specify with: -1 filename [-2 filename2]");
+        try {
+            run(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
             System.exit(EXIT_BAD_ARGS);
         }
+    }
+
+    /**
+     * Reads the input(s) given by the arguments, as {@link #main(String[])} does, but without exiting
+     * @throws IllegalArgumentException if the arguments are not valid, before any input is opened
+     */
+    public static void run(String[] args) throws Exception
+    {
+        final long started = System.currentTimeMillis();
+        if (args.length == 0) {
+            throw new IllegalArgumentException("No file specified; specify with: -1 filename [-2 filename2]");
+        }
         final int buffSize = 8 * 1024;
         CountingInputStream cin1 = null, cin2 = null;
         String first = getArg(args, ARG_IN1);
-        if (first == null || "-".equals(first)) {
-            System.err.println("No file(s) specified; specify with: -1 filename [-2 filename2]");
-            System.exit(EXIT_BAD_ARGS);
-        }
-        File firstFile = new File(first);
-        DataInputStream in1 = new DataInputStream(cin1 = new CountingInputStream(new BufferedInputStream(new FileInputStream(firstFile), buffSize)));
-        DataInputStream in2 = null;
-        String second = getArg(args, ARG_IN2);
-        File secondFile = null;
-        if (second != null && !"-".equals(second)) {
-            secondFile = new File(second);
-            in2 = new DataInputStream(cin2 = new CountingInputStream(new BufferedInputStream(new FileInputStream(secondFile), buffSize)));
+        if (first == null) {
+            throw new IllegalArgumentException("No file(s) specified; specify with: -1 filename [-2 filename2] (use - for stdin)");
         }
         boolean align = findArg(args, ARG_ALIGN); // whether to align to the first non-zero byte in the input(s)
         boolean probe = findArg(args, ARG_AESPROBE); // whether to probe for the next 337M burst preamble in the input(s)
         if (align && probe) {
-            System.err.println("You can not specify both " + ARG_ALIGN + " and " + ARG_AESPROBE);
-            System.exit(EXIT_BAD_ARGS);
+            throw new IllegalArgumentException("You can not specify both " + ARG_ALIGN + " and " + ARG_AESPROBE);
+        }
+        int sampleSize = 0; // detected, unless given
+        String sampleArg = getArg(args, ARG_SAMPLE_SIZE);
+        if (sampleArg != null && !SAMPLE_SIZE_AUTO.equals(sampleArg)) {
+            sampleSize = Integer.parseInt(sampleArg);
+            if (sampleSize < 2 || sampleSize > 4) {
+                throw new IllegalArgumentException("Sample size must be 2, 3, 4 or " + SAMPLE_SIZE_AUTO);
+            }
+        }
+        ReadRange range = getRange(args); // null to read everything
+        boolean async = findArg(args, ARG_ASYNC); // whether to prefetch the input file(s) with asynchronous reads
+        File firstFile = (STDIN.equals(first)) ? null : new File(first);
+        String second = getArg(args, ARG_IN2);
+        File secondFile = (second != null && !"-".equals(second)) ? new File(second) : null;
+        // stdin, pipes and FIFOs can only be read once, so they are read through a lookahead buffer of their own
+        boolean streaming = (firstFile == null || !firstFile.isFile() || (secondFile != null && !secondFile.isFile()));
+        boolean mapped = findArg(args, ARG_MMAP); // whether to read a single input file through a memory-mapped window
+        if (mapped && (streaming || secondFile != null || async)) {
+            throw new IllegalArgumentException(ARG_MMAP + " needs a single regular file (and no " + ARG_ASYNC + ")");
         }
-        int sampleSize = (findArg(args, ARG_SAMPLE_SIZE)) ? Integer.parseInt(getArg(args, ARG_SAMPLE_SIZE)) : ((in2 == null) ? 4 : 3); // seems to be 3 for two separate GXF tracks; 4 for one .e file from DP600 (seems only the higher 3 bytes are used though)
-        boolean subframeMode = (in2 != null); // true for two separate GXF track inputs
-        MultiplexingInputStream in = new MultiplexingInputStream(in1, in2, sampleSize);
-        long offset = (findArg(args, ARG_OFFSET)) ? Long.parseLong(getArg(args, ARG_OFFSET)) : 0;
-        skipFully(in, offset);
-        DolbyEReader reader = new DolbyEReader(in, sampleSize, subframeMode);
-        if (findArg(args, ARG_LOG_LEVEL)) {
-            int logLevel = Integer.parseInt(getArg(args, ARG_LOG_LEVEL));
-            reader.setLogLevel(logLevel);
+        if (streaming && async) {
+            throw new IllegalArgumentException(ARG_ASYNC + " needs regular files");
         }
+        long offset = (findArg(args, ARG_OFFSET)) ? Long.parseLong(getArg(args, ARG_OFFSET)) : -1;
+        if (findArg(args, ARG_OFFSET) && offset < 0) {
+            throw new IllegalArgumentException(ARG_OFFSET + " must not be negative");
+        }
+        // decode only these segment groups, e.g. "meters" or "ac3,meters"
+        int groups = (findArg(args, ARG_GROUPS)) ? FrameMetadata.parseGroups(getArg(args, ARG_GROUPS)) : FrameMetadata.GROUP_ALL;
+        int every = 0; // decode only one frame in N
+        double everySeconds = 0; // or one frame per T seconds
+        if (findArg(args, ARG_EVERY)) {
+            every = Integer.parseInt(getArg(args, ARG_EVERY));
+            if (every < 1) {
+                throw new IllegalArgumentException(ARG_EVERY + " must be at least one frame");
+            }
+        } else if (findArg(args, ARG_EVERY_SECONDS)) {
+            everySeconds = Double.parseDouble(getArg(args, ARG_EVERY_SECONDS));
+            if (!(everySeconds > 0)) {
+                throw new IllegalArgumentException(ARG_EVERY_SECONDS + " must be positive");
+            }
+        }
+        boolean sampling = (every > 0 || everySeconds > 0); // whether to decode only some frames
+        int meterWindow = (findArg(args, ARG_METER_WINDOW)) ? Integer.parseInt(getArg(args, ARG_METER_WINDOW)) : 0;
+        if (meterWindow < 0) {
+            throw new IllegalArgumentException(ARG_METER_WINDOW + " must not be negative");
+        }
+        int logLevel = (findArg(args, ARG_LOG_LEVEL)) ? Integer.parseInt(getArg(args, ARG_LOG_LEVEL)) : 0;
+        int wait = (findArg(args, ARG_LOW_LATENCY)) ? FrameHandoff.parseWait(getArg(args, ARG_LOW_LATENCY)) : 0;
+        boolean recover = findArg(args, ARG_RECOVER); // whether to skip damaged frames instead of stopping
+        ResultCache cache = null;
+        if (findArg(args, ARG_CACHE) && streaming) {
+            log("not caching results for a stream input");
+        } else if (findArg(args, ARG_CACHE)) {
+            long cacheSize = (findArg(args, ARG_CACHE_SIZE))
+                    ? Long.parseLong(getArg(args, ARG_CACHE_SIZE)) * 1024 * 1024 : ResultCache.DEFAULT_MAX_SIZE;
+            if (cacheSize < 1) {
+                throw new IllegalArgumentException(ARG_CACHE_SIZE + " must be at least 1 (MB)");
+            }
+            cache = new ResultCache(new File(getArg(args, ARG_CACHE)), cacheSize);
+        }
+        LookaheadInputStream look1 = null, look2 = null;
+        InputStream in1 = null, in2 = null;
+        ByteSource source = null;
         try {
-            //in.align();
-            while (true) {
-                if (align) {
-                    in.align();
+            if (streaming) {
+                look1 = new LookaheadInputStream((firstFile == null) ? System.in : new FileInputStream(firstFile));
+                in1 = cin1 = new CountingInputStream(look1);
+                if (secondFile != null) {
+                    look2 = new LookaheadInputStream(new FileInputStream(secondFile));
+                    in2 = cin2 = new CountingInputStream(look2);
                 }
-                if (probe) {
-                    reader.probeForAESFrame();
+            } else if (!mapped) {
+                in1 = cin1 = new CountingInputStream(new BufferedInputStream(openFile(firstFile, async), buffSize));
+                if (secondFile != null) {
+                    in2 = cin2 = new CountingInputStream(new BufferedInputStream(openFile(secondFile, async), buffSize));
                 }
-                reader.readFrame();
             }
-        } catch (EOFException e) {
-            if (cin1 != null) {
-                log("1st stream at EOF: " + (cin1.getPosition() == firstFile.length()));
+            boolean bigEndian = false;
+            if (sampleSize == 0) {
+                StreamFormat format;
+                if (streaming) { // look at the start of the input(s) without consuming it
+                    byte[] data1 = look1.peek(FormatProbe.PROBE_LENGTH);
+                    byte[] data2 = (look2 == null) ? null : look2.peek(FormatProbe.PROBE_LENGTH);
+                    format = (data2 == null) ? FormatProbe.probe(data1, data1.length) : FormatProbe.probe(data1, data1.length, data2, data2.length);
+                } else {
+                    format = FormatProbe.probe(firstFile, secondFile);
+                }
+                if (format == null) {
+                    sampleSize = (in2 == null) ? 4 : 3; // seems to be 3 for two separate GXF tracks; 4 for one .e file from DP600 (seems only the higher 3 bytes are used though)
+                    log("no 337M preamble found in the first " + FormatProbe.PROBE_LENGTH + " bytes; assuming " + sampleSize + "-byte samples");
+                } else {
+                    log("detected " + format);
+                    sampleSize = format.getSampleSize();
+                    bigEndian = format.isBigEndian();
+                    if (offset == -1) {
+                        offset = format.getOffset();
+                    }
+                }
+            }
+            boolean subframeMode = (in2 != null); // true for two separate GXF track inputs
+            File[] files = (subframeMode) ? new File[] { firstFile, secondFile } : new File[] { firstFile };
+            long startOffset = Math.max(offset, 0); // where a full read starts, which a cached result must share
+            ResultCache.Entry cached = null;
+            FileIdentity[] identities = null;
+            if (cache != null) { // re-read only inputs that are new, changed or have grown since the last run
+                identities = new FileIdentity[files.length];
+                for (int i = 0; i < files.length; i++) {
+                    identities[i] = FileIdentity.of(files[i]); // before reading, so anything appended meanwhile is read next time
+                }
+                cached = cache.get(files);
+                int status = ResultCache.check(cached, sampleSize, startOffset, bigEndian, groups, recover, files);
+                if (range != null || sampling) {
+                    if (status == ResultCache.MISS || range == null) {
+                        cached = null;
+                    }
+                    // only the frame index is used, to seek to the start of the range; a partial read is not stored
+                } else if (status == ResultCache.HIT) {
+                    log("using cached result for " + Arrays.toString(files));
+                    cached.getSummary().report(System.out);
+                    return;
+                } else if (status == ResultCache.GROWN) {
+                    log("input has grown; reading from " + cached.getEndPosition() + " after " + cached.getSummary().getFrames() + " cached frame(s)");
+                    offset = cached.getEndPosition();
+                } else {
+                    cached = null;
+                }
+            }
+            boolean resync = (cached != null); // whether reading starts somewhere other than a preamble
+            int startFrame = (cached != null) ? (int) cached.getSummary().getFrames() : 0;
+            if (range != null) {
+                log(range.toString());
+                FrameIndex index = (cached != null) ? cached.getIndex() : null;
+                startFrame = 0;
+                resync = false;
+                if (index != null && range.getStartFrame() != ReadRange.NONE && range.getStartFrame() < index.size()) {
+                    startFrame = (int) range.getStartFrame();
+                    offset = index.getPosition(startFrame);
+                } else if (range.getStartByte() != ReadRange.NONE) {
+                    int frame = (index != null) ? index.findFrame(range.getStartByte() - 1) + 1 : -1;
+                    if (index != null && frame < index.size()) {
+                        startFrame = frame;
+                        offset = index.getPosition(frame);
+                    } else {
+                        offset = range.getStartByte(); // frames are numbered from here
+                        resync = true;
+                    }
+                }
             }
-            if (cin2 != null) {
-                log("2nd stream at EOF: " + (cin2.getPosition() == secondFile.length()));
+            boolean guardBandReport = findArg(args, ARG_GUARDBAND); // whether to report the 337M burst alignment at the end
+            if (subframeMode) {
+                source = new SubframeWordReader(in1, in2, sampleSize);
+            } else if (mapped) {
+                source = new MappedFileSource(firstFile, 0, sampleSize);
+            } else {
+                source = new StreamByteSource(in1, sampleSize);
             }
-        } catch (Exception e) {
-            if (cin1 != null) {
-                log("Exception at cin1=" + cin1.getPosition());
+            if (offset > 0) {
+                source.skipBytes(offset);
             }
-            if (cin2 != null) {
-                log("Exception at cin2=" + cin2.getPosition());
+            DolbyEReader reader = new DolbyEReader(source, sampleSize, subframeMode);
+            reader.setBigEndian(bigEndian);
+            reader.setInputOffset(Math.max(offset, 0));
+            reader.setFrameCount(startFrame);
+            reader.setRange(range);
+            MeterStatistics meters = null;
+            if (findArg(args, ARG_METERS)) { // aggregate the meters instead of printing them for every frame
+                meters = new MeterStatistics(System.out, meterWindow);
+                reader.setLogLevel(LOGLEVEL_WARN);
+                reader.addFrameListener(meters);
             }
-            throw e;
-        } finally {
-            log("last frame is " + reader.getFrameDescription(reader.getFrameCount()));
+            if (findArg(args, ARG_BOUNDED)) { // keep memory and output bounded however long the input is
+                reader.setBoundedMemory();
+            }
+            if (findArg(args, ARG_GROUPS)) {
+                reader.setSegmentGroups(groups);
+            }
+            if (every > 0) {
+                reader.setSampling(every);
+            } else if (everySeconds > 0) {
+                reader.setSamplingInterval(everySeconds);
+            }
+            ParseRecorder recorder = null;
+            if (cache != null && range == null && !sampling && !findArg(args, ARG_BOUNDED)) { // the frame index grows with the input
+                recorder = new ParseRecorder(reader);
+                reader.addFrameListener(recorder);
+            }
+            if (findArg(args, ARG_LOG_LEVEL)) {
+                reader.setLogLevel(logLevel);
+            }
+            if (findArg(args, ARG_DELTA)) { // print only the metadata that changed from frame to frame
+                reader.setLogLevel(LOGLEVEL_WARN);
+                reader.addFrameListener(new MetadataDelta(System.out));
+            }
+            if (findArg(args, ARG_TIMING)) { // report when the first frame was read, e.g. for the startup benchmark
+                reader.addFrameListener(new FirstFrameTimer(System.out, started));
+            }
+            FrameHandoff handoff = null;
+            if (findArg(args, ARG_LOW_LATENCY)) { // print the changes from a thread of its own, waiting by spin|yield|park
+                reader.setLogLevel(LOGLEVEL_WARN);
+                handoff = new FrameHandoff(new MetadataDelta(System.out), FrameHandoff.DEFAULT_CAPACITY, wait);
+                handoff.start();
+                reader.addFrameListener(handoff);
+            }
+            boolean complete = false;
+            try {
+                //in.align();
+                if (resync && !align) {
+                    reader.probeForAESFrame(); // e.g. the cached part ends after a burst, not at the next preamble
+                }
+                while (!reader.isRangeEnded()) {
+                    if (align) {
+                        reader.align();
+                    }
+                    if (probe) {
+                        reader.probeForAESFrame();
+                    }
+                    if (recover) {
+                        reader.readFrameOrResync();
+                    } else {
+                        reader.readFrame();
+                    }
+                }
+            } catch (EOFException e) {
+                complete = true;
+                if (streaming) {
+                    log("end of stream after " + cin1.getPosition() + " bytes");
+                } else {
+                    long read1 = (cin1 != null) ? cin1.getPosition() : source.getPosition();
+                    log("1st stream at EOF: " + (read1 == firstFile.length()));
+                    if (cin2 != null) {
+                        log("2nd stream at EOF: " + (cin2.getPosition() == secondFile.length()));
+                    }
+                }
+            } catch (Exception e) {
+                if (cin1 != null) {
+                    log("Exception at cin1=" + cin1.getPosition());
+                }
+                if (cin2 != null) {
+                    log("Exception at cin2=" + cin2.getPosition());
+                }
+                throw e;
+            } finally {
+                if (handoff != null) {
+                    handoff.close();
+                    handoff.getLatency().report(System.out, "frame to callback latency");
+                    if (handoff.getDropped() > 0) {
+                        log("dropped " + handoff.getDropped() + " frame(s) the callback fell behind on");
+                    }
+                }
+                log("last frame is " + reader.getFrameDescription(reader.getFrameCount()));
+                if (guardBandReport) {
+                    reader.getBurstAlignmentStats().report(System.out);
+                }
+                if (recover) {
+                    reader.getDamageLog().report(System.out);
+                }
+                reader.reportBurstCounts();
+                if (meters != null) {
+                    meters.report(System.out);
+                }
+                if (recorder != null && complete) {
+                    storeResult(cache, cached, identities, sampleSize, startOffset, bigEndian, groups, recover, recorder,
+                            files);
+                }
+            }
+        } finally { // the launcher reads many inputs in one JVM
+            if (source != null) {
+                source.close();
+            } else {
+                if (in1 != null) {
+                    in1.close();
+                }
+                if (in2 != null) {
+                    in2.close();
+                }
+            }
+        }
+    }
+
+    private static void storeResult(ResultCache cache, ResultCache.Entry cached, FileIdentity[] identities,
+                                    int sampleSize, long offset, boolean bigEndian, int groups, boolean recover,
+                                    ParseRecorder recorder, File[] files) throws IOException
+    {
+        recorder.finish();
+        ParseSummary summary = recorder.getSummary();
+        FrameIndex index = recorder.getIndex();
+        long endPosition = recorder.getEndPosition();
+        if (cached != null) { // the tail of a grown input
+            summary = cached.getSummary();
+            summary.merge(recorder.getSummary());
+            index = cached.getIndex();
+            index.append(recorder.getIndex());
+            if (recorder.getIndex().size() == 0) {
+                endPosition = cached.getEndPosition();
+            }
+        }
+        cache.put(new ResultCache.Entry(identities, sampleSize, offset, bigEndian, groups, recover, summary, index,
+                endPosition), files);
+        summary.report(System.out);
+    }
+
+    /**
+     * @return the range given by the range arguments, or <code>null</code> if there are none
+     */
+    private static ReadRange getRange(String[] args)
+    {
+        ReadRange range = new ReadRange();
+        boolean set = false;
+        if (findArg(args, ARG_START_BYTE)) {
+            range.setStartByte(Long.parseLong(getArg(args, ARG_START_BYTE)));
+            set = true;
+        }
+        if (findArg(args, ARG_END_BYTE)) {
+            range.setEndByte(Long.parseLong(getArg(args, ARG_END_BYTE)));
+            set = true;
+        }
+        if (findArg(args, ARG_START_FRAME)) {
+            range.setStartFrame(Long.parseLong(getArg(args, ARG_START_FRAME)));
+            set = true;
+        }
+        if (findArg(args, ARG_END_FRAME)) {
+            range.setEndFrame(Long.parseLong(getArg(args, ARG_END_FRAME)));
+            set = true;
+        }
+        if (findArg(args, ARG_START_TIMECODE)) {
+            range.setStartTimecode(ReadRange.parseTimecode(getArg(args, ARG_START_TIMECODE)));
+            set = true;
+        }
+        if (findArg(args, ARG_END_TIMECODE)) {
+            range.setEndTimecode(ReadRange.parseTimecode(getArg(args, ARG_END_TIMECODE)));
+            set = true;
+        }
+        if (findArg(args, ARG_FRAMES)) {
+            range.setMaxFrames(Long.parseLong(getArg(args, ARG_FRAMES)));
+            set = true;
+        }
+        return (set) ? range : null;
+    }
+
+    private static InputStream openFile(File file, boolean async) throws IOException
+    {
+        if (async) {
+            return new AsyncPrefetchInputStream(file);
         }
+        return new FileInputStream(file);
     }
 
     public int getFrameCount()
@@ -117,6 +522,247 @@ public class DolbyEReader extends ParserHelper
         return frameCount;
     }
 
+    /**
+     * Sets the number of frames already read, e.g. when continuing to read an input from a known frame
+     */
+    public void setFrameCount(int frameCount)
+    {
+        this.frameCount = frameCount;
+    }
+
+    /**
+     * @param bigEndian whether the sample words are stored most significant byte first
+     */
+    public void setBigEndian(boolean bigEndian)
+    {
+        this.bigEndian = bigEndian;
+        source.setBigEndian(bigEndian);
+    }
+
+    /**
+     * Skips to the first non-zero byte in the input(s)
+     */
+    public void align() throws IOException
+    {
+        long skipped = source.align();
+        position += (subframeMode) ? skipped * 2 : skipped;
+    }
+
+    /**
+     * @return the number of bytes read from the input so far (in subframe mode, counting the bytes of both inputs)
+     */
+    public long getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * @param inputOffset the byte position in the input (in each input, in subframe mode) where this reader starts,
+     * e.g. after skipping an offset
+     */
+    public void setInputOffset(long inputOffset)
+    {
+        this.inputOffset = inputOffset;
+    }
+
+    /**
+     * @return the byte position in the input (in each input, in subframe mode) of the next byte to read
+     */
+    public long getInputPosition()
+    {
+        return toInputPosition(position);
+    }
+
+    /**
+     * @param position a position as returned by {@link #getPosition()}
+     * @return the position as a byte position in the input (in each input, in subframe mode)
+     */
+    public long toInputPosition(long position)
+    {
+        return inputOffset + ((subframeMode) ? position / 2 : position);
+    }
+
+    /**
+     * Limits reading to part of the input. Bursts before the start of the range are skipped without being decoded;
+     * once the range has ended {@link #readFrame()} reads nothing more (see {@link #isRangeEnded()}).
+     * @param range the range, or <code>null</code> to read everything
+     */
+    public void setRange(ReadRange range)
+    {
+        this.range = range;
+        this.inRange = (range == null || !range.hasStart());
+        this.rangeEnded = false;
+        this.rangeFrames = 0;
+    }
+
+    /**
+     * Decodes only one Dolby E frame in every <code>frames</code>; the bursts in between are skipped after reading
+     * only their preamble and burst info. Listeners are only told of the frames decoded.
+     * @param frames the sampling interval, in frames (1 to decode every frame)
+     */
+    public void setSampling(int frames)
+    {
+        if (frames < 1) {
+            throw new IllegalArgumentException("sampling interval must be at least one frame");
+        }
+        this.sampleFrames = frames;
+        this.sampleSeconds = 0;
+        this.sampleCountdown = 0;
+    }
+
+    /**
+     * Decodes only one Dolby E frame per interval, like {@link #setSampling(int)}, with the interval in frames
+     * worked out from the frame rate of each frame decoded
+     * @param seconds the sampling interval, in seconds
+     */
+    public void setSamplingInterval(double seconds)
+    {
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("sampling interval must be positive");
+        }
+        this.sampleFrames = 1;
+        this.sampleSeconds = seconds;
+        this.sampleCountdown = 0;
+    }
+
+    /**
+     * Selects the parts of each Dolby E frame to decode. Segments not selected are skipped by their sizes
+     * (their CRCs are not checked), and the rest of the payload is skipped once nothing more is needed.
+     * @param groups the {@link FrameMetadata} <code>GROUP_*</code> flags (the header is always decoded)
+     */
+    public void setSegmentGroups(int groups)
+    {
+        this.segmentGroups = groups | FrameMetadata.GROUP_HEADER;
+    }
+
+    public int getSegmentGroups()
+    {
+        return segmentGroups;
+    }
+
+    private boolean wants(int groups)
+    {
+        return (segmentGroups & groups) != 0;
+    }
+
+    /**
+     * Limits the warnings printed to the given number per window of frames, so the output of an endless input
+     * stays bounded; the number of warnings suppressed is printed at the end of each window
+     * @param limit the number of warnings to print per window
+     * @param frames the number of frames in each window
+     */
+    public void setWarningWindow(long limit, int frames)
+    {
+        setWarningLimit(limit);
+        this.warningWindow = frames;
+    }
+
+    /**
+     * Bounds every store of the reader that would otherwise grow with the length of the input, for endless inputs
+     * such as pipes and live feeds: warnings are limited per window of frames and the damage log keeps only
+     * the most recent regions. (The other buffers of the reader have fixed sizes or limits already.)
+     */
+    public void setBoundedMemory()
+    {
+        setWarningWindow(BOUNDED_WARNING_LIMIT, BOUNDED_WARNING_WINDOW);
+        damageLog.setMaxRegions(BOUNDED_DAMAGE_REGIONS);
+    }
+
+    /**
+     * @return true if a range was set and has been read to its end
+     */
+    public boolean isRangeEnded()
+    {
+        return rangeEnded;
+    }
+
+    /**
+     * @return the guard band and burst period statistics gathered while reading frames
+     */
+    public BurstAlignmentStats getBurstAlignmentStats()
+    {
+        return burstStats;
+    }
+
+    /**
+     * @return the damaged regions found by {@link #readFrameOrResync()}
+     */
+    public DamageLog getDamageLog()
+    {
+        return damageLog;
+    }
+
+    /**
+     * Sets the decoder for the payload of bursts with the given data type. Bursts of a data type without
+     * a decoder are skipped. Dolby E is always decoded by this reader.
+     * @param dataType the 337M data type
+     * @param decoder the decoder, or <code>null</code> to skip bursts of this type
+     */
+    public void setPayloadDecoder(int dataType, PayloadDecoder decoder)
+    {
+        if (dataType == BurstInfo.DATA_TYPE_DOLBYE) {
+            throw new IllegalArgumentException("Dolby E payloads are decoded by the reader");
+        }
+        if (decoder instanceof ParserHelper) {
+            ((ParserHelper) decoder).setLogLevel(logLevel);
+        }
+        decoders[dataType] = decoder;
+    }
+
+    public void setLogLevel(int logLevel)
+    {
+        super.setLogLevel(logLevel);
+        for (PayloadDecoder decoder : decoders) {
+            if (decoder instanceof ParserHelper) {
+                ((ParserHelper) decoder).setLogLevel(logLevel);
+            }
+        }
+    }
+
+    /**
+     * @param dataType the 337M data type
+     * @return the number of bursts of the data type read so far
+     */
+    public long getBurstCount(int dataType)
+    {
+        return burstCounts[dataType];
+    }
+
+    private void reportBurstCounts()
+    {
+        for (int dataType = 0; dataType < burstCounts.length; dataType++) {
+            if (burstCounts[dataType] != 0 && dataType != BurstInfo.DATA_TYPE_DOLBYE) {
+                log("bursts of data type " + dataType + ": " + burstCounts[dataType]);
+            }
+        }
+    }
+
+    public void addFrameListener(FrameListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void removeFrameListener(FrameListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the metadata of the last frame read (this instance is updated in place for each frame)
+     */
+    public FrameMetadata getFrameMetadata()
+    {
+        return metadata;
+    }
+
+    /**
+     * @return where the fields of the last frame read are (reused for the next frame, like the metadata)
+     */
+    public FrameLayout getFrameLayout()
+    {
+        return layout;
+    }
+
     private String getFrameDescription(int frame)
     {
         return "" + frame + " -> " + new NtscConverter().convertFromFrames(frame * 2, false);
@@ -125,7 +771,7 @@ public class DolbyEReader extends ParserHelper
     public void readPreamble() throws IOException
     {
         int depth;
-        int preamble = readIntLe(in);
+        int preamble = readWord();
         // assume it's written as little-endian
         if (preamble == BurstInfo.PREAMBLE_16_W1) {
             depth = 16;
@@ -136,7 +782,7 @@ public class DolbyEReader extends ParserHelper
         } else {
             throw new IOException("bad preamble");
         }
-        preamble = readIntLe(in);
+        preamble = readWord();
         //check against second preamble word
         boolean ok = false;
         if (preamble == BurstInfo.PREAMBLE_16_W2) {
@@ -171,19 +817,25 @@ public class DolbyEReader extends ParserHelper
     public void probeForAESFrame(final int limit) throws IOException
     {
         int pos = 0;
-        in.mark(8);
+        markInput(8);
         while (pos <= limit) {
-            int test = readIntLe(in);
+            int test = readWord();
             if (test == 0) {
-                in.mark(8);
+                markInput(8);
                 pos += sampleSize;
                 continue;
             }
-            in.reset();
-            in.mark(8);
+            resetInput();
+            markInput(8);
+            if (test != BurstInfo.PREAMBLE_16_W1 && test != BurstInfo.PREAMBLE_20_W1 && test != BurstInfo.PREAMBLE_24_W1) {
+                skipInput(1);
+                markInput(8);
+                pos += ((subframeMode) ? 2 : 1);
+                continue;
+            }
             try {
                 readPreamble();
-                in.reset();
+                resetInput();
                 final int BAND_SIZE_THRESHOLD = 243 * 2;
                 if (pos > BAND_SIZE_THRESHOLD) {
                     warn("probed for " + pos + " bytes before finding an AES frame!");
@@ -191,9 +843,9 @@ public class DolbyEReader extends ParserHelper
                 }
                 return;
             } catch (IOException ioe) {
-                in.reset();
-                skipFully(in, 1);
-                in.mark(8);
+                resetInput();
+                skipInput(1);
+                markInput(8);
                 pos += ((subframeMode) ? 2 : 1); // since we skip a byte in all streams, this gets incremented by one for each (i.e. 1 for one stream, 2 if muxing together two streams)
             }
         }
@@ -202,13 +854,13 @@ public class DolbyEReader extends ParserHelper
 
     public BurstInfo readBurstInfo() throws IOException
     {
-        int word = readIntLe(in);
+        int word = readWord();
         int streamNumber = ((word >> 29) & 0x7);
         int dataTypeData = ((word >> 24) & 0x1F);
         boolean errors = (((word >> 23) & 0x1) == 1);
         int dataMode = ((word >> 21) & 0x3);
         int dataType = ((word >> 16) & 0x1F);
-        word = readIntLe(in);
+        word = readWord();
         int bitLength = ((word >> 12) & 0xFFFFF);
         if (dataTypeData != 0) {
             warn("dataTypeData is not zero: " + dataTypeData);
@@ -216,8 +868,8 @@ public class DolbyEReader extends ParserHelper
         if (dataMode != 1) {
             warn("dataMode is not 1: " + dataMode);
         }
-        if (dataType != 28) {
-            warn("dataType is not 28: " + dataType);
+        if (dataType != BurstInfo.DATA_TYPE_DOLBYE) {
+            debug("dataType is not Dolby E: " + dataType);
         }
         BurstInfo info = new BurstInfo(streamNumber, dataTypeData, errors, dataMode, dataType, bitLength);
         return info;
@@ -225,6 +877,25 @@ public class DolbyEReader extends ParserHelper
 
     public void readFrame() throws IOException
     {
+        if (range != null) {
+            if (rangeEnded || range.isEndedBefore(frameCount, getInputPosition(), rangeFrames)) {
+                rangeEnded = true;
+                return;
+            }
+            if (!inRange && !seekRange()) {
+                return;
+            }
+        }
+        if (sampleCountdown > 0) {
+            int count = frameCount;
+            skipBurst(false);
+            if (frameCount != count) {
+                sampleCountdown--;
+            }
+            return;
+        }
+        frameStart = position;
+        burstStats.burstStart(frameStart);
         info("AES frame:", true);
         readPreamble();
         BurstInfo info = readBurstInfo();
@@ -239,74 +910,252 @@ public class DolbyEReader extends ParserHelper
         if (info.hasErrors()) {
             warn("errors in AES payload");
         }
+        burstCounts[info.getDataType()]++;
         if (info.getDataType() != BurstInfo.DATA_TYPE_DOLBYE) {
-            throw new IOException("AES data type is not Dolby E");
+            readOtherPayload(info);
+            burstStats.burstEnd(position);
+            return;
         }
 
         readE(info);
+        burstStats.burstEnd(position);
 
 //        skipFully(in, dataLength);
 
+        countFrame();
+        if (range != null) {
+            rangeFrames++;
+            rangeEnded = range.isEndedAfter(metadata.getTimecode());
+        }
+        if (sampleSeconds > 0) {
+            sampleCountdown = (int) Math.max(0, Math.round(sampleSeconds * metadata.getFrameRate()) - 1);
+        } else {
+            sampleCountdown = sampleFrames - 1;
+        }
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).frameRead(metadata);
+        }
+    }
+
+    /**
+     * Counts a Dolby E frame decoded or skipped for good, ending the warning window every so many frames
+     */
+    private void countFrame()
+    {
         frameCount++;
+        if (warningWindow > 0 && frameCount % warningWindow == 0) {
+            long suppressed = resetWarnings();
+            if (suppressed > 0) {
+                log("suppressed " + suppressed + " warning(s) in the last " + warningWindow + " frames");
+            }
+        }
+    }
+
+    /**
+     * Skips the next burst if it is before the start of the range
+     * @return true if the range starts with the next burst
+     */
+    private boolean seekRange() throws IOException
+    {
+        if (range.isBeforeStart(frameCount, getInputPosition())) {
+            skipBurst(false);
+            return false;
+        }
+        if (range.getStartTimecode() != FrameMetadata.TIMECODE_INVALID) {
+            markInput(RESYNC_MARK_LIMIT);
+            int count = frameCount;
+            if (range.isBeforeStartTimecode(skipBurst(true))) {
+                return false;
+            }
+            resetInput(); // read the first frame of the range again, this time in full
+            frameCount = count;
+        }
+        inRange = true;
+        return true;
+    }
+
+    /**
+     * Skips a burst without logging, reading only as far as the timecode of a Dolby E frame if asked to. A burst
+     * skipped without reading its timecode is skipped for good, so it is counted in the burst statistics.
+     * @param readTimecode whether to read the metadata segment of a Dolby E frame
+     * @return the timecode, or {@link FrameMetadata#TIMECODE_INVALID} if it was not read
+     */
+    private int skipBurst(boolean readTimecode) throws IOException
+    {
+        int level = logLevel;
+        logLevel = LOGLEVEL_NONE;
+        try {
+            frameStart = position;
+            readPreamble();
+            BurstInfo info = readBurstInfo();
+            int payloadWords = getPayloadWords(info);
+            if (!readTimecode) {
+                burstStats.burstStart(frameStart);
+                burstCounts[info.getDataType()]++;
+                markInput(0); // nothing skipped is read again, so a resync mark need not hold the skip back
+                skipWords(payloadWords); // one seek, wherever the input allows it
+                burstStats.burstEnd(position);
+                if (info.getDataType() == BurstInfo.DATA_TYPE_DOLBYE) {
+                    countFrame();
+                }
+                return FrameMetadata.TIMECODE_INVALID;
+            }
+            if (info.getDataType() != BurstInfo.DATA_TYPE_DOLBYE) {
+                skipWords(payloadWords);
+                return FrameMetadata.TIMECODE_INVALID;
+            }
+            frameCount++;
+            reset();
+            metadata.clear(frameCount - 1, frameStart);
+            readSync();
+            resetCrcWord();
+            readMetadata();
+            skipPayloadRemainder(payloadWords);
+            return metadata.getTimecode();
+        } finally {
+            logLevel = level;
+            resetLevel();
+        }
+    }
+
+    /**
+     * Reads the next frame like {@link #readFrame()}, but if the frame is damaged, records it in the damage log,
+     * goes back to the end of the last good burst and searches for the next preamble from there
+     * @throws IOException if the input could not be read, or no preamble could be found
+     */
+    public void readFrameOrResync() throws IOException
+    {
+        long start = position;
+        markInput(RESYNC_MARK_LIMIT);
+        try {
+            readFrame();
+            damageLog.good();
+            return;
+        } catch (EOFException e) {
+            throw e;
+        } catch (IOException e) {
+            damaged(start, e);
+        } catch (RuntimeException e) {
+            damaged(start, e);
+        }
+        resetInput();
+        skipInput(1);
+        probeForAESFrame();
+        damageLog.resynced(position);
+    }
+
+    private void damaged(long start, Exception e)
+    {
+        resetLevel();
+        String reason = (e.getMessage() != null) ? e.getMessage() : e.toString();
+        warn("damaged frame at " + start + ": " + reason);
+        damageLog.damaged(frameCount, start, reason);
     }
 
     private int lastFrame = -1;
     private int wasdrop = -1;
 
+    private void readOtherPayload(BurstInfo info) throws IOException
+    {
+        PayloadDecoder decoder = decoders[info.getDataType()];
+        int payloadWords = getPayloadWords(info);
+        if (decoder == null) {
+            debug("skipping payload of data type " + info.getDataType() + ": " + payloadWords + " words");
+            skipWords(payloadWords);
+            return;
+        }
+        reset();
+        decoder.decode(info, payloadReader);
+        skipPayloadRemainder(payloadWords);
+    }
+
+    private final PayloadReader payloadReader = new PayloadReader()
+    {
+        public int getBitDepth()
+        {
+            return eBitDepth;
+        }
+
+        public int getBits(int n) throws IOException
+        {
+            return getEBits(n);
+        }
+    };
+
+    /**
+     * @return the length of the burst payload, in sample words
+     */
+    private int getPayloadWords(BurstInfo info)
+    {
+        return (info.getBitLength() + eBitDepth - 1) / eBitDepth;
+    }
+
+    private void skipPayloadRemainder(int payloadWords) throws IOException
+    {
+        if (payloadWords - eWordCount < 0) {
+            throw new IllegalStateException("over-read of payload: " + eWordCount + " words; calculated 337M payload length is " + payloadWords);
+        }
+        skipWords(payloadWords - eWordCount);
+    }
+
     private void readE(BurstInfo info) throws IOException
     {
         info("Dolby E frame:", true);
-        int dataLength = (info.getBitLength() / eBitDepth) * sampleSize; // in bytes: samples are packed in sampleSize-byte words
-        if (subframeMode) {
-            if (dataLength % 2 == 1) {
-                throw new IOException("odd data length in subframe mode");
-            }
-            dataLength /= 2;
-        }
-        info("dataLength: " + dataLength + " bytes");
+        int payloadWords = getPayloadWords(info);
+        info("payload: " + payloadWords + " words");
 
         reset();
+        metadata.clear(frameCount, frameStart);
+        metadata.setGroups(segmentGroups);
         readSync();
         resetCrcWord();
         readMetadata();
         readFrameDist();
-        readProgramMetadata();
-        readChannelMetadata();
-        readMetadataSubsegments();
-        skipAudioSegment();
-        if (lowFrameRate) {
-            readMetadataExtSubsegments();
-            skipAudioExtSegment();
+        // the metadata segment is read in order, so a group is read if it or a later one is wanted
+        if (wants(FrameMetadata.GROUP_PROGRAM | FrameMetadata.GROUP_CHANNEL | FrameMetadata.GROUP_AC3)) {
+            readProgramMetadata();
+        }
+        if (wants(FrameMetadata.GROUP_CHANNEL | FrameMetadata.GROUP_AC3)) {
+            readChannelMetadata();
+        }
+        if (wants(FrameMetadata.GROUP_AC3)) {
+            readMetadataSubsegments();
+        } else {
+            skipSegmentRemainder(metadataSize);
+        }
+        if (wants(FrameMetadata.GROUP_EXT | FrameMetadata.GROUP_METERS | FrameMetadata.GROUP_AUDIO_CRC)) {
+            skipAudioSegment();
+            if (lowFrameRate) {
+                if (wants(FrameMetadata.GROUP_EXT)) {
+                    readMetadataExtSubsegments();
+                } else {
+                    skipSegment(metadataExtSegmentSize);
+                }
+                skipAudioExtSegment();
+            }
+            if (wants(FrameMetadata.GROUP_METERS)) {
+                readMeterSegment();
+            }
         }
-        readMeterSegment();
         info("Dolby E frame end", false);
 
         // skip the rest of the AES payload
-        if (subframeMode) {
-            eByteCount = eByteCount / 2;
-        }
-        if (dataLength - eByteCount < 0) {
-            throw new IllegalStateException("over-read of E: " + eByteCount + " bytes; calculated 337M payload length is " + dataLength);
-        }
-        skipFully(in, dataLength - eByteCount);
+        skipPayloadRemainder(payloadWords);
     }
 
-    private int[] peakMeter;
-    private int[] rmsMeter;
-
     private void readMeterSegment() throws IOException
     {
         info("meter segment:", true);
         readKey();
-        peakMeter = new int[config.getChannels()];
         for (int c = 0; c < config.getChannels(); c++) {
-            peakMeter[c] = getEBits(10);
-            info("peakMeter[" + c + "]: " + peakMeter[c]);
+            int peakMeter = getEBits(10);
+            metadata.setPeakMeter(c, peakMeter);
+            info("peakMeter[" + c + "]: " + peakMeter);
         }
-        rmsMeter = new int[config.getChannels()];
         for (int c = 0; c < config.getChannels(); c++) {
-            rmsMeter[c] = getEBits(10);
-            info("rmsMeter[" + c + "]: " + rmsMeter[c]);
+            int rmsMeter = getEBits(10);
+            metadata.setRmsMeter(c, rmsMeter);
+            info("rmsMeter[" + c + "]: " + rmsMeter);
         }
         readReserved(meterSegmentSize);
         readCrc();
@@ -317,20 +1166,18 @@ public class DolbyEReader extends ParserHelper
     private void skipAudioExtSegment() throws IOException
     {
         debug("skipping audio ext segment...");
-        readKey();
-        for (int c = 0; c < (config.getChannels() / 2); c++) {
-            for (int n = 0; n < channelSizes[c]; n++) {
-                getEBits(eBitDepth);
-            }
-        }
-        readCrc();
-        readKey();
-        for (int c = (config.getChannels() / 2); c < config.getChannels(); c++) {
-            for (int n = 0; n < channelSizes[c]; n++) {
-                getEBits(eBitDepth);
-            }
+        final int split = config.getSegmentSplit();
+        if (!wants(FrameMetadata.GROUP_AUDIO_CRC)) {
+            skipSegment(getChannelWords(0, split));
+            skipSegment(getChannelWords(split, config.getChannels()));
+        } else {
+            readKey();
+            readSegmentWords(getChannelWords(0, split));
+            readCrc();
+            readKey();
+            readSegmentWords(getChannelWords(split, config.getChannels()));
+            readCrc();
         }
-        readCrc();
         debug("skipping audio ext segment end");
     }
 
@@ -372,42 +1219,121 @@ public class DolbyEReader extends ParserHelper
     {
         for (int p = 0; p < config.getPrograms(); p++) {
             int compr2 = getEBits(8);
-            int[] dynrng = new int[4];
             for (int r = 0; r < 4; r++) {
-                dynrng[r] = getEBits(8);
+                int dynrng = getEBits(8);
             }
         }
     }
 
-    private void skipAudioSegment() throws IOException
+    /**
+     * @return the number of audio words of the channels in the range
+     */
+    private int getChannelWords(int from, int to)
     {
-        debug("skipping audio...");
-        readKey();
-        for (int c = 0; c < (config.getChannels() / 2); c++) {
-            for (int n = 0; n < channelSizes[c]; n++) {
-                getEBits(eBitDepth);
-            }
+        int words = 0;
+        for (int c = from; c < to; c++) {
+            words += channelSizes[c];
         }
-        readCrc();
-        readKey();
-        for (int c = (config.getChannels() / 2); c < config.getChannels(); c++) {
-            for (int n = 0; n < channelSizes[c]; n++) {
-                getEBits(eBitDepth);
+        return words;
+    }
+
+    /**
+     * Skips a whole segment (its key, if the frame is keyed, the segment words and its CRC word) without
+     * checking the CRC. The reader must be at a word boundary.
+     * @param size the size of the segment, in words
+     */
+    private void skipSegment(int size) throws IOException
+    {
+        skipPayloadWords(((keyPresent) ? 1 : 0) + size + 1);
+    }
+
+    /**
+     * Skips the rest of the segment being read, and its CRC word, without checking the CRC
+     * @param size the size of the segment, in words
+     */
+    private void skipSegmentRemainder(int size) throws IOException
+    {
+        int bits = size * eBitDepth - eBitsReadTotal - ebitsLeft;
+        if (bits < 0) {
+            throw new IllegalStateException("over-read of segment: " + (eBitsReadTotal + ebitsLeft) + " bits; size is " + size + " words");
+        }
+        skipPayloadWords(bits / eBitDepth + 1);
+        ebitsLeft = 0;
+        resetCrcWord();
+    }
+
+    /**
+     * Reads whole words of a segment into its CRC, a block at a time, without keeping them (e.g. audio words).
+     * The reader must be at a word boundary.
+     * @param n the number of words
+     */
+    private void readSegmentWords(int n) throws IOException
+    {
+        final int shift = 32 - eBitDepth;
+        final int[] block = segmentBlock;
+        while (n > 0) {
+            int count = Math.min(n, block.length);
+            source.readWords(block, 0, count);
+            position += count * sampleSize;
+            for (int i = 0; i < count; i++) {
+                block[i] >>>= shift;
             }
+            if (keyPresent) {
+                final int key = ekey;
+                for (int i = 0; i < count; i++) {
+                    block[i] ^= key;
+                }
+            }
+            long crc = eCrcWord;
+            for (int i = 0; i < count; i++) {
+                crc = SegmentCrc.update(crc, block[i], eBitDepth);
+            }
+            eCrcWord = crc;
+            eWordCount += count;
+            eBitsReadTotal += count * eBitDepth;
+            n -= count;
+        }
+    }
+
+    /**
+     * Skips payload words, counting them as read
+     */
+    private void skipPayloadWords(int n) throws IOException
+    {
+        skipWords(n);
+        eWordCount += n;
+    }
+
+    private void skipAudioSegment() throws IOException
+    {
+        debug("skipping audio...");
+        final int split = config.getSegmentSplit();
+        if (!wants(FrameMetadata.GROUP_AUDIO_CRC)) {
+            skipSegment(getChannelWords(0, split));
+            skipSegment(getChannelWords(split, config.getChannels()));
+        } else {
+            readKey();
+            readSegmentWords(getChannelWords(0, split));
+            readCrc();
+            readKey();
+            readSegmentWords(getChannelWords(split, config.getChannels()));
+            readCrc();
         }
-        readCrc();
         debug("skipping audio end");
     }
 
     private void readSync() throws IOException
     {
         info("frame sync:", true);
+        layout.clear(position, eBitDepth);
         int word = getEBits(eBitDepth);
+        eBitsReadTotal = 0; // segment sizes do not count the sync word (nor the key, which readKey() takes care of)
         int sync = (word & 0xFFFFFFFE);
-        if ((word & 0x1) == 1) { // check if XOR key is present (unsupported)
+        if ((word & 0x1) == 1) { // each segment of the frame starts with a key XORed with the rest of its words
             keyPresent = true;
             readKey();
         }
+        layout.setKey(keyPresent, ekey);
         if ((eBitDepth == 16 && sync != E_SYNC_16)
                 || (eBitDepth == 20 && sync != E_SYNC_20)
                 || (eBitDepth == 24 && sync != E_SYNC_24)) {
@@ -430,6 +1356,14 @@ public class DolbyEReader extends ParserHelper
             int metadataSubsegmentLen = getEBits(12);
             info("metadata subsegment " + metadataSubsegmentId + " (" + metadataSubsegmentLen + ") bits");
             int toread = metadataSubsegmentLen;
+            if (metadataSubsegmentId == FrameMetadata.AC3_LAYOUT_XBSI || metadataSubsegmentId == FrameMetadata.AC3_LAYOUT_NO_XBSI) {
+                layout.setAc3(metadataSubsegmentId, getEBitOffset(), config.getPrograms());
+            }
+            if ((metadataSubsegmentId == FrameMetadata.AC3_LAYOUT_XBSI || metadataSubsegmentId == FrameMetadata.AC3_LAYOUT_NO_XBSI)
+                    && logLevel < LOGLEVEL_INFO) {
+                readAc3Bits(metadataSubsegmentId, metadataSubsegmentLen); // nothing to log, so decode the fields only if asked for
+                continue;
+            }
             if (metadataSubsegmentId == 1) {
                 info("AC3+XBSI");
                 readAc3MetadataXBsi();
@@ -437,7 +1371,7 @@ public class DolbyEReader extends ParserHelper
             }
             if (metadataSubsegmentId == 2) {
                 info("AC3 NO XBSI");
-                readAc3MetadataNoXBsi(); // TODO: implement, most of the same fields as from readAc3MetadataXBsi
+                readAc3MetadataNoXBsi(); // the AC3+XBSI fields less the xbsi ones, with the timecodes in their place
                 continue;
             }
             while (toread > 0) {
@@ -456,6 +1390,18 @@ public class DolbyEReader extends ParserHelper
         debug("metadata subsegments end");
     }
 
+    private void readAc3Bits(int layout, int n) throws IOException
+    {
+        int[] bits = metadata.startAc3Bits(layout, n);
+        int i = 0;
+        for (; n >= 32; n -= 32) {
+            bits[i++] = getEBits(32);
+        }
+        if (n > 0) {
+            bits[i] = getEBits(n) << (32 - n);
+        }
+    }
+
     private void readReserved(int metadataLength) throws IOException
     {
         int reserved = getEBits(ebitsLeft);
@@ -466,49 +1412,42 @@ public class DolbyEReader extends ParserHelper
 
     private void readAc3MetadataNoXBsi() throws IOException
     {
+        metadata.setAc3Metadata(true);
         for (int i = 0; i < config.getPrograms(); i++) {
             info("program " + i, true);
-            int datarate = getEBits(5);
-            int bsmod = getEBits(3);
-            int acmod = getEBits(3);
-            int cmixlev = getEBits(2);
-            int surmixlev = getEBits(2);
-            int dsurmod = getEBits(2);
-            int lfeon = getEBits(1);
-            int dialnorm = getEBits(5);
+            int datarate = getProgramField(i, FrameMetadata.DATARATE);
+            int bsmod = getProgramField(i, FrameMetadata.BSMOD);
+            int acmod = getProgramField(i, FrameMetadata.ACMOD);
+            int cmixlev = getProgramField(i, FrameMetadata.CMIXLEV);
+            int surmixlev = getProgramField(i, FrameMetadata.SURMIXLEV);
+            int dsurmod = getProgramField(i, FrameMetadata.DSURMOD);
+            int lfeon = getProgramField(i, FrameMetadata.LFEON);
+            int dialnorm = getProgramField(i, FrameMetadata.DIALNORM);
             info("dialnorm: " + dialnorm);
-            int langcode = getEBits(1);
-            int langcod = getEBits(8);
-            int audprodie = getEBits(1);
-            int mixlevel = getEBits(5);
-            int roomtyp = getEBits(2);
-            int copyrightb = getEBits(1);
-            int origbs = getEBits(1);
+            int langcode = getProgramField(i, FrameMetadata.LANGCODE);
+            int langcod = getProgramField(i, FrameMetadata.LANGCOD);
+            int audprodie = getProgramField(i, FrameMetadata.AUDPRODIE);
+            int mixlevel = getProgramField(i, FrameMetadata.MIXLEVEL);
+            int roomtyp = getProgramField(i, FrameMetadata.ROOMTYP);
+            int copyrightb = getProgramField(i, FrameMetadata.COPYRIGHTB);
+            int origbs = getProgramField(i, FrameMetadata.ORIGBS);
             // 42 so far
 
-            int timecod1e = getEBits(1);
-//            if (timecod1e == 1) {
-                int timecod1 = getEBits(14);
-//            }
-
-            int timecod2e = getEBits(1);
-//            if (timecod2e == 1) {
-                int timecod2 = getEBits(14);
-//            }
+            getEBits(FrameMetadata.NO_XBSI_TIMECODE_BITS); // timecod1e, timecod1, timecod2e, timecod2
 
-            int hpfon = getEBits(1);
-            int bwlpfon = getEBits(1);
-            int lfelpfon = getEBits(1);
-            int sur90on = getEBits(1);
-            int suratton = getEBits(1);
-            int rfpremphon = getEBits(1);
-            int compre = getEBits(1);
-            int compr1 = getEBits(8);
-            int dynrnge = getEBits(1);
-            int[] dynrng = new int[4];
+            int hpfon = getProgramField(i, FrameMetadata.HPFON);
+            int bwlpfon = getProgramField(i, FrameMetadata.BWLPFON);
+            int lfelpfon = getProgramField(i, FrameMetadata.LFELPFON);
+            int sur90on = getProgramField(i, FrameMetadata.SUR90ON);
+            int suratton = getProgramField(i, FrameMetadata.SURATTON);
+            int rfpremphon = getProgramField(i, FrameMetadata.RFPREMPHON);
+            int compre = getProgramField(i, FrameMetadata.COMPRE);
+            int compr1 = getProgramField(i, FrameMetadata.COMPR1);
+            int dynrnge = getProgramField(i, FrameMetadata.DYNRNGE);
             for (int r = 0; r < 4; r++) {
-                dynrng[r] = getEBits(8);
+                getProgramField(i, FrameMetadata.DYNRNG1 + r);
             }
+            pop();
             // 40 since hpfon
         }
         for (int i = 0; i < config.getPrograms(); i++) {
@@ -531,9 +1470,10 @@ public class DolbyEReader extends ParserHelper
 
     private void readAc3MetadataXBsi() throws IOException
     {
+        metadata.setAc3Metadata(true);
         for (int i = 0; i < config.getPrograms(); i++) {
             info("program " + i, true);
-            int datarate = getEBits(5);
+            int datarate = getProgramField(i, FrameMetadata.DATARATE);
             if (datarate >= 19 && datarate <= 30) {
                 warn("datarate: RESERVED value used");
             } else if (datarate == 31) {
@@ -545,8 +1485,8 @@ public class DolbyEReader extends ParserHelper
             final String[] bsmodLut = { "main audio service: complete main (CM)", "main audio service: music and effects (ME)", "associated service: visually impaired (VI)",
                     "associated service: hearing impaired (HI)", "associated service: dialog (D)", "\tassociated service: commentary (C)",
                     "associated service: emergency (E)" };
-            int bsmod = getEBits(3);
-            int acmod = getEBits(3);
+            int bsmod = getProgramField(i, FrameMetadata.BSMOD);
+            int acmod = getProgramField(i, FrameMetadata.ACMOD);
             if (bsmod != 7) {
                 info("bsmod: " + bsmodLut[bsmod]);
             } else if (acmod == 1) {
@@ -561,56 +1501,56 @@ public class DolbyEReader extends ParserHelper
             }
             info("acmod: " + acmod);
             final String[] cmixlevLut = { "0.707 (-3.0 dB)", "0.595 (-4.5 dB)", "0.500 (-6.0 dB)", "RESERVED" };
-            info("cmixlev: " + cmixlevLut[getEBits(2)]);
+            info("cmixlev: " + cmixlevLut[getProgramField(i, FrameMetadata.CMIXLEV)]);
             final String[] surmixlevLut = { "0.707 (-3.0 dB)", "0.500 (-6.0 dB)", "0 (0 dB)", "RESERVED" };
-            info("surmixlev: " + surmixlevLut[getEBits(2)]);
+            info("surmixlev: " + surmixlevLut[getProgramField(i, FrameMetadata.SURMIXLEV)]);
             final String[] dsurmodLut = { "not indicated", "Not Dolby Surround encoded", "Dolby Surround encoded", "RESERVED" };
-            info("dsurmod: " + dsurmodLut[getEBits(2)]);
-            info("lfeon: " + ((getEBits(1) == 1) ? "on" : "off"));
-            info("dialnorm: " + getEBits(5));
-            info("langcode (RESERVED): " + getEBits(1));
-            info("langcod (RESERVED): " + getEBits(8));
-            info("audprodie: " + getEBits(1));
-            info("\tmixlevel: " + getEBits(5));
-            info("\troomtyp: " + getEBits(2));
-            info("copyrightb: " + getEBits(1));
-            info("origbs: " + getEBits(1));
+            info("dsurmod: " + dsurmodLut[getProgramField(i, FrameMetadata.DSURMOD)]);
+            info("lfeon: " + ((getProgramField(i, FrameMetadata.LFEON) == 1) ? "on" : "off"));
+            info("dialnorm: " + getProgramField(i, FrameMetadata.DIALNORM));
+            info("langcode (RESERVED): " + getProgramField(i, FrameMetadata.LANGCODE));
+            info("langcod (RESERVED): " + getProgramField(i, FrameMetadata.LANGCOD));
+            info("audprodie: " + getProgramField(i, FrameMetadata.AUDPRODIE));
+            info("\tmixlevel: " + getProgramField(i, FrameMetadata.MIXLEVEL));
+            info("\troomtyp: " + getProgramField(i, FrameMetadata.ROOMTYP));
+            info("copyrightb: " + getProgramField(i, FrameMetadata.COPYRIGHTB));
+            info("origbs: " + getProgramField(i, FrameMetadata.ORIGBS));
             // 42 so far
 
-            int xbsi1e = getEBits(1);
+            int xbsi1e = getProgramField(i, FrameMetadata.XBSI1E);
 //            if (xbsi1e == 1) {
             String[] dmixmodLut = { "not indicated", "Lt/Rt downmix preferred", "Lo/Ro downmix preferred", "RESERVED" };
-            info("dmixmod: " + dmixmodLut[getEBits(2)]);
+            info("dmixmod: " + dmixmodLut[getProgramField(i, FrameMetadata.DMIXMOD)]);
             String[] dmixlevLut = { "1.414 (+3 dB)", "1.189 (+1.5 dB)", "1 (0 dB)", "0.841 (-1.5 dB)", "0.707 (-3 dB)", "0.595 (-4.5 dB)", "0.5 (-6 dB)", "0 (-\u221e dB)" };
-            info("\tltrtcmixlev: " + dmixlevLut[getEBits(3)]);
-            info("\tltrtsurmixlev: " + dmixlevLut[getEBits(3)]);
-            info("\tlorocmixlev: " + dmixlevLut[getEBits(3)]);
-            info("\tlorosurmixlev: " + dmixlevLut[getEBits(3)]);
+            info("\tltrtcmixlev: " + dmixlevLut[getProgramField(i, FrameMetadata.LTRTCMIXLEV)]);
+            info("\tltrtsurmixlev: " + dmixlevLut[getProgramField(i, FrameMetadata.LTRTSURMIXLEV)]);
+            info("\tlorocmixlev: " + dmixlevLut[getProgramField(i, FrameMetadata.LOROCMIXLEV)]);
+            info("\tlorosurmixlev: " + dmixlevLut[getProgramField(i, FrameMetadata.LOROSURMIXLEV)]);
 //            }
 
-            int xbsi2e = getEBits(1);
+            int xbsi2e = getProgramField(i, FrameMetadata.XBSI2E);
 //            if (xbsi2e == 1) {
             String[] dsurexmodLut = { "not indicated", "Not Dolby Digital Surround EX encoded", "Dolby Digital Surround EX encoded", "RESERVED" };
-            info("dsurexmod: " + dsurexmodLut[getEBits(2)]);
+            info("dsurexmod: " + dsurexmodLut[getProgramField(i, FrameMetadata.DSUREXMOD)]);
             String[] dheadphonmodLut = { "not indicated", "Not Dolby Headphone encoded", "Dolby Headphone encoded", "RESERVED" };
-            info("dheadphonmod: " + dheadphonmodLut[getEBits(2)]);
-            info("adconvtyp: " + ((getEBits(1) == 1) ? "HDCD" : "Standard"));
-            info("xbsi2 (RESERVED): " + getEBits(8));
-            info("encinfo (RESERVED): " + getEBits(1));
+            info("dheadphonmod: " + dheadphonmodLut[getProgramField(i, FrameMetadata.DHEADPHONMOD)]);
+            info("adconvtyp: " + ((getProgramField(i, FrameMetadata.ADCONVTYP) == 1) ? "HDCD" : "Standard"));
+            info("xbsi2 (RESERVED): " + getProgramField(i, FrameMetadata.XBSI2));
+            info("encinfo (RESERVED): " + getProgramField(i, FrameMetadata.ENCINFO));
 //            }
 
-            info("hpfon: " + ((getEBits(1) == 1) ? "on" : "off"));
-            info("bwlpfon: " + ((getEBits(1) == 1) ? "on" : "off"));
-            info("lfelpfon: " + ((getEBits(1) == 1) ? "on" : "off"));
-            info("sur90on: " + ((getEBits(1) == 1) ? "on" : "off"));
-            info("suratton: " + ((getEBits(1) == 1) ? "on" : "off"));
-            info("rfpremphon: " + ((getEBits(1) == 1) ? "on" : "off"));
-            int compre = getEBits(1);
+            info("hpfon: " + ((getProgramField(i, FrameMetadata.HPFON) == 1) ? "on" : "off"));
+            info("bwlpfon: " + ((getProgramField(i, FrameMetadata.BWLPFON) == 1) ? "on" : "off"));
+            info("lfelpfon: " + ((getProgramField(i, FrameMetadata.LFELPFON) == 1) ? "on" : "off"));
+            info("sur90on: " + ((getProgramField(i, FrameMetadata.SUR90ON) == 1) ? "on" : "off"));
+            info("suratton: " + ((getProgramField(i, FrameMetadata.SURATTON) == 1) ? "on" : "off"));
+            info("rfpremphon: " + ((getProgramField(i, FrameMetadata.RFPREMPHON) == 1) ? "on" : "off"));
+            int compre = getProgramField(i, FrameMetadata.COMPRE);
             info("compre: " + compre);
             final String[] rfcompr1Lut = { "None", "Film Standard", "Film Light", "Music Standard", "Music Light", "Speech" };
-            int compr1 = getEBits(8);
+            int compr1 = getProgramField(i, FrameMetadata.COMPR1);
             if (compre == 0) {
-                if (compre < 6) {
+                if (compr1 < rfcompr1Lut.length) {
                     info("compr1: " + rfcompr1Lut[compr1]);
                 } else {
                     warn("compr1: RESERVED");
@@ -618,18 +1558,17 @@ public class DolbyEReader extends ParserHelper
             } else {
                 info("compr1: " + compr1);
             }
-            int dynrnge = getEBits(1);
-            int[] dynrng = new int[4];
+            int dynrnge = getProgramField(i, FrameMetadata.DYNRNGE);
             for (int r = 0; r < 4; r++) {
-                dynrng[r] = getEBits(8);
+                int dynrng = getProgramField(i, FrameMetadata.DYNRNG1 + r);
                 if (dynrnge == 0) {
-                    if (dynrnge < 6) {
-                        info("dynrng" + (r + 1) + ": " + rfcompr1Lut[dynrng[r]]);
+                    if (dynrng < rfcompr1Lut.length) {
+                        info("dynrng" + (r + 1) + ": " + rfcompr1Lut[dynrng]);
                     } else {
                         warn("dynrng" + (r + 1) + ": RESERVED");
                     }
                 } else {
-                    info("dynrng" + (r + 1) + ": " + dynrng[r]);
+                    info("dynrng" + (r + 1) + ": " + dynrng);
                 }
             }
             pop();
@@ -653,6 +1592,16 @@ public class DolbyEReader extends ParserHelper
         }
     }
 
+    /**
+     * Reads an AC3 program field, as wide as FrameMetadata lays it out (the same table the rewriter patches from)
+     */
+    private int getProgramField(int program, int field) throws IOException
+    {
+        int value = getEBits(FrameMetadata.getFieldWidth(field));
+        metadata.setProgramField(program, field, value);
+        return value;
+    }
+
     private void readChannelMetadata() throws IOException
     {
         info("channel metadata:", true);
@@ -670,23 +1619,37 @@ public class DolbyEReader extends ParserHelper
         debug("channel metadata end");
     }
 
-    private StringBuffer sb = new StringBuffer();
-    private int descState = 0;
+    // the program descriptions come one character per program per frame, between 0x02 and 0x03
+    private final StringBuilder[] descriptions = new StringBuilder[ProgramConfig.MAX_PROGRAMS];
+    private final boolean[] inDescription = new boolean[ProgramConfig.MAX_PROGRAMS];
 
     private void readProgramMetadata() throws IOException
     {
         info("program metadata:", true);
         for (int i = 0; i < config.getPrograms(); i++) {
+            layout.setDescription(i, getEBitOffset());
             int ci = getEBits(8);
             if (ci != 0) {
+                StringBuilder sb = descriptions[i];
+                if (sb == null) {
+                    sb = descriptions[i] = new StringBuilder(FrameMetadata.MAX_DESCRIPTION_LENGTH);
+                }
                 if (ci == 0x2) {
-                    descState = 1;
-                } else if (ci == 0x3) {
-                    descState = 0;
+                    inDescription[i] = true;
+                    sb.setLength(0);
+                } else if (ci == 0x3 && inDescription[i]) { // not the end of one whose start was before the input
+                    inDescription[i] = false;
                     info("desc text: " + sb.toString());
+                    metadata.setDescription(i, sb.toString());
                     sb.setLength(0);
-                } else if (descState == 1 && ci >= 0x20 && ci <= 0x7E) {
-                    sb.append((char)ci);
+                } else if (inDescription[i] && ci >= 0x20 && ci <= 0x7E) {
+                    if (sb.length() == FrameMetadata.MAX_DESCRIPTION_LENGTH) {
+                        warn("program " + i + " description longer than " + FrameMetadata.MAX_DESCRIPTION_LENGTH + " characters; dropped");
+                        inDescription[i] = false; // wait for the next start marker
+                        sb.setLength(0);
+                    } else {
+                        sb.append((char)ci);
+                    }
                 }
             }
             int bandwidthId = getEBits(2);
@@ -695,15 +1658,15 @@ public class DolbyEReader extends ParserHelper
         debug("program metadata end");
     }
 
-    private int[] channelSizes;
+    private final FrameLayout layout = new FrameLayout();
+    private final int[] channelSizes = new int[ProgramConfig.MAX_CHANNELS];
     private int metadataExtSegmentSize;
     private int meterSegmentSize;
 
     private void readFrameDist() throws IOException
     {
         info("frame distribution:", true);
-        channelSizes = new int[config.getChannels()];
-        for (int i = 0; i < channelSizes.length; i++) {
+        for (int i = 0; i < config.getChannels(); i++) {
             channelSizes[i] = getEBits(10);
             info("channelSize[" + i + "]: " + channelSizes[i]);
         }
@@ -729,19 +1692,24 @@ public class DolbyEReader extends ParserHelper
         info("metadataId: " + metadataId);
         metadataSize = getEBits(10);
         info("metadataSize: " + metadataSize);
+        layout.setMetadataSize(metadataSize);
         int programConfig = getEBits(6);
         config = ProgramConfig.valueOf(programConfig);
+        metadata.setProgramConfig(programConfig, config);
         info("program config: " + config);
         int frameRateCode = getEBits(4);
         if (frameRateCode == 0 || frameRateCode > 8) {
             throw new IllegalStateException("reserved frame rate code");
         }
+        metadata.setFrameRateCode(frameRateCode);
         lowFrameRate = (frameRateCode >= 1 && frameRateCode <= 5);
         info("lowFrameRate: " + lowFrameRate);
         int originalFrameRateCode = getEBits(4);
         int frameCounter = getEBits(16);
+        metadata.setFrameCounter(frameCounter);
         info("frameCounter: " + frameCounter);
         int unknown = getEBits(10);
+        layout.setTimecode(getEBitOffset());
         int hh = getEBits(2);
         int h = getEBits(4);
         int unknown1 = getEBits(9);
@@ -755,10 +1723,13 @@ public class DolbyEReader extends ParserHelper
         int ff = getEBits(2);
         int f = getEBits(4);
         String currentTimecode;
+        metadata.setDropFrame(dropFrame);
         if (hh == 0x3 && h == 0xF) {
             currentTimecode = "[Marked invalid]";
+            metadata.setTimecodeInvalid();
         } else {
             currentTimecode = pad(hh * 10 + h) + ":" + pad(mm * 10 + m) + ":" + pad(ss * 10 + s) + "." + pad(ff * 10 + f);
+            metadata.setTimecode(hh * 10 + h, mm * 10 + m, ss * 10 + s, ff * 10 + f);
         }
         info("timecode: " + currentTimecode);
         if (hh != 3 || h != 15) {
@@ -790,17 +1761,19 @@ public class DolbyEReader extends ParserHelper
 
     private int ebitsLeft = 0; // offset counter for getEBits()
     private int ebitsWord = 0; // buffer for getEBits()
-    private boolean keyPresent = false;
+    private boolean keyPresent = false; // whether the segments of this frame are keyed
+    private final int[] segmentBlock = new int[SEGMENT_BLOCK_WORDS];
     private int ekey = 0;
-    private int eByteCount = 0;
+    private int eWordCount = 0; // payload words read
     private int eBitsReadTotal = 0;
     private long eCrcWord = 0;
 
     private void reset()
     {
-        eByteCount = 0;
+        eWordCount = 0;
         ebitsLeft = 0;
         ebitsWord = 0;
+        keyPresent = false; // until the sync word of the frame says otherwise
         ekey = 0;
     }
 
@@ -821,8 +1794,8 @@ public class DolbyEReader extends ParserHelper
 //            v = (v << (n - ebitsLeft));
             eBitsReadTotal += ebitsLeft;
             n -= ebitsLeft;
-            ebitsWord = readIntLe(in);
-            eByteCount += sampleSize;
+            ebitsWord = readWord();
+            eWordCount++;
             ebitsWord = ebitsWord >>> (32 - eBitDepth);
             if (keyPresent) {
                 ebitsWord ^= ekey;
@@ -839,28 +1812,22 @@ public class DolbyEReader extends ParserHelper
 
     private void updateCrc(int message)
     {
-        final int n = 16;
-        long d = 0x18005L; // 0x1C002 // 0x1A001
-        final int shift = eBitDepth + n - 1;
-        long mask = 0x1L << shift;
-        long m = (eCrcWord << eBitDepth) | (message);
-        int s = shift - n;
-        d = d << s;
-        do {
-            if ((m & mask) != 0) {
-                m = d ^ m;
-            }
-            mask = mask >>> 1;
-            d = d >>> 1;
-            s--;
-        } while (s >= 0);
-        eCrcWord = m;
+        eCrcWord = SegmentCrc.update(eCrcWord, message, eBitDepth);
+    }
+
+    /**
+     * @return the offset of the next bit to be read from the first bit of the frame's sync word
+     */
+    private int getEBitOffset()
+    {
+        return eWordCount * eBitDepth - ebitsLeft;
     }
 
     private void readCrc() throws IOException
     {
         int crc = getEBits(eBitDepth);
         if (eCrcWord != 0) {
+            metadata.addCrcError();
             warn("bad crc: stored " + Integer.toHexString(crc) + ", calc " + Long.toHexString(eCrcWord));
             warn("\tframe is " + getFrameDescription(frameCount + 1));
         }
@@ -879,20 +1846,37 @@ public class DolbyEReader extends ParserHelper
         resetCrcWord();
     }
 
-    protected int readIntLe(DataInputStream in) throws IOException
-    {
-        int b = (sampleSize == 3) ? 0 : in.read();
-        if (b == -1) throw new EOFException();
-        int i = (b & 0xFF);
-        b = in.read();
-        if (b == -1) throw new EOFException();
-        i |= ((b & 0xFF) << 8);
-        b = in.read();
-        if (b == -1) throw new EOFException();
-        i |= ((b & 0xFF) << 16);
-        b = in.read();
-        if (b == -1) throw new EOFException();
-        i |= ((b & 0xFF) << 24);
-        return i;
+    private void markInput(int readLimit)
+    {
+        source.mark(readLimit);
+        markPosition = position;
+    }
+
+    private void resetInput() throws IOException
+    {
+        source.reset();
+        position = markPosition;
+    }
+
+    /**
+     * Skips bytes in each input
+     */
+    private void skipInput(long len) throws IOException
+    {
+        source.skipBytes(len);
+        position += (subframeMode) ? len * 2 : len;
+    }
+
+    private void skipWords(long n) throws IOException
+    {
+        source.skipWords(n);
+        position += n * sampleSize;
+    }
+
+    private int readWord() throws IOException
+    {
+        int word = source.readWord();
+        position += sampleSize;
+        return word;
     }
 }
@@ -0,0 +1,402 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameMetadata;
+import org.foraci.dolby.s337m.FormatProbe;
+import org.foraci.dolby.s337m.StreamFormat;
+import org.foraci.dolby.util.io.MappedFileSource;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Compares redundant Dolby E feeds of the same program (e.g. main and backup recordings). Each feed is read on its
+ * own thread into a small bounded queue, so the feeds are read in lockstep in one pass each. Frames are aligned by
+ * their timecode, falling back to their 16-bit Dolby E frame counter while a feed has no valid timecode (and for good
+ * once a feed's timecode stops following its counter). Aligned frames are compared field by field (frame counter,
+ * timecode, program config, AC3 program fields, descriptions once complete in both, and CRC errors), and frames
+ * missing from some feeds are reported as runs.
+ */
+public class FeedComparator extends ParserHelper
+{
+    private static final int EXIT_BAD_ARGS = -1;
+    private static final int EXIT_DIFFERENT = 1;
+    private static final String ARG_SAMPLE_SIZE = "-sample";
+    private static final String ARG_GROUPS = "-groups";
+    private static final String ARG_MAX_REPORTS = "-max";
+    private static final String ARG_LOG_LEVEL = "-v";
+    private static final int QUEUE_FRAMES = 64; // how far a feed can read ahead of the slowest one
+    private static final FrameMetadata END = new FrameMetadata();
+    private static final long NO_KEY = -1;
+
+    private final Feed[] feeds;
+    private long maxReports = 1000; // mismatch lines printed before the rest are only counted
+    private long reports = 0;
+    private long aligned = 0;
+    private long mismatchedFrames = 0;
+    private long crcDisagreements = 0;
+    private final long[] missing;
+    private final String[] missingStart; // the first frame of the open run of missing frames, or null
+    private final String[] missingLast;
+    private final long[] keys; // where the head of each feed is in the day, in frames, or NO_KEY without a timecode
+    private final int[] lastTimecode;
+    private final int[] lastCounter;
+    private final long[] lastKey;
+    private final boolean[] untimed; // whether the timecode of each feed has stopped following its frame counter
+
+    public FeedComparator(Feed[] feeds)
+    {
+        this.feeds = feeds;
+        this.missing = new long[feeds.length];
+        this.missingStart = new String[feeds.length];
+        this.missingLast = new String[feeds.length];
+        this.keys = new long[feeds.length];
+        this.lastTimecode = new int[feeds.length];
+        this.lastCounter = new int[feeds.length];
+        this.lastKey = new long[feeds.length];
+        this.untimed = new boolean[feeds.length];
+        for (int i = 0; i < feeds.length; i++) {
+            lastTimecode[i] = FrameMetadata.TIMECODE_INVALID;
+            lastKey[i] = NO_KEY;
+        }
+    }
+
+    public void setMaxReports(long maxReports)
+    {
+        this.maxReports = maxReports;
+    }
+
+    /**
+     * Reads all the feeds to their end, comparing as it goes
+     * @return true if the feeds agreed on every frame
+     */
+    public boolean run() throws InterruptedException
+    {
+        for (int i = 0; i < feeds.length; i++) {
+            Thread thread = new Thread(feeds[i], "feed-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        final int n = feeds.length;
+        FrameMetadata[] heads = new FrameMetadata[n];
+        boolean[] ended = new boolean[n];
+        boolean[] present = new boolean[n];
+        while (true) {
+            int first = -1;
+            for (int i = 0; i < n; i++) {
+                if (heads[i] == null && !ended[i]) {
+                    FrameMetadata head = feeds[i].queue.take();
+                    if (head == END) {
+                        ended[i] = true;
+                    } else {
+                        heads[i] = head;
+                        keys[i] = getKey(i, head);
+                    }
+                }
+                if (heads[i] != null && first == -1) {
+                    first = i;
+                }
+            }
+            if (first == -1) {
+                break;
+            }
+            // the earliest of the heads by timecode if they all have one, else by frame counter, allowing for either
+            // wrapping around
+            boolean byTimecode = true;
+            for (int i = first; i < n; i++) {
+                byTimecode &= (heads[i] == null || keys[i] != NO_KEY);
+            }
+            long day = getDay(heads[first]);
+            int earliest = first;
+            for (int i = first + 1; i < n; i++) {
+                if (heads[i] != null && ((byTimecode)
+                        ? Math.floorMod(keys[i] - keys[earliest], day) > day / 2
+                        : (short) (heads[i].getFrameCounter() - heads[earliest].getFrameCounter()) < 0)) {
+                    earliest = i;
+                }
+            }
+            String frame = (byTimecode) ? heads[earliest].getTimecodeString()
+                    : Integer.toString(heads[earliest].getFrameCounter());
+            int reference = -1;
+            boolean all = true;
+            for (int i = 0; i < n; i++) {
+                present[i] = (heads[i] != null && ((byTimecode) ? keys[i] == keys[earliest]
+                        : heads[i].getFrameCounter() == heads[earliest].getFrameCounter()));
+                if (present[i]) {
+                    if (reference == -1) {
+                        reference = i;
+                    }
+                    endMissing(i);
+                } else {
+                    all = false;
+                    addMissing(i, frame);
+                }
+            }
+            if (all) {
+                aligned++;
+            }
+            if (compare(heads, present, reference)) {
+                mismatchedFrames++;
+            }
+            for (int i = 0; i < n; i++) {
+                if (present[i]) {
+                    heads[i] = null;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            endMissing(i);
+        }
+        boolean same = (mismatchedFrames == 0 && crcDisagreements == 0);
+        for (int i = 0; i < n; i++) {
+            same &= (missing[i] == 0 && feeds[i].error == null);
+        }
+        return same;
+    }
+
+    public void report()
+    {
+        log("compared " + feeds.length + " feeds: " + aligned + " frames in all feeds, " + mismatchedFrames
+                + " frames with differences, " + crcDisagreements + " CRC disagreements");
+        for (int i = 0; i < feeds.length; i++) {
+            log("\t" + feeds[i].name + ": " + feeds[i].frames + " frames read, " + missing[i] + " missing"
+                    + ((feeds[i].error != null) ? ", stopped: " + feeds[i].error : ""));
+        }
+        if (reports > maxReports) {
+            log("\t" + (reports - maxReports) + " more difference(s) not printed");
+        }
+    }
+
+    /**
+     * @return true if the frames present differ
+     */
+    private boolean compare(FrameMetadata[] heads, boolean[] present, int reference)
+    {
+        FrameMetadata ref = heads[reference];
+        boolean differ = false;
+        for (int i = reference + 1; i < heads.length; i++) {
+            if (!present[i]) {
+                continue;
+            }
+            FrameMetadata other = heads[i];
+            differ |= differs(ref, other, reference, i, "frameCounter", ref.getFrameCounter(), other.getFrameCounter());
+            differ |= differs(ref, other, reference, i, "timecode", ref.getTimecodeString(), other.getTimecodeString());
+            differ |= differs(ref, other, reference, i, "dropFrame", ref.isDropFrame(), other.isDropFrame());
+            differ |= differs(ref, other, reference, i, "program config", ref.getProgramConfigId(), other.getProgramConfigId());
+            differ |= differs(ref, other, reference, i, "frameRateCode", ref.getFrameRateCode(), other.getFrameRateCode());
+            if ((ref.getCrcErrors() == 0) != (other.getCrcErrors() == 0)) {
+                crcDisagreements++;
+                differs(ref, other, reference, i, "crcErrors", ref.getCrcErrors(), other.getCrcErrors());
+                differ = true;
+            }
+            if (ref.getProgramConfigId() != other.getProgramConfigId()) {
+                continue; // the programs are not comparable
+            }
+            for (int p = 0; p < ref.getPrograms(); p++) {
+                // a description takes several frames to send, so a feed may not have one yet
+                if (ref.getDescription(p) != null && other.getDescription(p) != null) {
+                    differ |= differs(ref, other, reference, i, "program " + p + " description",
+                            ref.getDescription(p), other.getDescription(p));
+                }
+                if (ref.hasAc3Metadata() && other.hasAc3Metadata()) {
+                    for (int f = 0; f < FrameMetadata.FIELD_COUNT; f++) {
+                        differ |= differs(ref, other, reference, i, "program " + p + ": " + FrameMetadata.FIELD_NAMES[f],
+                                ref.getProgramField(p, f), other.getProgramField(p, f));
+                    }
+                }
+            }
+        }
+        return differ;
+    }
+
+    private boolean differs(FrameMetadata ref, FrameMetadata other, int refFeed, int otherFeed,
+                            String name, Object refValue, Object otherValue)
+    {
+        if ((refValue == null) ? otherValue == null : refValue.equals(otherValue)) {
+            return false;
+        }
+        if (reports++ < maxReports) {
+            log("frame " + ref.getFrameCounter() + " (" + ref.getTimecodeString() + "): " + name + " "
+                    + feeds[refFeed].name + "=" + refValue + " " + feeds[otherFeed].name + "=" + otherValue);
+        }
+        return true;
+    }
+
+    /**
+     * @return the position of a feed's frame in the day, in frames, counted from its timecode; above 30 frames per
+     * second, the second frame of each timecode frame (the frame counter following on) is one more. NO_KEY if the
+     * frame has no valid timecode, or once the feed's timecode has failed to follow its frame counter (e.g. a stuck or
+     * looping timecode), as it cannot be trusted to align the feed from then on.
+     */
+    private long getKey(int feed, FrameMetadata frame)
+    {
+        int timecode = frame.getTimecode();
+        boolean next = (frame.getFrameCounter() == ((lastCounter[feed] + 1) & 0xFFFF));
+        boolean repeat = (next && timecode == lastTimecode[feed]);
+        lastTimecode[feed] = timecode;
+        lastCounter[feed] = frame.getFrameCounter();
+        if (timecode == FrameMetadata.TIMECODE_INVALID) {
+            lastKey[feed] = NO_KEY;
+            return NO_KEY;
+        }
+        int rate = (int) Math.round(frame.getFrameRate());
+        int perTimecodeFrame = (rate > 30) ? 2 : 1;
+        int h = (timecode >> 24) & 0xFF;
+        int m = (timecode >> 16) & 0xFF;
+        int s = (timecode >> 8) & 0xFF;
+        int f = timecode & 0xFF;
+        long minutes = h * 60L + m;
+        long labels = (minutes * 60 + s) * (rate / perTimecodeFrame) + f;
+        if (isDropFrame(frame)) {
+            labels -= 2 * (minutes - minutes / 10); // the labels skipped
+        }
+        long key = labels * perTimecodeFrame + ((repeat && perTimecodeFrame == 2) ? 1 : 0);
+        if (next && lastKey[feed] != NO_KEY && key != (lastKey[feed] + 1) % getDay(frame) && !untimed[feed]) {
+            untimed[feed] = true;
+            log("timecode of " + feeds[feed].name + " does not follow its frame counter at frame "
+                    + frame.getFrameCounter() + " (" + frame.getTimecodeString() + "); aligning by frame counter");
+        }
+        lastKey[feed] = key;
+        return (untimed[feed]) ? NO_KEY : key;
+    }
+
+    /**
+     * @return the number of frames in a day of the frame's timecode
+     */
+    private static long getDay(FrameMetadata frame)
+    {
+        long rate = Math.round(frame.getFrameRate());
+        long day = 24 * 60 * 60 * rate;
+        return (isDropFrame(frame)) ? day - 2 * (24 * 60 - 24 * 6) * ((rate > 30) ? 2 : 1) : day;
+    }
+
+    private static boolean isDropFrame(FrameMetadata frame)
+    {
+        return frame.isDropFrame() && Math.round(frame.getFrameRate()) % 30 == 0;
+    }
+
+    private void addMissing(int feed, String frame)
+    {
+        if (missingStart[feed] == null) {
+            missingStart[feed] = frame;
+        }
+        missingLast[feed] = frame;
+        missing[feed]++;
+    }
+
+    private void endMissing(int feed)
+    {
+        if (missingStart[feed] == null) {
+            return;
+        }
+        if (reports++ < maxReports) {
+            log("frames " + missingStart[feed] + "-" + missingLast[feed] + " missing from " + feeds[feed].name);
+        }
+        missingStart[feed] = null;
+    }
+
+    /**
+     * Reads one feed into its queue of frame metadata
+     */
+    public static class Feed extends ParserHelper implements Runnable, FrameListener
+    {
+        private final String name;
+        private final DolbyEReader reader;
+        private final BlockingQueue<FrameMetadata> queue = new ArrayBlockingQueue<FrameMetadata>(QUEUE_FRAMES);
+        private volatile long frames = 0;
+        private volatile String error = null;
+
+        public Feed(String name, DolbyEReader reader)
+        {
+            this.name = name;
+            this.reader = reader;
+            reader.addFrameListener(this);
+        }
+
+        public void frameRead(FrameMetadata metadata)
+        {
+            try {
+                queue.put(metadata.copy());
+                frames++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void run()
+        {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    reader.probeForAESFrame();
+                    reader.readFrameOrResync();
+                }
+            } catch (EOFException e) {
+                // done
+            } catch (IOException e) {
+                error = e.getMessage();
+            } catch (RuntimeException e) {
+                error = e.toString();
+            } finally {
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static DolbyEReader openReader(File file, String sampleArg) throws IOException
+    {
+        int sampleSize = 4;
+        boolean bigEndian = false;
+        long offset = 0;
+        if (sampleArg != null) {
+            sampleSize = Integer.parseInt(sampleArg);
+        } else {
+            StreamFormat format = FormatProbe.probe(file, null);
+            if (format != null) {
+                sampleSize = format.getSampleSize();
+                bigEndian = format.isBigEndian();
+                offset = format.getOffset();
+            }
+        }
+        DolbyEReader reader = new DolbyEReader(new MappedFileSource(file, offset, sampleSize), sampleSize, false);
+        reader.setBigEndian(bigEndian);
+        reader.setInputOffset(offset);
+        return reader;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        int count = 0;
+        while (getArg(args, "-" + (count + 1)) != null) {
+            count++;
+        }
+        if (count < 2) {
+            System.err.println("Specify two or more feeds with: -1 filename -2 filename [-3 filename ...] [-sample size]"
+                    + " [-groups names] [-max reports]");
+            System.exit(EXIT_BAD_ARGS);
+        }
+        int logLevel = (findArg(args, ARG_LOG_LEVEL)) ? Integer.parseInt(getArg(args, ARG_LOG_LEVEL)) : LOGLEVEL_NONE;
+        Feed[] feeds = new Feed[count];
+        for (int i = 0; i < count; i++) {
+            File file = new File(getArg(args, "-" + (i + 1)));
+            DolbyEReader reader = openReader(file, getArg(args, ARG_SAMPLE_SIZE));
+            reader.setLogLevel(logLevel); // the readers run side by side, so their logs would interleave
+            if (findArg(args, ARG_GROUPS)) {
+                reader.setSegmentGroups(FrameMetadata.parseGroups(getArg(args, ARG_GROUPS)));
+            }
+            feeds[i] = new Feed(file.getName(), reader);
+        }
+        FeedComparator comparator = new FeedComparator(feeds);
+        if (findArg(args, ARG_MAX_REPORTS)) {
+            comparator.setMaxReports(Long.parseLong(getArg(args, ARG_MAX_REPORTS)));
+        }
+        boolean same = comparator.run();
+        comparator.report();
+        if (!same) {
+            System.exit(EXIT_DIFFERENT);
+        }
+    }
+}
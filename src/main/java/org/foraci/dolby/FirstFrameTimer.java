@@ -0,0 +1,38 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameMetadata;
+
+import java.io.PrintStream;
+
+/**
+ * Reports when the first Dolby E frame was read: how long after the run started, and the wall clock time (so a
+ * benchmark that started the JVM can work out the time from launch to the first frame)
+ */
+public class FirstFrameTimer implements FrameListener
+{
+    /** the start of the line reported, followed by the wall clock time in ms */
+    public static final String FIRST_FRAME_AT = "first frame at ";
+
+    private final PrintStream out;
+    private final long started;
+    private boolean done = false;
+
+    /**
+     * @param started the wall clock time the run started, in ms
+     */
+    public FirstFrameTimer(PrintStream out, long started)
+    {
+        this.out = out;
+        this.started = started;
+    }
+
+    public void frameRead(FrameMetadata metadata)
+    {
+        if (done) {
+            return;
+        }
+        done = true;
+        long now = System.currentTimeMillis();
+        out.println(FIRST_FRAME_AT + now + " (" + (now - started) + " ms after start)");
+    }
+}
@@ -0,0 +1,180 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameMetadata;
+import org.foraci.dolby.util.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the frames read off the reader thread to a listener on a thread of its own, for live monitoring where the
+ * listener (formatting, output) must never hold up the parser. The metadata of each frame is copied into a
+ * preallocated slot of a single-producer, single-consumer ring as soon as the frame is read, and published with
+ * an ordered write (a volatile one if the listener thread parks), so neither side locks or allocates. If the
+ * listener falls behind and the ring is full, frames are dropped (and counted) rather than stalling the reader.
+ * <p>
+ * The listener thread waits for frames by spinning, yielding or parking (see the <code>WAIT_*</code> constants):
+ * spinning has the lowest latency but keeps a core busy. The time from a frame being read to the listener being
+ * called is recorded in a {@link LatencyHistogram}, which can be read after {@link #close()}.
+ */
+public class FrameHandoff implements FrameListener
+{
+    public static final int WAIT_SPIN = 0;
+    public static final int WAIT_YIELD = 1;
+    public static final int WAIT_PARK = 2;
+    public static final String[] WAIT_NAMES = { "spin", "yield", "park" };
+
+    public static final int DEFAULT_CAPACITY = 64; // frames; over two seconds at 25 fps
+    private static final long PARK_NANOS = 1000000; // the longest a parked listener thread sleeps between checks
+
+    private final FrameListener listener;
+    private final int wait;
+    private final int mask;
+    private final FrameMetadata[] slots;
+    private final long[] stamps; // System.nanoTime() when the frame in each slot was read
+    private final AtomicLong head = new AtomicLong(); // the next slot the reader writes
+    private final AtomicLong tail = new AtomicLong(); // the next slot the listener thread reads
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Thread thread;
+    private volatile boolean parked = false;
+    private volatile boolean closed = false;
+    private long dropped = 0;
+
+    /**
+     * @param listener the listener to call on the listener thread
+     * @param capacity the number of frames that can be waiting for the listener, a power of two
+     * @param wait how the listener thread waits for frames, e.g. {@link #WAIT_SPIN}
+     */
+    public FrameHandoff(FrameListener listener, int capacity, int wait)
+    {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        if (wait < WAIT_SPIN || wait > WAIT_PARK) {
+            throw new IllegalArgumentException("unknown wait strategy: " + wait);
+        }
+        this.listener = listener;
+        this.wait = wait;
+        this.mask = capacity - 1;
+        this.slots = new FrameMetadata[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new FrameMetadata();
+        }
+        this.stamps = new long[capacity];
+        this.thread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                consume();
+            }
+        }, "frame-handoff");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * @return the wait strategy named, e.g. <code>spin</code>
+     * @throws IllegalArgumentException if the name is not known
+     */
+    public static int parseWait(String name)
+    {
+        for (int i = 0; i < WAIT_NAMES.length; i++) {
+            if (WAIT_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("unknown wait strategy: " + name);
+    }
+
+    public void start()
+    {
+        thread.start();
+    }
+
+    /**
+     * Called on the reader thread
+     */
+    public void frameRead(FrameMetadata metadata)
+    {
+        long now = System.nanoTime();
+        long h = head.get();
+        if (h - tail.get() > mask) {
+            dropped++;
+            return;
+        }
+        int i = (int) (h & mask);
+        metadata.copyTo(slots[i]);
+        stamps[i] = now;
+        if (wait == WAIT_PARK) {
+            // a volatile write, so it cannot be reordered after the read of parked: either the listener thread sees
+            // the frame when it checks again after setting parked, or this thread sees parked and unparks it
+            head.set(h + 1);
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        } else {
+            head.lazySet(h + 1);
+        }
+    }
+
+    private void consume()
+    {
+        long t = tail.get();
+        while (true) {
+            long h = head.get();
+            if (t == h) {
+                if (closed && head.get() == t) {
+                    return;
+                }
+                idle();
+                continue;
+            }
+            while (t != h) {
+                int i = (int) (t & mask);
+                latency.record(System.nanoTime() - stamps[i]);
+                listener.frameRead(slots[i]);
+                t++;
+                tail.lazySet(t);
+            }
+        }
+    }
+
+    private void idle()
+    {
+        if (wait == WAIT_YIELD) {
+            Thread.yield();
+        } else if (wait == WAIT_PARK) {
+            parked = true;
+            if (head.get() == tail.get() && !closed) { // check again, or a frame published meanwhile may wait a park
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            parked = false;
+        }
+    }
+
+    /**
+     * Waits for the listener to be called for the frames handed off so far, and stops the listener thread
+     */
+    public void close() throws InterruptedException
+    {
+        closed = true;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    /**
+     * @return the times from frames being read to the listener being called for them (read after {@link #close()})
+     */
+    public LatencyHistogram getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * @return the number of frames dropped because the listener had fallen behind (read on the reader thread, or
+     * after {@link #close()})
+     */
+    public long getDropped()
+    {
+        return dropped;
+    }
+}
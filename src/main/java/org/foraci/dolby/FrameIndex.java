@@ -0,0 +1,103 @@
+package org.foraci.dolby;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The byte position of each Dolby E frame read from an input (the position of its burst preamble in the input
+ * file, or in each input in subframe mode). Positions are kept in a growable <code>long[]</code> and stored as
+ * deltas, which are about one frame period each.
+ */
+public class FrameIndex
+{
+    private long[] positions;
+    private int size = 0;
+
+    public FrameIndex()
+    {
+        this(1024);
+    }
+
+    public FrameIndex(int capacity)
+    {
+        this.positions = new long[Math.max(capacity, 16)];
+    }
+
+    public void add(long position)
+    {
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size * 2);
+        }
+        positions[size++] = position;
+    }
+
+    /**
+     * Appends the frames of the index of the part of the input following the part indexed here
+     */
+    public void append(FrameIndex next)
+    {
+        if (size + next.size > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(size + next.size, size * 2));
+        }
+        System.arraycopy(next.positions, 0, positions, size, next.size);
+        size += next.size;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @param frame the (zero-based) frame number
+     * @return the byte position of the frame
+     */
+    public long getPosition(int frame)
+    {
+        if (frame < 0 || frame >= size) {
+            throw new IndexOutOfBoundsException("frame " + frame + " of " + size);
+        }
+        return positions[frame];
+    }
+
+    /**
+     * @param position a byte position in the input
+     * @return the number of the last frame starting at or before the position, or -1 if there is none
+     */
+    public int findFrame(long position)
+    {
+        int i = Arrays.binarySearch(positions, 0, size, position);
+        return (i >= 0) ? i : -i - 2;
+    }
+
+    public void write(DataOutput out) throws IOException
+    {
+        out.writeInt(size);
+        long last = 0;
+        for (int i = 0; i < size; i++) {
+            long delta = positions[i] - last;
+            if (delta >= 0 && delta < Integer.MAX_VALUE) {
+                out.writeInt((int) delta);
+            } else {
+                out.writeInt(-1);
+                out.writeLong(positions[i]);
+            }
+            last = positions[i];
+        }
+    }
+
+    public static FrameIndex read(DataInput in) throws IOException
+    {
+        int size = in.readInt();
+        FrameIndex index = new FrameIndex(size);
+        long last = 0;
+        for (int i = 0; i < size; i++) {
+            int delta = in.readInt();
+            last = (delta == -1) ? in.readLong() : last + delta;
+            index.add(last);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,16 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameMetadata;
+
+/**
+ * Receives the metadata of each Dolby E frame read by a <code>DolbyEReader</code>
+ */
+public interface FrameListener
+{
+    /**
+     * Called once a frame has been read. The metadata instance is reused for the next frame,
+     * so take a {@link FrameMetadata#copy()} to keep it.
+     * @param metadata the metadata of the frame
+     */
+    void frameRead(FrameMetadata metadata);
+}
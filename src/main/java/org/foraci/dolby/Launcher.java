@@ -0,0 +1,80 @@
+package org.foraci.dolby;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the reader on many inputs in one JVM, so starting the JVM and loading the classes is paid for once rather
+ * than once per input. The options before <code>--</code> are passed to the reader for every input; the inputs
+ * follow, as file names, <code>@listfile</code> (a file of input names, one per line) or <code>@-</code> (input
+ * names read from stdin).
+ */
+public class Launcher extends ParserHelper
+{
+    private static final int EXIT_BAD_ARGS = -1;
+    private static final int EXIT_FAILED = 1;
+    private static final String END_OF_OPTIONS = "--";
+    private static final String LIST_PREFIX = "@";
+    private static final String STDIN_LIST = "@-";
+
+    public static void main(String[] args) throws IOException
+    {
+        int separator = Arrays.asList(args).indexOf(END_OF_OPTIONS);
+        if (separator == -1 || separator == args.length - 1) {
+            System.err.println("Specify the inputs with: [reader options] -- (filename | @listfile | @-)...");
+            System.exit(EXIT_BAD_ARGS);
+        }
+        String[] options = Arrays.copyOfRange(args, 0, separator);
+        List<String> inputs = new ArrayList<String>();
+        for (int i = separator + 1; i < args.length; i++) {
+            if (STDIN_LIST.equals(args[i])) {
+                readList(new InputStreamReader(System.in, "UTF-8"), inputs);
+            } else if (args[i].startsWith(LIST_PREFIX)) {
+                Reader list = new InputStreamReader(new FileInputStream(args[i].substring(LIST_PREFIX.length())), "UTF-8");
+                try {
+                    readList(list, inputs);
+                } finally {
+                    list.close();
+                }
+            } else {
+                inputs.add(args[i]);
+            }
+        }
+        long start = System.currentTimeMillis();
+        int failed = 0;
+        String[] readerArgs = Arrays.copyOf(options, options.length + 2);
+        readerArgs[options.length] = "-1";
+        for (String input : inputs) {
+            log("==> " + input);
+            readerArgs[options.length + 1] = input;
+            try {
+                DolbyEReader.run(readerArgs);
+            } catch (Exception e) { // go on with the next input
+                log("failed: " + input + ": " + e);
+                failed++;
+            }
+        }
+        log("read " + inputs.size() + " input(s) in " + (System.currentTimeMillis() - start) + " ms"
+                + ((failed > 0) ? ", " + failed + " failed" : ""));
+        if (failed > 0) {
+            System.exit(EXIT_FAILED);
+        }
+    }
+
+    /**
+     * Adds the names in a list to the inputs, skipping empty lines and comments (starting with <code>#</code>)
+     */
+    private static void readList(Reader list, List<String> inputs) throws IOException
+    {
+        BufferedReader in = new BufferedReader(list);
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.length() > 0 && !line.startsWith("#")) {
+                inputs.add(line);
+            }
+        }
+    }
+}
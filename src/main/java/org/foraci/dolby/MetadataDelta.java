@@ -0,0 +1,100 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameMetadata;
+
+import java.io.PrintStream;
+
+/**
+ * Prints only the metadata that changed from the previous frame, along with the frame and timecode
+ * where it changed. The last values are kept per program in primitive arrays.
+ */
+public class MetadataDelta implements FrameListener
+{
+    private final PrintStream out;
+    private final int[][] last = new int[FrameMetadata.MAX_PROGRAMS][FrameMetadata.FIELD_COUNT];
+    private boolean first = true;
+    private int lastProgramConfigId;
+    private int lastFrameRateCode;
+    private boolean lastDropFrame;
+    private boolean lastTimecodeValid;
+    private boolean lastAc3Metadata;
+    private long changes = 0;
+
+    public MetadataDelta(PrintStream out)
+    {
+        this.out = out;
+    }
+
+    /**
+     * @return the number of changed values reported so far
+     */
+    public long getChanges()
+    {
+        return changes;
+    }
+
+    public void frameRead(FrameMetadata metadata)
+    {
+        String where = null;
+        boolean timecodeValid = (metadata.getTimecode() != FrameMetadata.TIMECODE_INVALID);
+        boolean all = first || metadata.getProgramConfigId() != lastProgramConfigId;
+        if (all) {
+            where = where(metadata);
+            out.println(where + "program config: " + metadata.getProgramConfig());
+            changes++;
+        }
+        if (first || metadata.getFrameRateCode() != lastFrameRateCode) {
+            where = print(metadata, where, "frameRateCode", lastFrameRateCode, metadata.getFrameRateCode());
+        }
+        if (first || metadata.isDropFrame() != lastDropFrame) {
+            where = print(metadata, where, "dropFrame", lastDropFrame, metadata.isDropFrame());
+        }
+        if (first || timecodeValid != lastTimecodeValid) {
+            where = print(metadata, where, "timecodeValid", lastTimecodeValid, timecodeValid);
+        }
+        if (first || metadata.hasAc3Metadata() != lastAc3Metadata) {
+            where = print(metadata, where, "ac3Metadata", lastAc3Metadata, metadata.hasAc3Metadata());
+        }
+        if (metadata.getCrcErrors() != 0) {
+            where = print(metadata, where, "crcErrors", 0, metadata.getCrcErrors());
+        }
+        if (metadata.hasAc3Metadata()) {
+            for (int p = 0; p < metadata.getPrograms(); p++) {
+                int[] lastFields = last[p];
+                for (int f = 0; f < FrameMetadata.FIELD_COUNT; f++) {
+                    int value = metadata.getProgramField(p, f);
+                    if (all || value != lastFields[f]) {
+                        if (where == null) {
+                            where = where(metadata);
+                        }
+                        out.println(where + "program " + p + ": " + FrameMetadata.FIELD_NAMES[f] + " "
+                                + ((all) ? "" : lastFields[f] + " -> ") + value);
+                        lastFields[f] = value;
+                        changes++;
+                    }
+                }
+            }
+        }
+        first = false;
+        lastProgramConfigId = metadata.getProgramConfigId();
+        lastFrameRateCode = metadata.getFrameRateCode();
+        lastDropFrame = metadata.isDropFrame();
+        lastTimecodeValid = timecodeValid;
+        lastAc3Metadata = metadata.hasAc3Metadata();
+    }
+
+    private String print(FrameMetadata metadata, String where, String name, Object from, Object to)
+    {
+        if (where == null) {
+            where = where(metadata);
+        }
+        out.println(where + name + " " + ((first) ? "" : from + " -> ") + to);
+        changes++;
+        return where;
+    }
+
+    private String where(FrameMetadata metadata)
+    {
+        return "frame " + metadata.getFrame() + " (" + metadata.getTimecodeString() + "): ";
+    }
+}
@@ -0,0 +1,341 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameMetadata;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Aggregates the peak and RMS meters of every channel as frames are read: min, max, mean and exact percentiles
+ * (meters are 10-bit values, so a 1024-bin histogram per channel holds their whole distribution), plus the
+ * number of silent and clipped frames. Every <code>window</code> frames the means of the window are printed along
+ * with their change from the previous window. Everything is kept in primitive arrays of a fixed size, so memory
+ * use does not depend on the length of the input. The statistics of parts of an input read apart can be merged
+ * (windows are only printed as each part is read).
+ */
+public class MeterStatistics implements FrameListener
+{
+    public static final int METER_VALUES = 1024; // 10-bit meters
+    public static final int DEFAULT_SILENT_PEAK = 0;
+    public static final int DEFAULT_CLIPPED_PEAK = METER_VALUES - 1;
+
+    private static final int CHANNELS = FrameMetadata.MAX_CHANNELS;
+
+    private final PrintStream out;
+    private final int window;
+    private int silentPeak = DEFAULT_SILENT_PEAK;
+    private int clippedPeak = DEFAULT_CLIPPED_PEAK;
+    private final Meter peak = new Meter();
+    private final Meter rms = new Meter();
+    private final long[] silentFrames = new long[CHANNELS];
+    private final long[] clippedFrames = new long[CHANNELS];
+    private int channels = 0; // the most channels seen in a frame
+    private long frames = 0;
+    // the current and previous windows
+    private final long[] windowPeakSum = new long[CHANNELS];
+    private final long[] windowRmsSum = new long[CHANNELS];
+    private final int[] windowPeakMax = new int[CHANNELS];
+    private final double[] lastWindowRms = new double[CHANNELS];
+    private int windowFrames = 0;
+    private int windowStart = 0;
+    private long windows = 0;
+
+    /**
+     * @param out where to print the window and final summaries
+     * @param window the number of frames in each window, or zero to print only the final summary
+     */
+    public MeterStatistics(PrintStream out, int window)
+    {
+        this.out = out;
+        this.window = window;
+    }
+
+    /**
+     * @param silentPeak the peak meter value at or below which a channel is silent in a frame
+     * @param clippedPeak the peak meter value at or above which a channel is clipped in a frame
+     */
+    public void setThresholds(int silentPeak, int clippedPeak)
+    {
+        this.silentPeak = silentPeak;
+        this.clippedPeak = clippedPeak;
+    }
+
+    public void frameRead(FrameMetadata metadata)
+    {
+        if ((metadata.getGroups() & FrameMetadata.GROUP_METERS) == 0) {
+            return;
+        }
+        int n = metadata.getChannels();
+        if (n > channels) {
+            channels = n;
+        }
+        if (windowFrames == 0) {
+            windowStart = metadata.getFrame();
+        }
+        for (int c = 0; c < n; c++) {
+            int p = metadata.getPeakMeter(c);
+            int r = metadata.getRmsMeter(c);
+            peak.add(c, p);
+            rms.add(c, r);
+            if (p <= silentPeak) {
+                silentFrames[c]++;
+            }
+            if (p >= clippedPeak) {
+                clippedFrames[c]++;
+            }
+            windowPeakSum[c] += p;
+            windowRmsSum[c] += r;
+            if (p > windowPeakMax[c]) {
+                windowPeakMax[c] = p;
+            }
+        }
+        frames++;
+        if (++windowFrames == window) {
+            reportWindow(metadata);
+        }
+    }
+
+    private void reportWindow(FrameMetadata metadata)
+    {
+        StringBuilder sb = new StringBuilder(64 + channels * 32);
+        sb.append("meters, frames ").append(windowStart).append('-').append(metadata.getFrame())
+                .append(" (").append(metadata.getTimecodeString()).append("):");
+        for (int c = 0; c < channels; c++) {
+            double meanRms = (double) windowRmsSum[c] / windowFrames;
+            sb.append(" ch").append(c).append(" rms=").append(format(meanRms));
+            if (windows > 0) {
+                double delta = meanRms - lastWindowRms[c];
+                sb.append((delta >= 0) ? "(+" : "(").append(format(delta)).append(')');
+            }
+            sb.append(" peak=").append(format((double) windowPeakSum[c] / windowFrames))
+                    .append('/').append(windowPeakMax[c]);
+            lastWindowRms[c] = meanRms;
+            windowPeakSum[c] = 0;
+            windowRmsSum[c] = 0;
+            windowPeakMax[c] = 0;
+        }
+        out.println(sb);
+        windowFrames = 0;
+        windows++;
+    }
+
+    public long getFrames()
+    {
+        return frames;
+    }
+
+    public int getChannels()
+    {
+        return channels;
+    }
+
+    /**
+     * @return the peak meter statistics of all channels
+     */
+    public Meter getPeak()
+    {
+        return peak;
+    }
+
+    /**
+     * @return the RMS meter statistics of all channels
+     */
+    public Meter getRms()
+    {
+        return rms;
+    }
+
+    /**
+     * @return true if the channel was silent in every frame
+     */
+    public boolean isSilent(int channel)
+    {
+        return peak.count[channel] > 0 && silentFrames[channel] == peak.count[channel];
+    }
+
+    public long getSilentFrames(int channel)
+    {
+        return silentFrames[channel];
+    }
+
+    public long getClippedFrames(int channel)
+    {
+        return clippedFrames[channel];
+    }
+
+    /**
+     * Adds the statistics of another part of the input; the windows are not merged
+     */
+    public void merge(MeterStatistics next)
+    {
+        frames += next.frames;
+        channels = Math.max(channels, next.channels);
+        peak.merge(next.peak);
+        rms.merge(next.rms);
+        for (int c = 0; c < CHANNELS; c++) {
+            silentFrames[c] += next.silentFrames[c];
+            clippedFrames[c] += next.clippedFrames[c];
+        }
+    }
+
+    public void write(DataOutput out) throws IOException
+    {
+        out.writeLong(frames);
+        out.writeInt(channels);
+        for (int c = 0; c < channels; c++) {
+            out.writeLong(silentFrames[c]);
+            out.writeLong(clippedFrames[c]);
+            peak.write(out, c);
+            rms.write(out, c);
+        }
+    }
+
+    /**
+     * @return statistics read from their stored form, which print no windows
+     */
+    public static MeterStatistics read(DataInput in) throws IOException
+    {
+        MeterStatistics meters = new MeterStatistics(null, 0);
+        meters.frames = in.readLong();
+        meters.channels = in.readInt();
+        if (meters.channels < 0 || meters.channels > CHANNELS) {
+            throw new IOException("bad meter channel count: " + meters.channels);
+        }
+        for (int c = 0; c < meters.channels; c++) {
+            meters.silentFrames[c] = in.readLong();
+            meters.clippedFrames[c] = in.readLong();
+            meters.peak.read(in, c);
+            meters.rms.read(in, c);
+        }
+        return meters;
+    }
+
+    public void report(PrintStream out)
+    {
+        out.println("meter frames: " + frames);
+        for (int c = 0; c < channels; c++) {
+            out.println("\tch" + c + " peak: " + peak.describe(c) + "; rms: " + rms.describe(c)
+                    + "; silent frames: " + silentFrames[c] + ", clipped frames: " + clippedFrames[c]
+                    + ((isSilent(c)) ? " SILENT" : "") + ((clippedFrames[c] > 0) ? " CLIPPED" : ""));
+        }
+    }
+
+    private static String format(double d)
+    {
+        return String.format("%.1f", d);
+    }
+
+    /**
+     * The distribution of one meter of every channel
+     */
+    public static class Meter
+    {
+        private final int[][] histogram = new int[CHANNELS][METER_VALUES];
+        private final long[] count = new long[CHANNELS];
+        private final long[] sum = new long[CHANNELS];
+
+        private void add(int channel, int value)
+        {
+            histogram[channel][value & (METER_VALUES - 1)]++;
+            count[channel]++;
+            sum[channel] += value;
+        }
+
+        private void merge(Meter next)
+        {
+            for (int c = 0; c < CHANNELS; c++) {
+                for (int v = 0; v < METER_VALUES; v++) {
+                    histogram[c][v] += next.histogram[c][v];
+                }
+                count[c] += next.count[c];
+                sum[c] += next.sum[c];
+            }
+        }
+
+        /**
+         * Writes the distribution of a channel, as the count of each meter value seen
+         */
+        private void write(DataOutput out, int channel) throws IOException
+        {
+            int[] h = histogram[channel];
+            int values = 0;
+            for (int v = 0; v < METER_VALUES; v++) {
+                if (h[v] != 0) {
+                    values++;
+                }
+            }
+            out.writeLong(sum[channel]);
+            out.writeShort(values);
+            for (int v = 0; v < METER_VALUES; v++) {
+                if (h[v] != 0) {
+                    out.writeShort(v);
+                    out.writeInt(h[v]);
+                }
+            }
+        }
+
+        private void read(DataInput in, int channel) throws IOException
+        {
+            sum[channel] = in.readLong();
+            int values = in.readUnsignedShort();
+            for (int i = 0; i < values; i++) {
+                int v = in.readUnsignedShort() & (METER_VALUES - 1);
+                int n = in.readInt();
+                histogram[channel][v] = n;
+                count[channel] += n;
+            }
+        }
+
+        public long getCount(int channel)
+        {
+            return count[channel];
+        }
+
+        public double getMean(int channel)
+        {
+            return (count[channel] == 0) ? 0 : (double) sum[channel] / count[channel];
+        }
+
+        public int getMin(int channel)
+        {
+            return percentile(channel, 0);
+        }
+
+        public int getMax(int channel)
+        {
+            return percentile(channel, 100);
+        }
+
+        /**
+         * @param percent the percentile, from 0 to 100
+         * @return the lowest meter value with at least that percentage of the frames at or below it,
+         * or -1 if there are no frames
+         */
+        public int percentile(int channel, double percent)
+        {
+            long n = count[channel];
+            if (n == 0) {
+                return -1;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percent / 100 * n));
+            int[] h = histogram[channel];
+            long seen = 0;
+            for (int v = 0; v < METER_VALUES; v++) {
+                seen += h[v];
+                if (seen >= rank) {
+                    return v;
+                }
+            }
+            return METER_VALUES - 1;
+        }
+
+        private String describe(int channel)
+        {
+            return "min=" + getMin(channel) + " max=" + getMax(channel) + " mean=" + format(getMean(channel))
+                    + " p50=" + percentile(channel, 50) + " p95=" + percentile(channel, 95)
+                    + " p99=" + percentile(channel, 99);
+        }
+    }
+}
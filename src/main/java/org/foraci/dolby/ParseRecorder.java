@@ -0,0 +1,60 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameMetadata;
+
+/**
+ * Records the summary and frame index of the frames read by a reader, and the input position following the last
+ * complete frame (where reading can continue if the input grows)
+ */
+public class ParseRecorder implements FrameListener
+{
+    private final DolbyEReader reader;
+    private final ParseSummary summary = new ParseSummary();
+    private final FrameIndex index = new FrameIndex();
+    private long endPosition;
+
+    /**
+     * @param reader the reader to record, with its input offset already set
+     */
+    public ParseRecorder(DolbyEReader reader)
+    {
+        this.reader = reader;
+        this.endPosition = reader.getInputPosition();
+    }
+
+    public void frameRead(FrameMetadata metadata)
+    {
+        summary.add(metadata);
+        index.add(reader.toInputPosition(metadata.getPosition()));
+        endPosition = reader.getInputPosition();
+    }
+
+    /**
+     * Adds the burst counts and damaged regions of the reader to the summary; call once, after reading
+     */
+    public void finish()
+    {
+        for (int dataType = 0; dataType < 32; dataType++) {
+            summary.addBursts(dataType, reader.getBurstCount(dataType));
+        }
+        summary.addDamagedRegions(reader.getDamageLog().getRegionCount());
+    }
+
+    public ParseSummary getSummary()
+    {
+        return summary;
+    }
+
+    public FrameIndex getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * @return the byte position following the last complete frame (in each input, in subframe mode)
+     */
+    public long getEndPosition()
+    {
+        return endPosition;
+    }
+}
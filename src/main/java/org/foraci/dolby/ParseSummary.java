@@ -0,0 +1,183 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameMetadata;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * A summary of the frames read from an input. Summaries of consecutive parts of an input can be merged,
+ * so the summary of a file that has grown is the summary of the part read before plus that of the new tail.
+ */
+public class ParseSummary
+{
+    private static final int DATA_TYPES = 32;
+
+    private long frames = 0;
+    private long crcErrors = 0;
+    private long damagedRegions = 0;
+    private int firstTimecode = FrameMetadata.TIMECODE_INVALID;
+    private int lastTimecode = FrameMetadata.TIMECODE_INVALID;
+    private boolean dropFrame = false;
+    private int frameRateCode = 0;
+    private int programConfigs = 0; // bit per program config id seen
+    private final long[] burstCounts = new long[DATA_TYPES];
+
+    /**
+     * Adds a frame to the summary
+     */
+    public void add(FrameMetadata metadata)
+    {
+        if (frames == 0) {
+            firstTimecode = metadata.getTimecode();
+        }
+        frames++;
+        crcErrors += metadata.getCrcErrors();
+        lastTimecode = metadata.getTimecode();
+        dropFrame = metadata.isDropFrame();
+        frameRateCode = metadata.getFrameRateCode();
+        programConfigs |= 1 << metadata.getProgramConfigId();
+    }
+
+    /**
+     * @param dataType the 337M data type
+     * @param count the number of bursts of the data type read
+     */
+    public void addBursts(int dataType, long count)
+    {
+        burstCounts[dataType] += count;
+    }
+
+    public void addDamagedRegions(long count)
+    {
+        damagedRegions += count;
+    }
+
+    /**
+     * Adds the summary of the part of the input following the part summarized here
+     */
+    public void merge(ParseSummary next)
+    {
+        if (next.frames > 0) {
+            if (frames == 0) {
+                firstTimecode = next.firstTimecode;
+            }
+            lastTimecode = next.lastTimecode;
+            dropFrame = next.dropFrame;
+            frameRateCode = next.frameRateCode;
+        }
+        frames += next.frames;
+        crcErrors += next.crcErrors;
+        damagedRegions += next.damagedRegions;
+        programConfigs |= next.programConfigs;
+        for (int i = 0; i < DATA_TYPES; i++) {
+            burstCounts[i] += next.burstCounts[i];
+        }
+    }
+
+    public long getFrames()
+    {
+        return frames;
+    }
+
+    public long getCrcErrors()
+    {
+        return crcErrors;
+    }
+
+    public long getDamagedRegions()
+    {
+        return damagedRegions;
+    }
+
+    public int getFirstTimecode()
+    {
+        return firstTimecode;
+    }
+
+    public int getLastTimecode()
+    {
+        return lastTimecode;
+    }
+
+    public boolean isDropFrame()
+    {
+        return dropFrame;
+    }
+
+    public int getFrameRateCode()
+    {
+        return frameRateCode;
+    }
+
+    /**
+     * @return true if a frame with the program config was read
+     */
+    public boolean hasProgramConfig(int programConfigId)
+    {
+        return (programConfigs & (1 << programConfigId)) != 0;
+    }
+
+    public long getBurstCount(int dataType)
+    {
+        return burstCounts[dataType];
+    }
+
+    public void report(PrintStream out)
+    {
+        out.println("frames: " + frames);
+        if (frames > 0) {
+            out.println("timecode: " + FrameMetadata.formatTimecode(firstTimecode) + " - "
+                    + FrameMetadata.formatTimecode(lastTimecode) + ((dropFrame) ? " (drop frame)" : ""));
+            out.println("frame rate code: " + frameRateCode);
+            StringBuilder sb = new StringBuilder();
+            for (int id = 0; id < 32; id++) {
+                if (hasProgramConfig(id)) {
+                    sb.append((sb.length() == 0) ? "" : ", ").append(id);
+                }
+            }
+            out.println("program configs: " + sb);
+        }
+        out.println("CRC errors: " + crcErrors);
+        out.println("damaged regions: " + damagedRegions);
+        for (int i = 0; i < DATA_TYPES; i++) {
+            if (burstCounts[i] != 0) {
+                out.println("bursts of data type " + i + ": " + burstCounts[i]);
+            }
+        }
+    }
+
+    public void write(DataOutput out) throws IOException
+    {
+        out.writeLong(frames);
+        out.writeLong(crcErrors);
+        out.writeLong(damagedRegions);
+        out.writeInt(firstTimecode);
+        out.writeInt(lastTimecode);
+        out.writeBoolean(dropFrame);
+        out.writeInt(frameRateCode);
+        out.writeInt(programConfigs);
+        for (int i = 0; i < DATA_TYPES; i++) {
+            out.writeLong(burstCounts[i]);
+        }
+    }
+
+    public static ParseSummary read(DataInput in) throws IOException
+    {
+        ParseSummary summary = new ParseSummary();
+        summary.frames = in.readLong();
+        summary.crcErrors = in.readLong();
+        summary.damagedRegions = in.readLong();
+        summary.firstTimecode = in.readInt();
+        summary.lastTimecode = in.readInt();
+        summary.dropFrame = in.readBoolean();
+        summary.frameRateCode = in.readInt();
+        summary.programConfigs = in.readInt();
+        for (int i = 0; i < DATA_TYPES; i++) {
+            summary.burstCounts[i] = in.readLong();
+        }
+        return summary;
+    }
+}
@@ -1,6 +1,5 @@
 package org.foraci.dolby;
 
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -11,12 +10,27 @@ import java.io.InputStream;
  */
 public abstract class ParserHelper
 {
+    public static final int LOGLEVEL_NONE = -1;
     public static final int LOGLEVEL_WARN = 0;
     public static final int LOGLEVEL_INFO = 1;
     public static final int LOGLEVEL_DEBUG = 2;
     
+    /** the deepest indentation of log messages; deeper levels are printed at this depth */
+    public static final int MAX_DEPTH = 16;
+    private static final String[] LEVEL_PREFIXES = new String[MAX_DEPTH + 1];
+
+    static {
+        LEVEL_PREFIXES[0] = "";
+        for (int i = 1; i <= MAX_DEPTH; i++) {
+            LEVEL_PREFIXES[i] = LEVEL_PREFIXES[i - 1] + "\t";
+        }
+    }
+
     protected int logLevel = LOGLEVEL_INFO;
-    private String levelPrefix = "";
+    private int depth = 0;
+    private long warningLimit = -1; // warnings printed before the rest are only counted, or -1 for no limit
+    private long warnings = 0;
+    private long suppressedWarnings = 0;
 
     protected static boolean findArg(String[] args, String name)
     {
@@ -52,17 +66,43 @@ public abstract class ParserHelper
         this.logLevel = logLevel;
     }
 
+    /**
+     * Limits the number of warnings printed, e.g. per window of an endless input
+     * @param warningLimit the number of warnings to print until {@link #resetWarnings()}, or -1 for no limit
+     */
+    public void setWarningLimit(long warningLimit)
+    {
+        this.warningLimit = warningLimit;
+    }
+
+    /**
+     * Starts a new count of warnings against the limit
+     * @return the number of warnings suppressed since the last reset
+     */
+    public long resetWarnings()
+    {
+        long suppressed = suppressedWarnings;
+        warnings = 0;
+        suppressedWarnings = 0;
+        return suppressed;
+    }
+
     protected void push()
     {
-        levelPrefix += "\t";
+        depth++;
     }
 
     protected void pop()
     {
-        if (levelPrefix.length() == 0) {
+        if (depth == 0) {
             return;
         }
-        levelPrefix = levelPrefix.substring(0, levelPrefix.length() - 1);
+        depth--;
+    }
+
+    protected void resetLevel()
+    {
+        depth = 0;
     }
 
     protected static void log(String message)
@@ -77,7 +117,7 @@ public abstract class ParserHelper
 //            )) return;
 //        if (true)return;
         if (logLevel < LOGLEVEL_INFO) return;
-        System.out.println(levelPrefix + message);
+        System.out.println(LEVEL_PREFIXES[Math.min(depth, MAX_DEPTH)] + message);
     }
 
     protected void info(String message, boolean up)
@@ -89,6 +129,10 @@ public abstract class ParserHelper
     protected void warn(String message)
     {
         if (logLevel < LOGLEVEL_WARN) return;
+        if (warningLimit != -1 && warnings++ >= warningLimit) {
+            suppressedWarnings++;
+            return;
+        }
         System.out.println("WARN: " + message);
     }
 
@@ -104,15 +148,6 @@ public abstract class ParserHelper
         return Integer.toString(i);
     }
 
-    protected int readIntLe(DataInputStream in) throws IOException
-    {
-        int i = (in.readByte() & 0xFF);
-        i |= ((in.read() & 0xFF) << 8);
-        i |= ((in.read() & 0xFF) << 16);
-        i |= ((in.read() & 0xFF) << 24);
-        return i;
-    }
-
     protected static void skipFully(InputStream in, long len) throws IOException
     {
         do {
@@ -0,0 +1,192 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameMetadata;
+
+/**
+ * The part of an input to read: where it starts (by byte position, frame number or timecode) and where it ends
+ * (by byte position, frame number, timecode or number of frames read). Byte positions are in the input file
+ * (in each input, in subframe mode); frame numbers count from zero; limits that are not set are {@link #NONE}.
+ */
+public class ReadRange
+{
+    public static final long NONE = -1;
+
+    private long startByte = NONE;
+    private long endByte = NONE;
+    private long startFrame = NONE;
+    private long endFrame = NONE;
+    private int startTimecode = FrameMetadata.TIMECODE_INVALID;
+    private int endTimecode = FrameMetadata.TIMECODE_INVALID;
+    private long maxFrames = NONE;
+
+    public long getStartByte()
+    {
+        return startByte;
+    }
+
+    /**
+     * @param startByte the position of the first byte to read; reading starts at the first preamble from here
+     */
+    public void setStartByte(long startByte)
+    {
+        this.startByte = startByte;
+    }
+
+    public long getEndByte()
+    {
+        return endByte;
+    }
+
+    /**
+     * @param endByte the position at which to stop; no burst starting at or past this position is read
+     */
+    public void setEndByte(long endByte)
+    {
+        this.endByte = endByte;
+    }
+
+    public long getStartFrame()
+    {
+        return startFrame;
+    }
+
+    public void setStartFrame(long startFrame)
+    {
+        this.startFrame = startFrame;
+    }
+
+    public long getEndFrame()
+    {
+        return endFrame;
+    }
+
+    /**
+     * @param endFrame the number of the first frame not to read
+     */
+    public void setEndFrame(long endFrame)
+    {
+        this.endFrame = endFrame;
+    }
+
+    public int getStartTimecode()
+    {
+        return startTimecode;
+    }
+
+    /**
+     * @param startTimecode the packed timecode (see {@link FrameMetadata#getTimecode()}) of the first frame to read;
+     * frames before it are skipped after reading only their metadata segment
+     */
+    public void setStartTimecode(int startTimecode)
+    {
+        this.startTimecode = startTimecode;
+    }
+
+    public int getEndTimecode()
+    {
+        return endTimecode;
+    }
+
+    /**
+     * @param endTimecode the packed timecode of the last frame to read; reading stops after the first frame
+     * at or past it
+     */
+    public void setEndTimecode(int endTimecode)
+    {
+        this.endTimecode = endTimecode;
+    }
+
+    public long getMaxFrames()
+    {
+        return maxFrames;
+    }
+
+    /**
+     * @param maxFrames the number of frames to read from the start of the range
+     */
+    public void setMaxFrames(long maxFrames)
+    {
+        this.maxFrames = maxFrames;
+    }
+
+    public boolean hasStart()
+    {
+        return startByte != NONE || startFrame != NONE || startTimecode != FrameMetadata.TIMECODE_INVALID;
+    }
+
+    /**
+     * @return true if the burst at the position (or the frame with the number) is before the start of the range,
+     * by byte position or frame number
+     */
+    public boolean isBeforeStart(long frame, long position)
+    {
+        return (startFrame != NONE && frame < startFrame) || (startByte != NONE && position < startByte);
+    }
+
+    /**
+     * @return true if the frame with the timecode is before the start of the range; frames without a valid
+     * timecode are before the start of a timecode range
+     */
+    public boolean isBeforeStartTimecode(int timecode)
+    {
+        return startTimecode != FrameMetadata.TIMECODE_INVALID
+                && (timecode == FrameMetadata.TIMECODE_INVALID || timecode < startTimecode);
+    }
+
+    /**
+     * @param frame the number of the next frame
+     * @param position the position of the next burst
+     * @param framesRead the number of frames read in the range so far
+     * @return true if the range ends before the next burst
+     */
+    public boolean isEndedBefore(long frame, long position, long framesRead)
+    {
+        return (endByte != NONE && position >= endByte) || (endFrame != NONE && frame >= endFrame)
+                || (maxFrames != NONE && framesRead >= maxFrames);
+    }
+
+    /**
+     * @return true if the range ends with the frame just read
+     */
+    public boolean isEndedAfter(int timecode)
+    {
+        return endTimecode != FrameMetadata.TIMECODE_INVALID && timecode != FrameMetadata.TIMECODE_INVALID
+                && timecode >= endTimecode;
+    }
+
+    /**
+     * Parses a timecode given as <code>hh:mm:ss:ff</code> (the last separator may also be <code>;</code>
+     * or <code>.</code>)
+     * @return the packed timecode
+     * @throws IllegalArgumentException if the timecode could not be parsed
+     */
+    public static int parseTimecode(String s)
+    {
+        String[] parts = s.split("[:;.]");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("timecode must be hh:mm:ss:ff: " + s);
+        }
+        int timecode = 0;
+        for (String part : parts) {
+            int value = Integer.parseInt(part);
+            if (value < 0 || value > 99) {
+                throw new IllegalArgumentException("bad timecode: " + s);
+            }
+            timecode = (timecode << 8) | value;
+        }
+        return timecode;
+    }
+
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("range:");
+        if (startByte != NONE) sb.append(" from byte ").append(startByte);
+        if (startFrame != NONE) sb.append(" from frame ").append(startFrame);
+        if (startTimecode != FrameMetadata.TIMECODE_INVALID) sb.append(" from ").append(FrameMetadata.formatTimecode(startTimecode));
+        if (endByte != NONE) sb.append(" to byte ").append(endByte);
+        if (endFrame != NONE) sb.append(" to frame ").append(endFrame);
+        if (endTimecode != FrameMetadata.TIMECODE_INVALID) sb.append(" to ").append(FrameMetadata.formatTimecode(endTimecode));
+        if (maxFrames != NONE) sb.append(", ").append(maxFrames).append(" frame(s)");
+        return sb.toString();
+    }
+}
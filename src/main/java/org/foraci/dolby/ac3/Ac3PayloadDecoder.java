@@ -0,0 +1,63 @@
+package org.foraci.dolby.ac3;
+
+import org.foraci.dolby.ParserHelper;
+import org.foraci.dolby.s337m.BurstInfo;
+import org.foraci.dolby.s337m.PayloadDecoder;
+import org.foraci.dolby.s337m.PayloadReader;
+
+import java.io.IOException;
+
+/**
+ * Decodes the sync info and the start of the BSI of an AC3 sync frame carried in a 337M burst
+ */
+public class Ac3PayloadDecoder extends ParserHelper implements PayloadDecoder
+{
+    public static final int SYNC_WORD = 0x0B77;
+
+    static final String[] ACMOD_NAMES = { "1+1", "1/0", "2/0", "3/0", "2/1", "3/1", "2/2", "3/2" };
+    private static final int[] SAMPLE_RATES = { 48000, 44100, 32000 };
+    private static final int[] DATA_RATES = { 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384, 448, 512, 576, 640 };
+
+    public void decode(BurstInfo info, PayloadReader payload) throws IOException
+    {
+        info("AC3 sync frame:", true);
+        int sync = payload.getBits(16);
+        if (sync != SYNC_WORD) {
+            warn("bad AC3 sync word: " + Integer.toHexString(sync));
+            pop();
+            return;
+        }
+        int crc1 = payload.getBits(16);
+        int fscod = payload.getBits(2);
+        if (fscod < SAMPLE_RATES.length) {
+            info("sample rate: " + SAMPLE_RATES[fscod]);
+        } else {
+            warn("fscod: RESERVED value used");
+        }
+        int frmsizecod = payload.getBits(6);
+        if (frmsizecod / 2 < DATA_RATES.length) {
+            info("datarate: " + DATA_RATES[frmsizecod / 2] + " kbps");
+        } else {
+            warn("frmsizecod: RESERVED value used");
+        }
+        int bsid = payload.getBits(5);
+        info("bsid: " + bsid);
+        int bsmod = payload.getBits(3);
+        info("bsmod: " + bsmod);
+        int acmod = payload.getBits(3);
+        info("acmod: " + ACMOD_NAMES[acmod]);
+        if ((acmod & 0x1) != 0 && acmod != 1) {
+            info("cmixlev: " + payload.getBits(2));
+        }
+        if ((acmod & 0x4) != 0) {
+            info("surmixlev: " + payload.getBits(2));
+        }
+        if (acmod == 2) {
+            info("dsurmod: " + payload.getBits(2));
+        }
+        info("lfeon: " + ((payload.getBits(1) == 1) ? "on" : "off"));
+        info("dialnorm: " + payload.getBits(5));
+        pop();
+        debug("AC3 sync frame end");
+    }
+}
@@ -0,0 +1,56 @@
+package org.foraci.dolby.ac3;
+
+import org.foraci.dolby.ParserHelper;
+import org.foraci.dolby.s337m.BurstInfo;
+import org.foraci.dolby.s337m.PayloadDecoder;
+import org.foraci.dolby.s337m.PayloadReader;
+
+import java.io.IOException;
+
+/**
+ * Decodes the sync info and the start of the BSI of the first E-AC3 sync frame carried in a 337M burst
+ */
+public class EnhancedAc3PayloadDecoder extends ParserHelper implements PayloadDecoder
+{
+    private static final String[] STREAM_TYPES = { "independent", "dependent", "AC3 converted", "RESERVED" };
+    private static final int[] SAMPLE_RATES = { 48000, 44100, 32000 };
+    private static final int[] BLOCKS = { 1, 2, 3, 6 };
+
+    public void decode(BurstInfo info, PayloadReader payload) throws IOException
+    {
+        info("E-AC3 sync frame:", true);
+        int sync = payload.getBits(16);
+        if (sync != Ac3PayloadDecoder.SYNC_WORD) {
+            warn("bad E-AC3 sync word: " + Integer.toHexString(sync));
+            pop();
+            return;
+        }
+        info("strmtyp: " + STREAM_TYPES[payload.getBits(2)]);
+        info("substreamid: " + payload.getBits(3));
+        int frmsiz = payload.getBits(11);
+        info("frame size: " + ((frmsiz + 1) * 2) + " bytes");
+        int fscod = payload.getBits(2);
+        if (fscod == 3) {
+            int fscod2 = payload.getBits(2);
+            if (fscod2 < SAMPLE_RATES.length) {
+                info("sample rate: " + (SAMPLE_RATES[fscod2] / 2));
+            } else {
+                warn("fscod2: RESERVED value used");
+            }
+        } else {
+            info("sample rate: " + SAMPLE_RATES[fscod]);
+            info("blocks: " + BLOCKS[payload.getBits(2)]);
+        }
+        int acmod = payload.getBits(3);
+        info("acmod: " + Ac3PayloadDecoder.ACMOD_NAMES[acmod]);
+        info("lfeon: " + ((payload.getBits(1) == 1) ? "on" : "off"));
+        int bsid = payload.getBits(5);
+        info("bsid: " + bsid);
+        if (bsid <= 10 || bsid > 16) {
+            warn("bsid is not E-AC3: " + bsid);
+        }
+        info("dialnorm: " + payload.getBits(5));
+        pop();
+        debug("E-AC3 sync frame end");
+    }
+}
@@ -5,7 +5,7 @@ package org.foraci.dolby.anc;
  */
 public class AncChecksum
 {
-    private byte sum = 0;
+    private int sum = 0; // only the low 9 bits are the checksum, so the carry out of bit 8 is dropped
 
     public AncChecksum()
     {
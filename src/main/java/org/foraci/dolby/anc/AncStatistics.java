@@ -0,0 +1,107 @@
+package org.foraci.dolby.anc;
+
+/**
+ * Counts the ANC packets of a track and the words that failed their parity or checksum checks,
+ * so that a damaged track is reported once rather than a line per word
+ */
+public class AncStatistics
+{
+    private long packets = 0;
+    private long parityErrors = 0;
+    private long complementErrors = 0;
+    private long checksumErrors = 0;
+    private long firstErrorPosition = -1;
+
+    public void addPacket()
+    {
+        packets++;
+    }
+
+    /**
+     * Counts a word whose parity bit (b8) is not the even parity of its data bits
+     */
+    public void addParityError(long position)
+    {
+        parityErrors++;
+        error(position);
+    }
+
+    /**
+     * Counts a word whose b9 is not the complement of b8
+     */
+    public void addComplementError(long position)
+    {
+        complementErrors++;
+        error(position);
+    }
+
+    public void addChecksumError(long position)
+    {
+        checksumErrors++;
+        error(position);
+    }
+
+    private void error(long position)
+    {
+        if (firstErrorPosition == -1) {
+            firstErrorPosition = position;
+        }
+    }
+
+    /**
+     * Adds the counts of another track (or of part of this one)
+     */
+    public void add(AncStatistics other)
+    {
+        packets += other.packets;
+        parityErrors += other.parityErrors;
+        complementErrors += other.complementErrors;
+        checksumErrors += other.checksumErrors;
+        if (firstErrorPosition == -1) {
+            firstErrorPosition = other.firstErrorPosition;
+        }
+    }
+
+    public long getPackets()
+    {
+        return packets;
+    }
+
+    public long getParityErrors()
+    {
+        return parityErrors;
+    }
+
+    public long getComplementErrors()
+    {
+        return complementErrors;
+    }
+
+    public long getChecksumErrors()
+    {
+        return checksumErrors;
+    }
+
+    /**
+     * @return the position of the first word that failed a check, or -1 if none did
+     */
+    public long getFirstErrorPosition()
+    {
+        return firstErrorPosition;
+    }
+
+    public boolean hasErrors()
+    {
+        return firstErrorPosition != -1;
+    }
+
+    public String toString()
+    {
+        String s = packets + " anc packets, " + parityErrors + " parity errors, " + complementErrors
+                + " parity complement errors, " + checksumErrors + " checksum errors";
+        if (firstErrorPosition != -1) {
+            s += " (first at " + Long.toHexString(firstErrorPosition) + ")";
+        }
+        return s;
+    }
+}
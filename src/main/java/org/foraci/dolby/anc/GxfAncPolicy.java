@@ -0,0 +1,165 @@
+package org.foraci.dolby.anc;
+
+import org.foraci.anc.anc.AncTrackReader;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The ways vendors fill in the parity bytes and checksum word of the ANC packets in a GXF ANC track, detected
+ * once per track from its first packets. Each policy has its own reader, so the per-word loop has no policy
+ * branches. Tracks are opened through {@link #open(InputStream, AncTrackReader)} (or
+ * {@link #openParallel(InputStream, AncTrackReader, int)}), which detects the policy and creates the reader for it.
+ */
+public class GxfAncPolicy
+{
+    /** an 8-bit checksum (b8 of the checksum word is its parity, not bit 8 of the sum), with parity bytes (as written by Grass Valley) */
+    public static final int CHECKSUM_8BIT = 0;
+    /** the 9-bit checksum of SMPTE 291M, with parity bytes */
+    public static final int CHECKSUM_9BIT = 1;
+    /** an 8-bit checksum, with parity bytes left zero (so not checked) */
+    public static final int CHECKSUM_8BIT_NO_PARITY = 2;
+
+    private static final String[] NAMES = { "8-bit checksum", "9-bit checksum", "8-bit checksum, no parity" };
+
+    /** the number of packets looked at to detect the policy */
+    public static final int DETECT_PACKETS = 16;
+    /** the most bytes looked at to detect the policy (enough for the largest packets) */
+    public static final int DETECT_LENGTH = DETECT_PACKETS * (6 + 256 * 2 + 2);
+
+    public static String getName(int policy)
+    {
+        return NAMES[policy];
+    }
+
+    /**
+     * Detects the policy of a track from its first packets and creates the reader specialized for it
+     * @param in the track, positioned at the start of a packet (read through a buffer if it does not support
+     * mark/reset, counting the positions of the words read from the position of the context at this call)
+     * @param context the reader of the track
+     */
+    public static Smpte291GxfInputStream open(InputStream in, AncTrackReader context) throws IOException
+    {
+        in = markable(in, context);
+        return createInputStream(in, context, detect(in));
+    }
+
+    /**
+     * Detects the policy of a track from its first packets and creates a decoder for it that checks and decodes
+     * the packets on worker threads
+     * @param in the track, positioned at the start of a packet (read through a buffer if it does not support
+     * mark/reset, counting the positions of the packets read from the position of the context at this call)
+     * @param context the reader of the track
+     * @param threads the number of worker threads
+     */
+    public static ParallelAncPacketDecoder openParallel(InputStream in, AncTrackReader context, int threads)
+            throws IOException
+    {
+        in = markable(in, context);
+        return new ParallelAncPacketDecoder(in, context, detect(in), threads, ParallelAncPacketDecoder.DEFAULT_BATCH_SIZE);
+    }
+
+    private static InputStream markable(InputStream in, AncTrackReader context)
+    {
+        if (in.markSupported()) {
+            return in;
+        }
+        return new TrackPositionInputStream(new BufferedInputStream(in, DETECT_LENGTH), context.getPosition());
+    }
+
+    /**
+     * @return the position in the track of the next byte read from <code>in</code>, counted by the stream if
+     * {@link #markable(InputStream, AncTrackReader)} placed a buffer over the track
+     */
+    static long getPosition(InputStream in, AncTrackReader context)
+    {
+        return (in instanceof TrackPositionInputStream) ? ((TrackPositionInputStream) in).getPosition()
+                : context.getPosition();
+    }
+
+    /**
+     * Creates the reader specialized for a policy
+     */
+    static Smpte291GxfInputStream createInputStream(InputStream in, AncTrackReader context, int policy)
+    {
+        switch (policy) {
+            case CHECKSUM_9BIT:
+                return new Smpte291GxfInputStream.NineBitChecksum(in, context);
+            case CHECKSUM_8BIT_NO_PARITY:
+                return new Smpte291GxfInputStream.NoParity(in, context);
+            default:
+                return new Smpte291GxfInputStream(in, context);
+        }
+    }
+
+    /**
+     * Detects the policy of a track from its first packets, leaving the stream where it was
+     * @param in the track, positioned at the start of a packet (mark/reset must be supported)
+     * @return the policy, or {@link #CHECKSUM_8BIT} if no packet was found
+     */
+    public static int detect(InputStream in) throws IOException
+    {
+        byte[] data = new byte[DETECT_LENGTH];
+        in.mark(DETECT_LENGTH);
+        int length = 0;
+        try {
+            while (length < data.length) {
+                int n = in.read(data, length, data.length - length);
+                if (n == -1) {
+                    break;
+                }
+                length += n;
+            }
+        } finally {
+            in.reset();
+        }
+        return detect(data, length);
+    }
+
+    /**
+     * Detects the policy of a track from the bytes of its first packets
+     */
+    public static int detect(byte[] data, int length)
+    {
+        int packets = 0;
+        int parityBytes = 0; // packets with any parity byte set
+        int nineBit = 0; // packets whose checksum word matches the 9-bit checksum
+        int eightBit = 0;
+        AncChecksum sum = new AncChecksum();
+        int pos = 0;
+        while (packets < DETECT_PACKETS && pos + 6 <= length) {
+            int end = pos + 6 + (data[pos + 4] & 0xFF) * 2; // the checksum word
+            if (end + 2 > length) {
+                break;
+            }
+            sum.reset();
+            boolean parity = false;
+            for (int i = pos; i < end; i += 2) {
+                int p = data[i + 1] & 0xFF;
+                sum.add(Smpte291GxfInputStream.checksumWord(data[i] & 0xFF, p));
+                parity |= (p != 0);
+            }
+            int value = Smpte291GxfInputStream.checksumWord(data[end] & 0xFF, data[end + 1] & 0xFF);
+            if (value == sum.sum()) {
+                nineBit++;
+            }
+            if ((value & 0xFF) == (sum.sum() & 0xFF)) {
+                eightBit++;
+            }
+            if (parity || data[end + 1] != 0) {
+                parityBytes++;
+            }
+            packets++;
+            pos = end + 2;
+        }
+        if (packets == 0) {
+            return CHECKSUM_8BIT;
+        }
+        if (parityBytes == 0) {
+            return CHECKSUM_8BIT_NO_PARITY;
+        }
+        // an 8-bit checksum word has b8 set as the parity of its value, so it only matches the 9-bit sum half the time
+        return (nineBit > 0 && nineBit == eightBit) ? CHECKSUM_9BIT : CHECKSUM_8BIT;
+    }
+}
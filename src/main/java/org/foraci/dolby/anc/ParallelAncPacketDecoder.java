@@ -0,0 +1,318 @@
+package org.foraci.dolby.anc;
+
+import org.foraci.anc.anc.AncPacketRawUserData;
+import org.foraci.anc.anc.AncTrackReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decodes the ANC packets of a GXF ANC track on several threads. The reading thread only scans for packet
+ * boundaries (each packet is its DID, SDID and data count words, the user data words and the checksum word,
+ * every word followed by its parity byte), and batches of whole packets are checked (parity and checksum) and
+ * decoded by worker threads, following the track's {@link GxfAncPolicy}. Packets are returned in the order of the
+ * track, with their positions in the track, and bad words are counted in the {@link #getStatistics() statistics}
+ * in that order.
+ */
+public class ParallelAncPacketDecoder
+{
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    private static final int HEADER_SIZE = 6; // DID, SDID and data count, with their parity bytes
+
+    private final InputStream in;
+    private final AncTrackReader context;
+    private final ExecutorService executor;
+    private final int policy;
+    private final int batchSize;
+    private final int maxPending;
+    private final AncStatistics statistics = new AncStatistics();
+    private final ArrayDeque<Future<Batch>> pending = new ArrayDeque<Future<Batch>>();
+    private ArrayDeque<AncPacket> decoded = new ArrayDeque<AncPacket>();
+    private boolean eof = false;
+
+    /**
+     * @param in the ANC track data, positioned at the start of a packet
+     * @param context the reader of the track, whose position is taken for each packet before it is read (unless
+     * <code>in</code> is the buffer {@link GxfAncPolicy#openParallel(InputStream, AncTrackReader, int)} placed over
+     * the track, which counts the positions itself)
+     * @param policy the parity and checksum policy of the track, as detected by {@link GxfAncPolicy#openParallel(InputStream, AncTrackReader, int)}
+     * @param threads the number of worker threads
+     * @param batchSize the number of packets handed to a worker at a time
+     */
+    public ParallelAncPacketDecoder(InputStream in, AncTrackReader context, int policy, int threads, int batchSize)
+    {
+        this.in = in;
+        this.context = context;
+        this.policy = policy;
+        this.batchSize = batchSize;
+        this.maxPending = threads * 2; // keeps every worker busy while the results of the others are taken
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            private int count = 0;
+
+            public synchronized Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "anc-decoder-" + (count++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return the next packet of the track, or <code>null</code> at the end of the track
+     * @throws IOException if the track could not be read, or ends within a packet
+     */
+    public AncPacket next() throws IOException
+    {
+        while (decoded.isEmpty()) {
+            while (!eof && pending.size() < maxPending) {
+                List<AncPacket> packets = scan();
+                if (!packets.isEmpty()) {
+                    pending.add(executor.submit(new Batch(packets, policy)));
+                }
+            }
+            if (pending.isEmpty()) {
+                return null;
+            }
+            Batch batch = await(pending.remove());
+            statistics.add(batch.statistics);
+            decoded = new ArrayDeque<AncPacket>(batch.packets);
+        }
+        return decoded.remove();
+    }
+
+    /**
+     * @return the counts of the packets returned so far, and of their bad words
+     */
+    public AncStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+     * Stops the worker threads; the input is not closed
+     */
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+
+    private Batch await(Future<Batch> future) throws IOException
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Reads the bytes of the next batch of packets, using only the data count of each packet
+     */
+    private List<AncPacket> scan() throws IOException
+    {
+        List<AncPacket> batch = new ArrayList<AncPacket>(batchSize);
+        byte[] header = new byte[HEADER_SIZE];
+        while (batch.size() < batchSize) {
+            long position = GxfAncPolicy.getPosition(in, context);
+            int n = readFully(header, 0, HEADER_SIZE);
+            if (n == 0) {
+                eof = true;
+                break;
+            } else if (n < HEADER_SIZE) {
+                throw new EOFException("anc packet header cut short at " + Long.toHexString(position));
+            }
+            int dataCount = header[4] & 0xFF;
+            byte[] data = new byte[HEADER_SIZE + (dataCount + 1) * 2];
+            System.arraycopy(header, 0, data, 0, HEADER_SIZE);
+            if (readFully(data, HEADER_SIZE, data.length - HEADER_SIZE) < data.length - HEADER_SIZE) {
+                throw new EOFException("anc packet cut short at " + Long.toHexString(position));
+            }
+            batch.add(new AncPacket(position, data));
+        }
+        return batch;
+    }
+
+    private int readFully(byte[] b, int off, int len) throws IOException
+    {
+        int total = 0;
+        while (total < len) {
+            int n = in.read(b, off + total, len - total);
+            if (n == -1) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Packets decoded together by a worker, with the counts of their bad words
+     */
+    private static class Batch implements Callable<Batch>
+    {
+        private final List<AncPacket> packets;
+        private final int policy;
+        private final AncStatistics statistics = new AncStatistics();
+
+        private Batch(List<AncPacket> packets, int policy)
+        {
+            this.packets = packets;
+            this.policy = policy;
+        }
+
+        public Batch call()
+        {
+            AncChecksum checksum = new AncChecksum();
+            for (AncPacket packet : packets) {
+                packet.decode(checksum, policy, statistics);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * An ANC packet of the track, decoded on a worker thread
+     */
+    public static class AncPacket
+    {
+        private final long position;
+        private byte[] data; // the bytes of the packet, until it is decoded
+        private int did;
+        private int sdid;
+        private int[] words;
+        private int checksumValue;
+        private int checksum;
+        private boolean valid = true;
+
+        private AncPacket(long position, byte[] data)
+        {
+            this.position = position;
+            this.data = data;
+        }
+
+        private void decode(AncChecksum sum, int policy, AncStatistics statistics)
+        {
+            statistics.addPacket();
+            sum.reset();
+            int wordCount = data.length / 2;
+            if (policy == GxfAncPolicy.CHECKSUM_8BIT_NO_PARITY) {
+                for (int i = 0; i < wordCount - 1; i++) {
+                    sum.add(data[i * 2] & 0xFF);
+                }
+            } else {
+                for (int i = 0; i < wordCount - 1; i++) {
+                    int value = data[i * 2] & 0xFF;
+                    int parity = data[i * 2 + 1] & 0xFF;
+                    sum.add(Smpte291GxfInputStream.checksumWord(value, parity));
+                    if (!Smpte291GxfInputStream.isParityValid(value, parity)) {
+                        statistics.addParityError(position + i * 2);
+                        valid = false;
+                    }
+                    if (!Smpte291GxfInputStream.isParityComplemented(parity)) {
+                        statistics.addComplementError(position + i * 2);
+                        valid = false;
+                    }
+                }
+            }
+            did = data[0] & 0xFF;
+            sdid = data[2] & 0xFF;
+            words = new int[wordCount - 4];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = data[HEADER_SIZE + i * 2] & 0xFF;
+            }
+            int last = (wordCount - 1) * 2;
+            int parity = data[last + 1] & 0xFF;
+            if (policy == GxfAncPolicy.CHECKSUM_9BIT) {
+                checksumValue = Smpte291GxfInputStream.checksumWord(data[last] & 0xFF, parity);
+                checksum = sum.sum();
+            } else {
+                checksumValue = data[last] & 0xFF;
+                checksum = sum.sum() & 0xFF;
+            }
+            if (checksumValue != checksum) {
+                statistics.addChecksumError(position + last);
+                valid = false;
+            }
+            if (policy != GxfAncPolicy.CHECKSUM_8BIT_NO_PARITY && !Smpte291GxfInputStream.isParityComplemented(parity)) {
+                statistics.addComplementError(position + last);
+                valid = false;
+            }
+            data = null;
+        }
+
+        /**
+         * @return the position of the packet in the track
+         */
+        public long getPosition()
+        {
+            return position;
+        }
+
+        public int getDid()
+        {
+            return did;
+        }
+
+        public int getSdid()
+        {
+            return sdid;
+        }
+
+        public int getDataCount()
+        {
+            return words.length;
+        }
+
+        /**
+         * @return the 8-bit user data words
+         */
+        public int[] getWords()
+        {
+            return words;
+        }
+
+        public AncPacketRawUserData getUserData()
+        {
+            return new AncPacketRawUserData(words);
+        }
+
+        /**
+         * @return the checksum carried by the packet
+         */
+        public int getChecksumValue()
+        {
+            return checksumValue;
+        }
+
+        /**
+         * @return the checksum computed over the packet
+         */
+        public int getChecksum()
+        {
+            return checksum;
+        }
+
+        /**
+         * @return false if a parity bit or the checksum was wrong
+         */
+        public boolean isValid()
+        {
+            return valid;
+        }
+    }
+}
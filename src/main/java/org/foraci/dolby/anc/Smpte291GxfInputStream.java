@@ -9,7 +9,10 @@ import java.io.InputStream;
 import java.io.EOFException;
 
 /**
- * GXF implementation for <code>Smpte291InputStream</code>
+ * GXF implementation for <code>Smpte291InputStream</code>. This reader takes the 8-bit checksum written by
+ * Grass Valley; {@link GxfAncPolicy#open(java.io.InputStream, AncTrackReader)} detects the policy of a track and
+ * creates the reader for it, this one or one for other vendors' tracks. Bad parity and checksum
+ * words are counted in the {@link #getStatistics() statistics} (and only logged at debug level).
  *
  * @author jforaci
  */
@@ -17,52 +20,86 @@ public class Smpte291GxfInputStream extends Smpte291InputStream
 {
     private static final Logger log = LoggerFactory.getLogger(Smpte291GxfInputStream.class);
 
-    private AncChecksum checksum = new AncChecksum();
+    protected final AncChecksum checksum = new AncChecksum();
+    protected final AncStatistics statistics = new AncStatistics();
 
     public Smpte291GxfInputStream(InputStream in, AncTrackReader context)
     {
         super(in, context);
     }
 
+    /**
+     * @return the counts of packets and bad words read so far
+     */
+    public AncStatistics getStatistics()
+    {
+        return statistics;
+    }
+
     private void verifyAncPacketWord(int value, int parity)
     {
-        int ck = ((parity & 1) << 8) + value;
-        checksum.add(ck);
-        int count = 0;
-        int mask = 1;
-        for (int i = 0; i < 8; i++) {
-            if ((value & mask) != 0) {
-                count++;
-            }
-            mask = mask << 1;
+        checksum.add(checksumWord(value, parity));
+        if (!isParityValid(value, parity)) {
+            statistics.addParityError(getTrackPosition());
+            debugWord("bad anc packet word", value, Integer.toHexString(parity));
         }
-        if ((parity & 0x01) != (count % 2)) {
-            log.warn("bad anc packet word at "
-                    + Long.toHexString(context.getPosition()) + ": value=" + Integer.toHexString(value)
-                    + ",parity=" + Integer.toHexString(parity));
+        if (!isParityComplemented(parity)) {
+            statistics.addComplementError(getTrackPosition());
+            debugWord("bad anc packet word (parity)", value, Integer.toHexString(parity));
         }
-        if ((parity & 0x01) == (parity & 0x02)) {
-            log.warn("bad anc packet word (parity) at "
-                    + Long.toHexString(context.getPosition()) + ": value=" + Integer.toHexString(value)
-                    + ",parity=" + Integer.toHexString(parity));
+    }
+
+    /**
+     * @return the position in the track of the next byte read
+     */
+    protected long getTrackPosition()
+    {
+        return GxfAncPolicy.getPosition(in, context);
+    }
+
+    protected void debugWord(String message, int value, String parity)
+    {
+        if (log.isDebugEnabled()) {
+            log.debug(message + " at " + Long.toHexString(getTrackPosition())
+                    + ": value=" + Integer.toHexString(value) + ",parity=" + parity);
         }
     }
 
+    /**
+     * @return the 9-bit word added to the checksum for a GXF word and its parity byte
+     */
+    static int checksumWord(int value, int parity)
+    {
+        return ((parity & 1) << 8) + value;
+    }
+
+    /**
+     * @return true if the parity bit (b8) is the even parity of the 8 data bits
+     */
+    static boolean isParityValid(int value, int parity)
+    {
+        return (parity & 0x01) == (Integer.bitCount(value & 0xFF) % 2);
+    }
+
+    /**
+     * @return true if b9 is the complement of b8
+     */
+    static boolean isParityComplemented(int parity)
+    {
+        return (parity & 0x01) != ((parity >> 1) & 0x01);
+    }
+
     protected void verifyAncPacketChecksumWord(int value, int parity)
     {
-//        int checkSumValue = ((parity & 1) << 8) + value;
         int checkSumValue = value; // because GXF from Grass Valley only computes 8-bit checksum
-        int found = checksum.sum() & 0xFF;
-        if (checkSumValue != found) {
-            log.warn("bad anc packet word (checksum) at "
-                    + Long.toHexString(context.getPosition()) + ": value=" + Integer.toHexString(checkSumValue)
-                    + ", actual=" + Integer.toHexString(checksum.sum())
-                    + ",parity=" + (parity & 0x02));
+        if (checkSumValue != getChecksum()) {
+            statistics.addChecksumError(getTrackPosition());
+            debugWord("bad anc packet word (checksum)", checkSumValue,
+                    (parity & 0x02) + ", actual=" + Integer.toHexString(checksum.sum()));
         }
-        if ((parity & 0x01) == ((parity >> 1) & 0x01)) {
-            log.warn("bad anc packet word (checksum parity) at "
-                    + Long.toHexString(context.getPosition()) + ": value=" + Integer.toHexString(checkSumValue)
-                    + ",parity=" + (parity & 0x02));
+        if (!isParityComplemented(parity)) {
+            statistics.addComplementError(getTrackPosition());
+            debugWord("bad anc packet word (checksum parity)", checkSumValue, Integer.toString(parity & 0x02));
         }
     }
 
@@ -88,6 +125,7 @@ public class Smpte291GxfInputStream extends Smpte291InputStream
     public AncPacketHeader readAncPacket() throws IOException
     {
         checksum.reset();
+        statistics.addPacket();
         int did = readWord();
         int sdid = readWord();
         int dataCount = readWord();
@@ -122,4 +160,54 @@ public class Smpte291GxfInputStream extends Smpte291InputStream
         header.setChecksum(getChecksum());
         return new AncPacketRawUserData(words);
     }
+
+    /**
+     * Reads tracks with the 9-bit checksum of SMPTE 291M, whose b8 is bit 8 of the sum
+     */
+    static class NineBitChecksum extends Smpte291GxfInputStream
+    {
+        NineBitChecksum(InputStream in, AncTrackReader context)
+        {
+            super(in, context);
+        }
+
+        protected int getChecksum()
+        {
+            return checksum.sum();
+        }
+
+        protected void verifyAncPacketChecksumWord(int value, int parity)
+        {
+            super.verifyAncPacketChecksumWord(checksumWord(value, parity), parity);
+        }
+    }
+
+    /**
+     * Reads tracks whose parity bytes are left zero, so only the 8-bit checksum is checked
+     */
+    static class NoParity extends Smpte291GxfInputStream
+    {
+        NoParity(InputStream in, AncTrackReader context)
+        {
+            super(in, context);
+        }
+
+        public int readWord() throws IOException
+        {
+            int word = in.read();
+            if (word == -1 || in.read() == -1) {
+                throw new EOFException();
+            }
+            checksum.add(word);
+            return word;
+        }
+
+        protected void verifyAncPacketChecksumWord(int value, int parity)
+        {
+            if (value != getChecksum()) {
+                statistics.addChecksumError(getTrackPosition());
+                debugWord("bad anc packet word (checksum)", value, Integer.toString(parity));
+            }
+        }
+    }
 }
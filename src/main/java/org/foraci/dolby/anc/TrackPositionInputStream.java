@@ -0,0 +1,71 @@
+package org.foraci.dolby.anc;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through a buffer placed over a track that does not support mark/reset. The context of
+ * the track counts the bytes the buffer reads ahead, so the position of the track is taken from here instead.
+ */
+class TrackPositionInputStream extends FilterInputStream
+{
+    private long position;
+    private long markPosition;
+
+    /**
+     * @param in the buffer over the track
+     * @param position the position of the track at the start of the buffer
+     */
+    TrackPositionInputStream(InputStream in, long position)
+    {
+        super(in);
+        this.position = position;
+        this.markPosition = position;
+    }
+
+    /**
+     * @return the position in the track of the next byte read
+     */
+    long getPosition()
+    {
+        return position;
+    }
+
+    public int read() throws IOException
+    {
+        int b = in.read();
+        if (b != -1) {
+            position++;
+        }
+        return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    public long skip(long n) throws IOException
+    {
+        long skipped = in.skip(n);
+        position += skipped;
+        return skipped;
+    }
+
+    public synchronized void mark(int readlimit)
+    {
+        in.mark(readlimit);
+        markPosition = position;
+    }
+
+    public synchronized void reset() throws IOException
+    {
+        in.reset();
+        position = markPosition;
+    }
+}
@@ -0,0 +1,128 @@
+package org.foraci.dolby.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * Identifies the content of an input file without reading all of it: its path, size and modification time,
+ * plus a hash of a fixed number of blocks sampled evenly across the file (always including the first and last).
+ */
+public class FileIdentity
+{
+    public static final int SAMPLE_COUNT = 16;
+    public static final int SAMPLE_SIZE = 64 * 1024;
+
+    private final String path;
+    private final long size;
+    private final long lastModified;
+    private final long hash;
+
+    public FileIdentity(String path, long size, long lastModified, long hash)
+    {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.hash = hash;
+    }
+
+    public static FileIdentity of(File file) throws IOException
+    {
+        long size = file.length();
+        return new FileIdentity(file.getCanonicalPath(), size, file.lastModified(), sampledHash(file, size));
+    }
+
+    /**
+     * Hashes the blocks sampled from the first <code>length</code> bytes of the file, so a file that has grown can
+     * be checked against the identity taken before it grew
+     * @param file the file
+     * @param length the length of the file to sample
+     * @return the hash
+     * @throws IOException if the file could not be read
+     */
+    public static long sampledHash(File file, long length) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        byte[] block = new byte[SAMPLE_SIZE];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (length <= (long) SAMPLE_COUNT * SAMPLE_SIZE) {
+                for (long pos = 0; pos < length; pos += SAMPLE_SIZE) {
+                    int n = (int) Math.min(SAMPLE_SIZE, length - pos);
+                    raf.seek(pos);
+                    raf.readFully(block, 0, n);
+                    crc.update(block, 0, n);
+                }
+            } else {
+                for (int i = 0; i < SAMPLE_COUNT; i++) {
+                    raf.seek((length - SAMPLE_SIZE) * i / (SAMPLE_COUNT - 1));
+                    raf.readFully(block);
+                    crc.update(block);
+                }
+            }
+        } finally {
+            raf.close();
+        }
+        return (crc.getValue() << 32) ^ length;
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+    public long getHash()
+    {
+        return hash;
+    }
+
+    /**
+     * @return true if the current identity of the file is the same as this one
+     */
+    public boolean isUnchanged(FileIdentity current)
+    {
+        return path.equals(current.path) && size == current.size && lastModified == current.lastModified
+                && hash == current.hash;
+    }
+
+    /**
+     * @return true if the file has only had data appended since this identity was taken (as far as the sampled
+     * blocks of the old length show)
+     * @throws IOException if the file could not be read
+     */
+    public boolean isPrefixOf(File file, FileIdentity current) throws IOException
+    {
+        return path.equals(current.path) && current.size > size && sampledHash(file, size) == hash;
+    }
+
+    public void write(DataOutput out) throws IOException
+    {
+        out.writeUTF(path);
+        out.writeLong(size);
+        out.writeLong(lastModified);
+        out.writeLong(hash);
+    }
+
+    public static FileIdentity read(DataInput in) throws IOException
+    {
+        return new FileIdentity(in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+    }
+
+    public String toString()
+    {
+        return path + " (" + size + " bytes)";
+    }
+}
@@ -0,0 +1,303 @@
+package org.foraci.dolby.cache;
+
+import org.foraci.dolby.FrameIndex;
+import org.foraci.dolby.ParseSummary;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A directory of parse results, one file per input (or pair of inputs in subframe mode), so inputs that have not
+ * changed since they were last parsed need not be read again, and inputs that have grown need only have their new
+ * tail read. The total size of the directory is bounded; the least recently used results are evicted first
+ * (the modification time of each result file is its last use).
+ */
+public class ResultCache
+{
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+    /** the inputs have not changed */
+    public static final int HIT = 0;
+    /** data has been appended to the inputs; only the tail needs to be read */
+    public static final int GROWN = 1;
+    /** there is no usable result for the inputs */
+    public static final int MISS = 2;
+
+    private static final int MAGIC = 0x44454333;
+    private static final String SUFFIX = ".result";
+
+    private final File dir;
+    private final long maxSize;
+
+    public ResultCache(File dir, long maxSize) throws IOException
+    {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("could not create cache directory " + dir);
+        }
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param files the input(s)
+     * @return the cached result for the input(s), or <code>null</code> if there is none
+     */
+    public Entry get(File... files) throws IOException
+    {
+        File file = getFile(files);
+        if (!file.isFile()) {
+            return null;
+        }
+        Entry entry;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            entry = Entry.read(in);
+        } catch (IOException e) {
+            entry = null; // unreadable or from an older version: parse again
+        } finally {
+            in.close();
+        }
+        if (entry != null) {
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return entry;
+    }
+
+    /**
+     * Compares a cached result with the input(s) as they are now, and the options they are to be read with
+     * @param offset the byte position reading starts at (in each input)
+     * @param groups the segment groups decoded (see {@link org.foraci.dolby.dolbye.FrameMetadata#parseGroups(String)})
+     * @param recover whether damaged frames are skipped rather than ending the read
+     * @return {@link #HIT}, {@link #GROWN} or {@link #MISS}
+     */
+    public static int check(Entry entry, int sampleSize, long offset, boolean bigEndian, int groups, boolean recover,
+                            File... files) throws IOException
+    {
+        if (entry == null || entry.sampleSize != sampleSize || entry.offset != offset || entry.bigEndian != bigEndian
+                || entry.groups != groups || entry.recover != recover || entry.identities.length != files.length) {
+            return MISS;
+        }
+        boolean unchanged = true;
+        for (int i = 0; i < files.length; i++) {
+            FileIdentity current = FileIdentity.of(files[i]);
+            if (entry.identities[i].isUnchanged(current)) {
+                continue;
+            }
+            unchanged = false;
+            if (!entry.identities[i].isPrefixOf(files[i], current)) {
+                return MISS;
+            }
+        }
+        return (unchanged) ? HIT : GROWN;
+    }
+
+    /**
+     * Stores the result for the input(s), replacing any previous result, then evicts results to bound the size
+     */
+    public void put(Entry entry, File... files) throws IOException
+    {
+        File file = getFile(files);
+        File temp = new File(dir, file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            entry.write(out);
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("could not replace " + file);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("could not rename " + temp + " to " + file);
+        }
+        evict(file);
+    }
+
+    private void evict(File keep)
+    {
+        File[] files = dir.listFiles(new FilenameFilter()
+        {
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxSize) {
+            return;
+        }
+        final long[] used = new long[files.length]; // read once, so the sort sees a consistent order
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            used[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                return Long.compare(used[a], used[b]);
+            }
+        });
+        for (int i = 0; i < order.length && total > maxSize; i++) {
+            File file = files[order[i]];
+            if (file.equals(keep)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private File getFile(File... files) throws IOException
+    {
+        StringBuilder key = new StringBuilder();
+        for (File file : files) {
+            key.append(file.getCanonicalPath()).append('\n');
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.toString().getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(String.format("%02x", b & 0xFF));
+            }
+            return new File(dir, name.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The result of parsing one input (or pair of inputs)
+     */
+    public static class Entry
+    {
+        private final FileIdentity[] identities;
+        private final int sampleSize;
+        private final long offset;
+        private final boolean bigEndian;
+        private final int groups;
+        private final boolean recover;
+        private final ParseSummary summary;
+        private final FrameIndex index;
+        private final long endPosition;
+
+        /**
+         * @param identities the identities of the input(s) when they were parsed
+         * @param sampleSize the sample size the input(s) were parsed with
+         * @param offset the byte position reading started at (in each input)
+         * @param bigEndian the byte order the input(s) were parsed with
+         * @param groups the segment groups decoded (the CRC counts depend on them)
+         * @param recover whether damaged frames were skipped (a read without it ends at the first one)
+         * @param summary the summary of the frames read
+         * @param index the positions of the frames read
+         * @param endPosition the byte position following the last complete frame (in each input)
+         */
+        public Entry(FileIdentity[] identities, int sampleSize, long offset, boolean bigEndian, int groups,
+                     boolean recover, ParseSummary summary, FrameIndex index, long endPosition)
+        {
+            this.identities = identities;
+            this.sampleSize = sampleSize;
+            this.offset = offset;
+            this.bigEndian = bigEndian;
+            this.groups = groups;
+            this.recover = recover;
+            this.summary = summary;
+            this.index = index;
+            this.endPosition = endPosition;
+        }
+
+        public FileIdentity[] getIdentities()
+        {
+            return identities.clone();
+        }
+
+        public int getSampleSize()
+        {
+            return sampleSize;
+        }
+
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public boolean isBigEndian()
+        {
+            return bigEndian;
+        }
+
+        public int getGroups()
+        {
+            return groups;
+        }
+
+        public boolean isRecover()
+        {
+            return recover;
+        }
+
+        public ParseSummary getSummary()
+        {
+            return summary;
+        }
+
+        public FrameIndex getIndex()
+        {
+            return index;
+        }
+
+        public long getEndPosition()
+        {
+            return endPosition;
+        }
+
+        private void write(DataOutputStream out) throws IOException
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(identities.length);
+            for (FileIdentity identity : identities) {
+                identity.write(out);
+            }
+            out.writeInt(sampleSize);
+            out.writeLong(offset);
+            out.writeBoolean(bigEndian);
+            out.writeInt(groups);
+            out.writeBoolean(recover);
+            out.writeLong(endPosition);
+            summary.write(out);
+            index.write(out);
+        }
+
+        private static Entry read(DataInputStream in) throws IOException
+        {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a cached result");
+            }
+            FileIdentity[] identities = new FileIdentity[in.readInt()];
+            for (int i = 0; i < identities.length; i++) {
+                identities[i] = FileIdentity.read(in);
+            }
+            int sampleSize = in.readInt();
+            long offset = in.readLong();
+            boolean bigEndian = in.readBoolean();
+            int groups = in.readInt();
+            boolean recover = in.readBoolean();
+            long endPosition = in.readLong();
+            ParseSummary summary = ParseSummary.read(in);
+            FrameIndex index = FrameIndex.read(in);
+            return new Entry(identities, sampleSize, offset, bigEndian, groups, recover, summary, index, endPosition);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.foraci.dolby.dolbye;
+
+/**
+ * Where the fields of the last Dolby E frame read are, as bit offsets from the first bit of the frame's sync word
+ * (so word <code>n</code> of the frame starts at bit <code>n * bitDepth</code>). Fields of segment groups that were
+ * not decoded are {@link #NONE}.
+ */
+public class FrameLayout
+{
+    public static final int NONE = -1;
+
+    /** offsets of the timecode digits from the timecode (hours tens) field, and their widths */
+    public static final int TC_HOURS_TENS = 0;
+    public static final int TC_HOURS = 2;
+    public static final int TC_MINUTES_TENS = 15;
+    public static final int TC_MINUTES = 18;
+    public static final int TC_SECONDS_TENS = 31;
+    public static final int TC_SECONDS = 34;
+    public static final int TC_DROP_FRAME = 47;
+    public static final int TC_FRAMES_TENS = 48;
+    public static final int TC_FRAMES = 50;
+
+    private long syncPosition;
+    private int bitDepth;
+    private boolean keyPresent;
+    private int key;
+    private int metadataSize;
+    private int timecode;
+    private final int[] descriptions = new int[FrameMetadata.MAX_PROGRAMS];
+    private int programs;
+    private int ac3Layout;
+    private int ac3;
+
+    /**
+     * Clears the layout before a new frame is read
+     * @param syncPosition the position of the sync word, as counted by the reader
+     * @param bitDepth the bits per word of the frame
+     */
+    public void clear(long syncPosition, int bitDepth)
+    {
+        this.syncPosition = syncPosition;
+        this.bitDepth = bitDepth;
+        this.keyPresent = false;
+        this.key = 0;
+        this.metadataSize = 0;
+        this.timecode = NONE;
+        this.programs = 0;
+        this.ac3Layout = 0;
+        this.ac3 = NONE;
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = NONE;
+        }
+    }
+
+    /**
+     * @return the position of the sync word, as counted by the reader (see <code>DolbyEReader.toInputPosition</code>)
+     */
+    public long getSyncPosition()
+    {
+        return syncPosition;
+    }
+
+    public int getBitDepth()
+    {
+        return bitDepth;
+    }
+
+    public boolean isKeyPresent()
+    {
+        return keyPresent;
+    }
+
+    /**
+     * @return the key XORed with every word after the key word
+     */
+    public int getKey()
+    {
+        return key;
+    }
+
+    public void setKey(boolean keyPresent, int key)
+    {
+        this.keyPresent = keyPresent;
+        this.key = key;
+    }
+
+    /**
+     * @return the index of the first word of the metadata segment (after the sync word, and the key if present)
+     */
+    public int getMetadataStart()
+    {
+        return keyPresent ? 2 : 1;
+    }
+
+    /**
+     * @return the index of the CRC word ending the metadata segment
+     */
+    public int getMetadataCrc()
+    {
+        return getMetadataStart() + metadataSize;
+    }
+
+    public void setMetadataSize(int metadataSize)
+    {
+        this.metadataSize = metadataSize;
+    }
+
+    /**
+     * @return the offset of the timecode (its hours tens field; see the <code>TC_</code> offsets for the others)
+     */
+    public int getTimecode()
+    {
+        return timecode;
+    }
+
+    public void setTimecode(int offset)
+    {
+        this.timecode = offset;
+    }
+
+    /**
+     * @return the offset of the program's 8-bit description character
+     */
+    public int getDescription(int program)
+    {
+        return descriptions[program];
+    }
+
+    public void setDescription(int program, int offset)
+    {
+        descriptions[program] = offset;
+    }
+
+    /**
+     * @param layout the AC3 metadata subsegment layout ({@link FrameMetadata#AC3_LAYOUT_XBSI} or
+     * {@link FrameMetadata#AC3_LAYOUT_NO_XBSI})
+     * @param offset the offset of the subsegment's first program field
+     * @param programs the number of programs in the subsegment
+     */
+    public void setAc3(int layout, int offset, int programs)
+    {
+        this.ac3Layout = layout;
+        this.ac3 = offset;
+        this.programs = programs;
+    }
+
+    /**
+     * @return the offset of an AC3 program field (e.g. {@link FrameMetadata#DIALNORM}), or {@link #NONE} if the
+     * frame had no AC3 metadata subsegment (or the field is not in its layout)
+     */
+    public int getAc3Field(int program, int field)
+    {
+        if (ac3 == NONE || program >= programs) {
+            return NONE;
+        }
+        int offset = FrameMetadata.getAc3FieldOffset(ac3Layout, program, field);
+        return (offset == NONE) ? NONE : ac3 + offset;
+    }
+
+    /**
+     * @return the number of programs of the AC3 metadata subsegment
+     */
+    public int getPrograms()
+    {
+        return programs;
+    }
+}
@@ -0,0 +1,487 @@
+package org.foraci.dolby.dolbye;
+
+/**
+ * The metadata decoded from one Dolby E frame, kept in primitive form. The reader fills in one instance
+ * in place for every frame; listeners that need to keep the values past the callback should take a {@link #copy()}.
+ * AC3 program fields are indexed by the field constants below (e.g. <code>getProgramField(p, DIALNORM)</code>).
+ */
+public class FrameMetadata
+{
+    public static final int MAX_PROGRAMS = ProgramConfig.MAX_PROGRAMS;
+    public static final int MAX_CHANNELS = ProgramConfig.MAX_CHANNELS;
+
+    public static final int DATARATE = 0;
+    public static final int BSMOD = 1;
+    public static final int ACMOD = 2;
+    public static final int CMIXLEV = 3;
+    public static final int SURMIXLEV = 4;
+    public static final int DSURMOD = 5;
+    public static final int LFEON = 6;
+    public static final int DIALNORM = 7;
+    public static final int LANGCODE = 8;
+    public static final int LANGCOD = 9;
+    public static final int AUDPRODIE = 10;
+    public static final int MIXLEVEL = 11;
+    public static final int ROOMTYP = 12;
+    public static final int COPYRIGHTB = 13;
+    public static final int ORIGBS = 14;
+    public static final int XBSI1E = 15;
+    public static final int DMIXMOD = 16;
+    public static final int LTRTCMIXLEV = 17;
+    public static final int LTRTSURMIXLEV = 18;
+    public static final int LOROCMIXLEV = 19;
+    public static final int LOROSURMIXLEV = 20;
+    public static final int XBSI2E = 21;
+    public static final int DSUREXMOD = 22;
+    public static final int DHEADPHONMOD = 23;
+    public static final int ADCONVTYP = 24;
+    public static final int XBSI2 = 25;
+    public static final int ENCINFO = 26;
+    public static final int HPFON = 27;
+    public static final int BWLPFON = 28;
+    public static final int LFELPFON = 29;
+    public static final int SUR90ON = 30;
+    public static final int SURATTON = 31;
+    public static final int RFPREMPHON = 32;
+    public static final int COMPRE = 33;
+    public static final int COMPR1 = 34;
+    public static final int DYNRNGE = 35;
+    public static final int DYNRNG1 = 36;
+    public static final int DYNRNG2 = 37;
+    public static final int DYNRNG3 = 38;
+    public static final int DYNRNG4 = 39;
+    public static final int FIELD_COUNT = 40;
+
+    public static final String[] FIELD_NAMES = {
+            "datarate", "bsmod", "acmod", "cmixlev", "surmixlev", "dsurmod", "lfeon", "dialnorm", "langcode", "langcod",
+            "audprodie", "mixlevel", "roomtyp", "copyrightb", "origbs", "xbsi1e", "dmixmod", "ltrtcmixlev", "ltrtsurmixlev",
+            "lorocmixlev", "lorosurmixlev", "xbsi2e", "dsurexmod", "dheadphonmod", "adconvtyp", "xbsi2", "encinfo",
+            "hpfon", "bwlpfon", "lfelpfon", "sur90on", "suratton", "rfpremphon", "compre", "compr1", "dynrnge",
+            "dynrng1", "dynrng2", "dynrng3", "dynrng4",
+    };
+
+    /** the metadata segment header (program config, frame rate, frame counter, timecode); always decoded */
+    public static final int GROUP_HEADER = 0x01;
+    /** the program descriptions and bandwidths */
+    public static final int GROUP_PROGRAM = 0x02;
+    /** the channel gains */
+    public static final int GROUP_CHANNEL = 0x04;
+    /** the AC3 program fields of the metadata subsegments */
+    public static final int GROUP_AC3 = 0x08;
+    /** the metadata extension subsegments (low frame rates only) */
+    public static final int GROUP_EXT = 0x10;
+    /** the peak and RMS meters */
+    public static final int GROUP_METERS = 0x20;
+    /** the CRCs of the audio segments (checking them means reading every audio word) */
+    public static final int GROUP_AUDIO_CRC = 0x40;
+    public static final int GROUP_ALL = 0x7F;
+    public static final String[] GROUP_NAMES = { "header", "program", "channel", "ac3", "ext", "meters", "audiocrc" };
+
+    /** the longest program description kept */
+    public static final int MAX_DESCRIPTION_LENGTH = 32;
+
+    /** AC3 metadata subsegment layouts, by subsegment id */
+    public static final int AC3_LAYOUT_XBSI = 1;
+    public static final int AC3_LAYOUT_NO_XBSI = 2;
+
+    /** field widths in bits, by field index, as laid out in an AC3+XBSI subsegment */
+    private static final int[] FIELD_WIDTHS = {
+            5, 3, 3, 2, 2, 2, 1, 5, 1, 8, 1, 5, 2, 1, 1,
+            1, 2, 3, 3, 3, 3, 1, 2, 2, 1, 8, 1,
+            1, 1, 1, 1, 1, 1, 1, 8, 1, 8, 8, 8, 8,
+    };
+    /** the bits between ORIGBS and HPFON in an AC3 (no XBSI) subsegment: timecod1e, timecod1, timecod2e, timecod2 */
+    public static final int NO_XBSI_TIMECODE_BITS = 30;
+
+    /** frames per second by frame rate code (zero for the reserved codes) */
+    private static final double[] FRAME_RATES = { 0, 24000.0 / 1001, 24, 25, 30000.0 / 1001, 30, 50, 60000.0 / 1001, 60 };
+
+    /** timecode value used when the timecode in the frame is marked invalid */
+    public static final int TIMECODE_INVALID = -1;
+
+    private int frame;
+    private long position;
+    private int frameCounter;
+    private int programConfigId;
+    private ProgramConfig programConfig;
+    private int frameRateCode;
+    private int timecode = TIMECODE_INVALID;
+    private boolean dropFrame;
+    private boolean ac3Metadata;
+    private int crcErrors;
+    private final int[][] programFields = new int[MAX_PROGRAMS][FIELD_COUNT];
+    private final int[] peakMeter = new int[MAX_CHANNELS];
+    private final int[] rmsMeter = new int[MAX_CHANNELS];
+    private final String[] descriptions = new String[MAX_PROGRAMS];
+    private int groups = GROUP_ALL;
+    // the undecoded AC3 subsegment, when the reader left the program fields to be decoded on first access
+    private int[] ac3Bits = new int[64];
+    private int ac3Layout = 0; // zero when there is nothing left to decode
+    private int ac3Programs;
+
+    /**
+     * Clears the per-frame state before a new frame is decoded
+     * @param frame the (zero-based) number of the frame in the input
+     * @param position the byte position of the burst preamble in the input
+     */
+    public void clear(int frame, long position)
+    {
+        this.frame = frame;
+        this.position = position;
+        this.ac3Metadata = false;
+        this.crcErrors = 0;
+    }
+
+    /**
+     * Parses a comma-separated list of group names (see {@link #GROUP_NAMES}, or <code>all</code>)
+     * @return the group flags
+     * @throws IllegalArgumentException if a name is not known
+     */
+    public static int parseGroups(String names)
+    {
+        int groups = GROUP_HEADER;
+        for (String name : names.split(",")) {
+            name = name.trim();
+            if (name.equals("all")) {
+                groups |= GROUP_ALL;
+                continue;
+            }
+            int i = 0;
+            while (i < GROUP_NAMES.length && !GROUP_NAMES[i].equals(name)) {
+                i++;
+            }
+            if (i == GROUP_NAMES.length) {
+                throw new IllegalArgumentException("unknown segment group: " + name);
+            }
+            groups |= 1 << i;
+        }
+        return groups;
+    }
+
+    /**
+     * @return the segment groups the reader decodes (the values of the other groups are left from earlier frames)
+     */
+    public int getGroups()
+    {
+        return groups;
+    }
+
+    public void setGroups(int groups)
+    {
+        this.groups = groups;
+    }
+
+    /**
+     * Hands over an AC3 metadata subsegment to be decoded into the program fields on first access
+     * @param layout {@link #AC3_LAYOUT_XBSI} or {@link #AC3_LAYOUT_NO_XBSI}
+     * @param bits the number of bits in the subsegment
+     * @return the buffer to fill with the subsegment, 32 bits per int, most significant bit first
+     */
+    public int[] startAc3Bits(int layout, int bits)
+    {
+        int words = (bits + 31) / 32;
+        if (ac3Bits.length < words) {
+            ac3Bits = new int[words];
+        }
+        ac3Layout = layout;
+        ac3Programs = getPrograms();
+        ac3Metadata = true;
+        return ac3Bits;
+    }
+
+    private void decodeAc3()
+    {
+        int layout = ac3Layout;
+        ac3Layout = 0;
+        int bit = 0;
+        for (int p = 0; p < ac3Programs; p++) {
+            for (int f = 0; f < FIELD_COUNT; f++) {
+                if (layout == AC3_LAYOUT_NO_XBSI && f == XBSI1E) {
+                    bit += NO_XBSI_TIMECODE_BITS;
+                    f = HPFON - 1; // no XBSI fields in this layout
+                    continue;
+                }
+                programFields[p][f] = bits(bit, FIELD_WIDTHS[f]);
+                bit += FIELD_WIDTHS[f];
+            }
+        }
+    }
+
+    /**
+     * @return the width in bits of a program field (e.g. {@link #DIALNORM})
+     */
+    public static int getFieldWidth(int field)
+    {
+        return FIELD_WIDTHS[field];
+    }
+
+    /**
+     * @return the offset in bits of a program field from the start of an AC3 metadata subsegment,
+     * or -1 if the layout does not carry the field
+     */
+    public static int getAc3FieldOffset(int layout, int program, int field)
+    {
+        int bit = 0;
+        for (int p = 0; p <= program; p++) {
+            for (int f = 0; f < FIELD_COUNT; f++) {
+                if (layout == AC3_LAYOUT_NO_XBSI && f == XBSI1E) {
+                    if (p == program && field >= XBSI1E && field < HPFON) {
+                        return -1;
+                    }
+                    bit += NO_XBSI_TIMECODE_BITS;
+                    f = HPFON - 1;
+                    continue;
+                }
+                if (p == program && f == field) {
+                    return bit;
+                }
+                bit += FIELD_WIDTHS[f];
+            }
+        }
+        return -1;
+    }
+
+    private int bits(int offset, int n)
+    {
+        int i = offset >>> 5;
+        int shift = offset & 31;
+        long v = ((long) ac3Bits[i] << 32) | ((i + 1 < ac3Bits.length) ? ac3Bits[i + 1] & 0xFFFFFFFFL : 0);
+        return (int) ((v << shift) >>> (64 - n));
+    }
+
+    public FrameMetadata copy()
+    {
+        if (ac3Layout != 0) {
+            decodeAc3();
+        }
+        FrameMetadata copy = new FrameMetadata();
+        copyTo(copy);
+        return copy;
+    }
+
+    /**
+     * Copies the values into another instance without allocating (once its AC3 buffer is big enough), e.g. into the
+     * slots of a ring buffer. AC3 fields not decoded yet are copied as bits and decoded on first access of the copy.
+     */
+    public void copyTo(FrameMetadata target)
+    {
+        target.frame = frame;
+        target.position = position;
+        target.frameCounter = frameCounter;
+        target.programConfigId = programConfigId;
+        target.programConfig = programConfig;
+        target.frameRateCode = frameRateCode;
+        target.timecode = timecode;
+        target.dropFrame = dropFrame;
+        target.ac3Metadata = ac3Metadata;
+        target.crcErrors = crcErrors;
+        target.groups = groups;
+        for (int p = 0; p < MAX_PROGRAMS; p++) {
+            System.arraycopy(programFields[p], 0, target.programFields[p], 0, FIELD_COUNT);
+        }
+        System.arraycopy(peakMeter, 0, target.peakMeter, 0, MAX_CHANNELS);
+        System.arraycopy(rmsMeter, 0, target.rmsMeter, 0, MAX_CHANNELS);
+        System.arraycopy(descriptions, 0, target.descriptions, 0, MAX_PROGRAMS);
+        target.ac3Layout = ac3Layout;
+        if (ac3Layout != 0) {
+            if (target.ac3Bits.length < ac3Bits.length) {
+                target.ac3Bits = new int[ac3Bits.length];
+            }
+            System.arraycopy(ac3Bits, 0, target.ac3Bits, 0, ac3Bits.length);
+            target.ac3Programs = ac3Programs;
+        }
+    }
+
+    public int getFrame()
+    {
+        return frame;
+    }
+
+    /**
+     * @return the byte position of the burst preamble, as counted by the reader (in subframe mode, counting the
+     * bytes of both inputs)
+     */
+    public long getPosition()
+    {
+        return position;
+    }
+
+    public int getFrameCounter()
+    {
+        return frameCounter;
+    }
+
+    public void setFrameCounter(int frameCounter)
+    {
+        this.frameCounter = frameCounter;
+    }
+
+    public int getProgramConfigId()
+    {
+        return programConfigId;
+    }
+
+    public ProgramConfig getProgramConfig()
+    {
+        return programConfig;
+    }
+
+    public void setProgramConfig(int programConfigId, ProgramConfig programConfig)
+    {
+        this.programConfigId = programConfigId;
+        this.programConfig = programConfig;
+    }
+
+    public int getPrograms()
+    {
+        return (programConfig == null) ? 0 : programConfig.getPrograms();
+    }
+
+    public int getChannels()
+    {
+        return (programConfig == null) ? 0 : programConfig.getChannels();
+    }
+
+    public int getFrameRateCode()
+    {
+        return frameRateCode;
+    }
+
+    public void setFrameRateCode(int frameRateCode)
+    {
+        this.frameRateCode = frameRateCode;
+    }
+
+    /**
+     * @return the video frame rate, in frames per second, or zero if the frame rate code is reserved
+     */
+    public double getFrameRate()
+    {
+        return getFrameRate(frameRateCode);
+    }
+
+    public static double getFrameRate(int frameRateCode)
+    {
+        return (frameRateCode > 0 && frameRateCode < FRAME_RATES.length) ? FRAME_RATES[frameRateCode] : 0;
+    }
+
+    /**
+     * @return the timecode packed as <code>hh &lt;&lt; 24 | mm &lt;&lt; 16 | ss &lt;&lt; 8 | ff</code>,
+     * or {@link #TIMECODE_INVALID}
+     */
+    public int getTimecode()
+    {
+        return timecode;
+    }
+
+    public void setTimecode(int hours, int minutes, int seconds, int frames)
+    {
+        this.timecode = (hours << 24) | (minutes << 16) | (seconds << 8) | frames;
+    }
+
+    public void setTimecodeInvalid()
+    {
+        this.timecode = TIMECODE_INVALID;
+    }
+
+    public boolean isDropFrame()
+    {
+        return dropFrame;
+    }
+
+    public void setDropFrame(boolean dropFrame)
+    {
+        this.dropFrame = dropFrame;
+    }
+
+    /**
+     * @return true if the frame carried an AC3 metadata subsegment (i.e. the program fields were updated)
+     */
+    public boolean hasAc3Metadata()
+    {
+        return ac3Metadata;
+    }
+
+    public void setAc3Metadata(boolean ac3Metadata)
+    {
+        this.ac3Metadata = ac3Metadata;
+    }
+
+    public int getCrcErrors()
+    {
+        return crcErrors;
+    }
+
+    public void addCrcError()
+    {
+        crcErrors++;
+    }
+
+    public int getProgramField(int program, int field)
+    {
+        if (ac3Layout != 0) {
+            decodeAc3();
+        }
+        return programFields[program][field];
+    }
+
+    public void setProgramField(int program, int field, int value)
+    {
+        ac3Layout = 0; // decoded by the reader, so anything left undecoded is older
+        programFields[program][field] = value;
+    }
+
+    /**
+     * @return the last complete description of the program (descriptions take several frames to send),
+     * or <code>null</code> if none was read yet
+     */
+    public String getDescription(int program)
+    {
+        return descriptions[program];
+    }
+
+    public void setDescription(int program, String description)
+    {
+        descriptions[program] = description;
+    }
+
+    public int getPeakMeter(int channel)
+    {
+        return peakMeter[channel];
+    }
+
+    public void setPeakMeter(int channel, int value)
+    {
+        peakMeter[channel] = value;
+    }
+
+    public int getRmsMeter(int channel)
+    {
+        return rmsMeter[channel];
+    }
+
+    public void setRmsMeter(int channel, int value)
+    {
+        rmsMeter[channel] = value;
+    }
+
+    public String getTimecodeString()
+    {
+        return formatTimecode(timecode);
+    }
+
+    public static String formatTimecode(int timecode)
+    {
+        if (timecode == TIMECODE_INVALID) {
+            return "[Marked invalid]";
+        }
+        return pad((timecode >> 24) & 0xFF) + ":" + pad((timecode >> 16) & 0xFF) + ":"
+                + pad((timecode >> 8) & 0xFF) + "." + pad(timecode & 0xFF);
+    }
+
+    private static String pad(int i)
+    {
+        if (i < 10) return "0" + i;
+        return Integer.toString(i);
+    }
+}
@@ -1,37 +1,42 @@
 package org.foraci.dolby.dolbye;
 
 /**
- * Represents the audio program configuration found in AC3 metadata
+ * Represents the audio program configuration found in AC3 metadata. Each of the legal configurations
+ * also carries its precomputed layout: the channels of each program, and the split of the channels between
+ * the two halves of the audio segments.
  *
  * @author Joe Foraci
  */
 public class ProgramConfig
 {
+    public static final int MAX_CHANNELS = 8;
+    public static final int MAX_PROGRAMS = 8;
+
     private static final ProgramConfig[] configs = {
-            new ProgramConfig(8, 2),
-            new ProgramConfig(8, 3),
-            new ProgramConfig(8, 2),
-            new ProgramConfig(8, 3),
-            new ProgramConfig(8, 4),
-            new ProgramConfig(8, 5),
-            new ProgramConfig(8, 4),
-            new ProgramConfig(8, 5),
-            new ProgramConfig(8, 6),
-            new ProgramConfig(8, 7),
-            new ProgramConfig(8, 8),
-            new ProgramConfig(6, 1),
-            new ProgramConfig(6, 2),
-            new ProgramConfig(6, 3),
-            new ProgramConfig(6, 3),
-            new ProgramConfig(6, 4),
-            new ProgramConfig(6, 5),
-            new ProgramConfig(6, 6),
-            new ProgramConfig(4, 1),
-            new ProgramConfig(4, 2),
-            new ProgramConfig(4, 3),
-            new ProgramConfig(4, 4),
-            new ProgramConfig(8, 1),
-            new ProgramConfig(8, 1),
+            new ProgramConfig(0, "5.1+2", 6, 2),
+            new ProgramConfig(1, "5.1+1+1", 6, 1, 1),
+            new ProgramConfig(2, "4+4", 4, 4),
+            new ProgramConfig(3, "4+2+2", 4, 2, 2),
+            new ProgramConfig(4, "4+2+1+1", 4, 2, 1, 1),
+            new ProgramConfig(5, "4+1+1+1+1", 4, 1, 1, 1, 1),
+            new ProgramConfig(6, "2+2+2+2", 2, 2, 2, 2),
+            new ProgramConfig(7, "2+2+2+1+1", 2, 2, 2, 1, 1),
+            new ProgramConfig(8, "2+2+1+1+1+1", 2, 2, 1, 1, 1, 1),
+            new ProgramConfig(9, "2+1+1+1+1+1+1", 2, 1, 1, 1, 1, 1, 1),
+            new ProgramConfig(10, "1+1+1+1+1+1+1+1", 1, 1, 1, 1, 1, 1, 1, 1),
+            new ProgramConfig(11, "5.1", 6),
+            new ProgramConfig(12, "4+2", 4, 2),
+            new ProgramConfig(13, "4+1+1", 4, 1, 1),
+            new ProgramConfig(14, "2+2+2", 2, 2, 2),
+            new ProgramConfig(15, "2+2+1+1", 2, 2, 1, 1),
+            new ProgramConfig(16, "2+1+1+1+1", 2, 1, 1, 1, 1),
+            new ProgramConfig(17, "1+1+1+1+1+1", 1, 1, 1, 1, 1, 1),
+            new ProgramConfig(18, "4", 4),
+            new ProgramConfig(19, "2+2", 2, 2),
+            new ProgramConfig(20, "2+1+1", 2, 1, 1),
+            new ProgramConfig(21, "1+1+1+1", 1, 1, 1, 1),
+            new ProgramConfig(22, "7.1", 8),
+            new ProgramConfig(23, "7.1 screen", 8),
     };
 
     public static ProgramConfig valueOf(int configId)
@@ -48,13 +53,51 @@ public class ProgramConfig
         return configs[configId];
     }
 
-    private int channels;
-    private int programs;
+    private final int id;
+    private final String description;
+    private final int channels;
+    private final int programs;
+    private final int[] programChannels;
+    private final int[] programFirstChannel;
+    private final int[] channelProgram;
 
-    public ProgramConfig(int channels, int programs)
+    /**
+     * @param id the program config id carried in the metadata segment
+     * @param description the channel layout, e.g. "5.1+2"
+     * @param programChannels the number of channels of each program
+     */
+    public ProgramConfig(int id, String description, int... programChannels)
     {
+        this.id = id;
+        this.description = description;
+        this.programs = programChannels.length;
+        this.programChannels = programChannels;
+        this.programFirstChannel = new int[programs];
+        int channels = 0;
+        for (int p = 0; p < programs; p++) {
+            programFirstChannel[p] = channels;
+            channels += programChannels[p];
+        }
         this.channels = channels;
-        this.programs = programs;
+        this.channelProgram = new int[channels];
+        for (int p = 0; p < programs; p++) {
+            for (int c = 0; c < programChannels[p]; c++) {
+                channelProgram[programFirstChannel[p] + c] = p;
+            }
+        }
+    }
+
+    public int getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return the channel layout, e.g. "5.1+2"
+     */
+    public String getDescription()
+    {
+        return description;
     }
 
     public int getChannels()
@@ -67,8 +110,44 @@ public class ProgramConfig
         return programs;
     }
 
+    /**
+     * @param program the program number
+     * @return the number of channels in the program
+     */
+    public int getProgramChannels(int program)
+    {
+        return programChannels[program];
+    }
+
+    /**
+     * @param program the program number
+     * @return the first channel of the program
+     */
+    public int getProgramFirstChannel(int program)
+    {
+        return programFirstChannel[program];
+    }
+
+    /**
+     * @param channel the channel number
+     * @return the program the channel belongs to
+     */
+    public int getChannelProgram(int channel)
+    {
+        return channelProgram[channel];
+    }
+
+    /**
+     * @return the number of channels carried in the first half of each audio segment;
+     * the rest are carried in the second half
+     */
+    public int getSegmentSplit()
+    {
+        return channels / 2;
+    }
+
     public String toString()
     {
-        return "" + getPrograms() + " programs, " + getChannels() + " channels";
+        return "" + getPrograms() + " programs, " + getChannels() + " channels (" + description + ")";
     }
 }
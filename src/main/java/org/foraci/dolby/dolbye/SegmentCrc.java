@@ -0,0 +1,54 @@
+package org.foraci.dolby.dolbye;
+
+/**
+ * The CRC-16 (x^16 + x^15 + x^2 + 1) closing each Dolby E segment, run over the words of the segment (without
+ * their key). Running it over a segment and its CRC word leaves zero.
+ */
+public class SegmentCrc
+{
+    private static final int POLYNOMIAL = 0x18005;
+    // the remainder of t * x^16 for each top byte t of the CRC, so a word is taken a byte (or nibble) at a time
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int t = 0; t < 256; t++) {
+            int r = t << 16;
+            for (int bit = 23; bit >= 16; bit--) {
+                if ((r & (1 << bit)) != 0) {
+                    r ^= POLYNOMIAL << (bit - 16);
+                }
+            }
+            TABLE[t] = r;
+        }
+    }
+
+    /**
+     * @param crc the CRC of the words so far (zero before the first word of a segment)
+     * @param word the next word, right-justified
+     * @param bitDepth the bits per word (16, 20 or 24)
+     * @return the CRC including the word
+     */
+    public static long update(long crc, int word, int bitDepth)
+    {
+        int r = (int) crc;
+        int bits = bitDepth;
+        if ((bits & 7) != 0) { // the leading nibble of a 20-bit word
+            bits -= 4;
+            r = TABLE[r >>> 12] ^ ((r << 4) & 0xFFFF) ^ ((word >>> bits) & 0xF);
+        }
+        while (bits > 0) {
+            bits -= 8;
+            r = TABLE[r >>> 8] ^ ((r << 8) & 0xFFFF) ^ ((word >>> bits) & 0xFF);
+        }
+        return r;
+    }
+
+    /**
+     * @param crc the CRC of all the words of a segment before its CRC word
+     * @return the CRC word that closes the segment
+     */
+    public static int toWord(long crc, int bitDepth)
+    {
+        return (int) update(crc, 0, bitDepth);
+    }
+}
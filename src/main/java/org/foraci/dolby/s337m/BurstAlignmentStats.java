@@ -0,0 +1,284 @@
+package org.foraci.dolby.s337m;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Collects the position of each 337M burst in a stream: the guard band (gap between the end of
+ * one burst and the preamble of the next) and the burst period (preamble to preamble, which is the
+ * video frame length). Everything is kept in primitives, so memory use does not depend on the stream length.
+ * The statistics of consecutive parts of a stream read apart can be merged.
+ */
+public class BurstAlignmentStats
+{
+    /** number of histogram buckets for the guard band, in sample words; larger gaps go in the last bucket */
+    public static final int HISTOGRAM_SIZE = 1024;
+
+    private final int sampleSize;
+    private final int[] guardBandHistogram = new int[HISTOGRAM_SIZE];
+    private final RunningStats guardBand = new RunningStats();
+    private final RunningStats period = new RunningStats();
+    private long firstBurstStart = -1;
+    private long lastBurstStart = -1;
+    private long lastBurstEnd = -1;
+    private long bursts = 0;
+
+    public BurstAlignmentStats(int sampleSize)
+    {
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Records the start of a burst (i.e. the position of its preamble)
+     * @param position the byte position of the preamble in the input
+     */
+    public void burstStart(long position)
+    {
+        if (lastBurstEnd != -1) {
+            addGuardBand(position - lastBurstEnd);
+        }
+        if (lastBurstStart != -1) {
+            period.add(position - lastBurstStart);
+        } else {
+            firstBurstStart = position;
+        }
+        lastBurstStart = position;
+        bursts++;
+    }
+
+    private void addGuardBand(long gap)
+    {
+        guardBand.add(gap);
+        int bucket = (int) Math.min(gap / sampleSize, HISTOGRAM_SIZE - 1);
+        guardBandHistogram[bucket]++;
+    }
+
+    /**
+     * Records the end of a burst (i.e. the position just past its payload)
+     * @param position the byte position following the payload in the input
+     */
+    public void burstEnd(long position)
+    {
+        lastBurstEnd = position;
+    }
+
+    /**
+     * Adds the statistics of the part of the stream following the part gathered here, along with the guard band
+     * and period between the last burst here and the first burst of the next part
+     * @param offset the position in this stream of position 0 of the next part's stream
+     */
+    public void merge(BurstAlignmentStats next, long offset)
+    {
+        if (next.bursts == 0) {
+            return;
+        }
+        long start = next.firstBurstStart + offset;
+        if (lastBurstEnd != -1) {
+            addGuardBand(start - lastBurstEnd);
+        }
+        if (lastBurstStart != -1) {
+            period.add(start - lastBurstStart);
+        } else {
+            firstBurstStart = start;
+        }
+        guardBand.merge(next.guardBand);
+        period.merge(next.period);
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            guardBandHistogram[i] += next.guardBandHistogram[i];
+        }
+        lastBurstStart = next.lastBurstStart + offset;
+        lastBurstEnd = (next.lastBurstEnd != -1) ? next.lastBurstEnd + offset : -1;
+        bursts += next.bursts;
+    }
+
+    public void write(DataOutput out) throws IOException
+    {
+        out.writeInt(sampleSize);
+        out.writeLong(bursts);
+        out.writeLong(firstBurstStart);
+        out.writeLong(lastBurstStart);
+        out.writeLong(lastBurstEnd);
+        guardBand.write(out);
+        period.write(out);
+        int buckets = 0;
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            if (guardBandHistogram[i] != 0) {
+                buckets++;
+            }
+        }
+        out.writeShort(buckets);
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            if (guardBandHistogram[i] != 0) {
+                out.writeShort(i);
+                out.writeInt(guardBandHistogram[i]);
+            }
+        }
+    }
+
+    public static BurstAlignmentStats read(DataInput in) throws IOException
+    {
+        BurstAlignmentStats stats = new BurstAlignmentStats(in.readInt());
+        stats.bursts = in.readLong();
+        stats.firstBurstStart = in.readLong();
+        stats.lastBurstStart = in.readLong();
+        stats.lastBurstEnd = in.readLong();
+        stats.guardBand.read(in);
+        stats.period.read(in);
+        int buckets = in.readUnsignedShort();
+        for (int i = 0; i < buckets; i++) {
+            int bucket = in.readUnsignedShort();
+            if (bucket >= HISTOGRAM_SIZE) {
+                throw new IOException("bad guard band bucket: " + bucket);
+            }
+            stats.guardBandHistogram[bucket] = in.readInt();
+        }
+        return stats;
+    }
+
+    public int getSampleSize()
+    {
+        return sampleSize;
+    }
+
+    public long getBurstCount()
+    {
+        return bursts;
+    }
+
+    /**
+     * @return the minimum guard band in bytes, or 0 if none was seen
+     */
+    public long getGuardBandMin()
+    {
+        return (guardBand.count == 0) ? 0 : guardBand.min;
+    }
+
+    /**
+     * @return the maximum guard band in bytes, or 0 if none was seen
+     */
+    public long getGuardBandMax()
+    {
+        return (guardBand.count == 0) ? 0 : guardBand.max;
+    }
+
+    /**
+     * @return the minimum burst period in bytes, or 0 if none was seen
+     */
+    public long getPeriodMin()
+    {
+        return (period.count == 0) ? 0 : period.min;
+    }
+
+    /**
+     * @return the maximum burst period in bytes, or 0 if none was seen
+     */
+    public long getPeriodMax()
+    {
+        return (period.count == 0) ? 0 : period.max;
+    }
+
+    /**
+     * @return the standard deviation of the burst period, in bytes
+     */
+    public double getPeriodJitter()
+    {
+        return period.stddev();
+    }
+
+    /**
+     * @return a copy of the guard band histogram, indexed by the guard band size in sample words
+     */
+    public int[] getGuardBandHistogram()
+    {
+        return guardBandHistogram.clone();
+    }
+
+    public void report(PrintStream out)
+    {
+        out.println("bursts: " + bursts);
+        if (guardBand.count == 0) {
+            return;
+        }
+        out.println("guard band (bytes): min=" + guardBand.min + ", max=" + guardBand.max
+                + ", mean=" + format(guardBand.mean) + ", jitter=" + format(guardBand.stddev()));
+        if (period.count > 0) {
+            out.println("burst period (bytes): min=" + period.min + ", max=" + period.max
+                    + ", mean=" + format(period.mean) + ", jitter=" + format(period.stddev()));
+        }
+        out.println("guard band histogram (words: bursts):");
+        for (int i = 0; i < guardBandHistogram.length; i++) {
+            if (guardBandHistogram[i] != 0) {
+                out.println("\t" + ((i == HISTOGRAM_SIZE - 1) ? ">=" : "") + i + ": " + guardBandHistogram[i]);
+            }
+        }
+    }
+
+    private static String format(double d)
+    {
+        return String.format("%.2f", d);
+    }
+
+    /**
+     * Running min/max/mean/variance (Welford)
+     */
+    private static class RunningStats
+    {
+        private long count = 0;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+        private double mean = 0;
+        private double m2 = 0;
+
+        private void add(long value)
+        {
+            count++;
+            if (value < min) min = value;
+            if (value > max) max = value;
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+        }
+
+        /**
+         * Adds the values of another (Chan et al.'s pairwise update)
+         */
+        private void merge(RunningStats next)
+        {
+            if (next.count == 0) {
+                return;
+            }
+            long n = count + next.count;
+            double delta = next.mean - mean;
+            m2 += next.m2 + delta * delta * count * next.count / n;
+            mean += delta * next.count / n;
+            count = n;
+            if (next.min < min) min = next.min;
+            if (next.max > max) max = next.max;
+        }
+
+        private void write(DataOutput out) throws IOException
+        {
+            out.writeLong(count);
+            out.writeLong(min);
+            out.writeLong(max);
+            out.writeDouble(mean);
+            out.writeDouble(m2);
+        }
+
+        private void read(DataInput in) throws IOException
+        {
+            count = in.readLong();
+            min = in.readLong();
+            max = in.readLong();
+            mean = in.readDouble();
+            m2 = in.readDouble();
+        }
+
+        private double stddev()
+        {
+            return (count < 2) ? 0 : Math.sqrt(m2 / (count - 1));
+        }
+    }
+}
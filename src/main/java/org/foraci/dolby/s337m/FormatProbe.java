@@ -0,0 +1,164 @@
+package org.foraci.dolby.s337m;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Finds the sample layout of a 337M stream from a bounded prefix of its input(s) by trying each sample size
+ * (2, 3 or 4 bytes), byte order and sample alignment against the burst preamble words. The layout that finds the
+ * most preambles wins (ties go to the earliest first preamble).
+ */
+public class FormatProbe
+{
+    /** the number of bytes read from the start of each input */
+    public static final int PROBE_LENGTH = 256 * 1024;
+
+    private static final int[] SAMPLE_SIZES = { 4, 3, 2 };
+    private static final int[] PREAMBLE_W1 = { BurstInfo.PREAMBLE_16_W1, BurstInfo.PREAMBLE_20_W1, BurstInfo.PREAMBLE_24_W1 };
+    private static final int[] PREAMBLE_W2 = { BurstInfo.PREAMBLE_16_W2, BurstInfo.PREAMBLE_20_W2, BurstInfo.PREAMBLE_24_W2 };
+    private static final int[] DEPTHS = { 16, 20, 24 };
+
+    /**
+     * Probes one input, or two inputs in subframe mode
+     * @param file1 the first input
+     * @param file2 the second input, or <code>null</code>
+     * @return the layout found, or <code>null</code> if no preamble was found
+     * @throws IOException if an input could not be read
+     */
+    public static StreamFormat probe(File file1, File file2) throws IOException
+    {
+        byte[] data1 = readPrefix(file1);
+        if (file2 == null) {
+            return probe(data1, data1.length);
+        }
+        byte[] data2 = readPrefix(file2);
+        return probe(data1, data1.length, data2, data2.length);
+    }
+
+    /**
+     * Probes the data of a single input, where the preamble words are in consecutive samples
+     */
+    public static StreamFormat probe(byte[] data, int length)
+    {
+        return probe(data, length, null, 0);
+    }
+
+    /**
+     * Probes the data of two inputs, where each preamble word is in the same sample of each input
+     */
+    public static StreamFormat probe(byte[] data1, int length1, byte[] data2, int length2)
+    {
+        StreamFormat best = null;
+        for (int sampleSize : SAMPLE_SIZES) {
+            for (int endian = 0; endian < 2; endian++) {
+                boolean bigEndian = (endian == 1);
+                for (int align = 0; align < sampleSize; align++) {
+                    StreamFormat format = (data2 == null)
+                            ? probe(data1, length1, sampleSize, bigEndian, align)
+                            : probe(data1, length1, data2, length2, sampleSize, bigEndian, align);
+                    if (format != null && (best == null || format.getBursts() > best.getBursts()
+                            || (format.getBursts() == best.getBursts() && format.getOffset() < best.getOffset()))) {
+                        best = format;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private static StreamFormat probe(byte[] data, int length, int sampleSize, boolean bigEndian, int align)
+    {
+        int bursts = 0;
+        int depth = 0;
+        long offset = -1;
+        int previous = 0;
+        for (int pos = align; pos + sampleSize <= length; pos += sampleSize) {
+            int word = word(data, pos, sampleSize, bigEndian);
+            int d = match(previous, word);
+            if (d != 0) {
+                if (bursts++ == 0) {
+                    depth = d;
+                    offset = pos - sampleSize;
+                }
+            }
+            previous = word;
+        }
+        return (bursts == 0) ? null : new StreamFormat(sampleSize, bigEndian, false, depth, offset, bursts);
+    }
+
+    private static StreamFormat probe(byte[] data1, int length1, byte[] data2, int length2,
+                                      int sampleSize, boolean bigEndian, int align)
+    {
+        int bursts = 0;
+        int depth = 0;
+        long offset = -1;
+        int length = Math.min(length1, length2);
+        for (int pos = align; pos + sampleSize <= length; pos += sampleSize) {
+            int d = match(word(data1, pos, sampleSize, bigEndian), word(data2, pos, sampleSize, bigEndian));
+            if (d != 0) {
+                if (bursts++ == 0) {
+                    depth = d;
+                    offset = pos;
+                }
+            }
+        }
+        return (bursts == 0) ? null : new StreamFormat(sampleSize, bigEndian, true, depth, offset, bursts);
+    }
+
+    /**
+     * @return the bit depth of the preamble if the two words are a burst preamble, otherwise zero
+     */
+    private static int match(int w1, int w2)
+    {
+        for (int i = 0; i < PREAMBLE_W1.length; i++) {
+            if (w1 == PREAMBLE_W1[i] && w2 == PREAMBLE_W2[i]) {
+                return DEPTHS[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the sample at the position, left-justified in an int (as the reader sees it)
+     */
+    private static int word(byte[] data, int pos, int sampleSize, boolean bigEndian)
+    {
+        int i = 0;
+        if (bigEndian) {
+            for (int n = 0; n < sampleSize; n++) {
+                i = (i << 8) | (data[pos + n] & 0xFF);
+            }
+        } else {
+            for (int n = sampleSize - 1; n >= 0; n--) {
+                i = (i << 8) | (data[pos + n] & 0xFF);
+            }
+        }
+        return i << ((4 - sampleSize) * 8);
+    }
+
+    private static byte[] readPrefix(File file) throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) Math.min(PROBE_LENGTH, file.length())];
+            int len = 0;
+            while (len < data.length) {
+                int n = in.read(data, len, data.length - len);
+                if (n == -1) {
+                    break;
+                }
+                len += n;
+            }
+            if (len < data.length) {
+                byte[] copy = new byte[len];
+                System.arraycopy(data, 0, copy, 0, len);
+                return copy;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.foraci.dolby.s337m;
+
+import java.io.IOException;
+
+/**
+ * Decodes the payload of 337M bursts of a given data type. Whatever the decoder does not read
+ * of the payload is skipped by the reader afterwards.
+ */
+public interface PayloadDecoder
+{
+    /**
+     * @param info the burst info preceding the payload
+     * @param payload the payload bits
+     * @throws IOException if the payload could not be read
+     */
+    void decode(BurstInfo info, PayloadReader payload) throws IOException;
+}
@@ -0,0 +1,21 @@
+package org.foraci.dolby.s337m;
+
+import java.io.IOException;
+
+/**
+ * Reads the bits of a 337M burst payload, most significant bit first
+ */
+public interface PayloadReader
+{
+    /**
+     * @return the number of payload bits in each word (16, 20 or 24)
+     */
+    int getBitDepth();
+
+    /**
+     * @param n the number of bits to read (up to 32)
+     * @return the bits read
+     * @throws IOException if the input could not be read
+     */
+    int getBits(int n) throws IOException;
+}
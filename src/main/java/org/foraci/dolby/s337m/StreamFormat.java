@@ -0,0 +1,75 @@
+package org.foraci.dolby.s337m;
+
+/**
+ * The sample layout of a 337M stream as found by {@link FormatProbe}
+ */
+public class StreamFormat
+{
+    private final int sampleSize;
+    private final boolean bigEndian;
+    private final boolean subframeMode;
+    private final int bitDepth;
+    private final long offset;
+    private final int bursts;
+
+    public StreamFormat(int sampleSize, boolean bigEndian, boolean subframeMode, int bitDepth, long offset, int bursts)
+    {
+        this.sampleSize = sampleSize;
+        this.bigEndian = bigEndian;
+        this.subframeMode = subframeMode;
+        this.bitDepth = bitDepth;
+        this.offset = offset;
+        this.bursts = bursts;
+    }
+
+    /**
+     * @return the size of each sample word, in bytes (2, 3 or 4)
+     */
+    public int getSampleSize()
+    {
+        return sampleSize;
+    }
+
+    public boolean isBigEndian()
+    {
+        return bigEndian;
+    }
+
+    /**
+     * @return true if the two preamble words are split across two inputs (e.g. two GXF audio tracks)
+     */
+    public boolean isSubframeMode()
+    {
+        return subframeMode;
+    }
+
+    /**
+     * @return the 337M word size of the first burst (16, 20 or 24)
+     */
+    public int getBitDepth()
+    {
+        return bitDepth;
+    }
+
+    /**
+     * @return the byte offset of the first burst preamble (in each input, in subframe mode)
+     */
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * @return the number of burst preambles found with this layout in the probed data
+     */
+    public int getBursts()
+    {
+        return bursts;
+    }
+
+    public String toString()
+    {
+        return sampleSize + "-byte " + ((bigEndian) ? "big" : "little") + "-endian samples"
+                + ((subframeMode) ? " in two inputs" : "") + ", " + bitDepth + "-bit bursts, first at " + offset;
+    }
+}
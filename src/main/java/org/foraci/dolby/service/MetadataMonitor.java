@@ -0,0 +1,350 @@
+package org.foraci.dolby.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.foraci.dolby.DolbyEReader;
+import org.foraci.dolby.FrameListener;
+import org.foraci.dolby.ParserHelper;
+import org.foraci.dolby.dolbye.FrameMetadata;
+import org.foraci.dolby.util.io.StreamByteSource;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * A long-running service that reads Dolby E from one or more inputs (files, FIFOs or <code>tcp:host:port</code>
+ * sockets) and publishes the latest metadata of each over HTTP. <code>/metadata</code> returns a JSON array with
+ * one entry per input, and <code>/events</code> is a server-sent-events stream of the same entries as they change.
+ * <p>
+ * Each input is parsed on its own thread, which renders the JSON for a frame once and publishes the string through
+ * a volatile field; HTTP requests only read those strings, so they never hold up the parsers.
+ * <p>
+ * The server listens on the loopback interface unless another address is given with <code>-bind</code>.
+ */
+public class MetadataMonitor extends ParserHelper
+{
+    private static final int EXIT_BAD_ARGS = -1;
+    private static final String ARG_PORT = "-port";
+    private static final String ARG_BIND = "-bind";
+    private static final String ARG_SAMPLE_SIZE = "-sample";
+    private static final String TCP_PREFIX = "tcp:";
+    private static final int DEFAULT_PORT = 8337;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long REOPEN_DELAY = 1000; // ms
+    private static final long EVENT_POLL_INTERVAL = 40; // ms, about one frame
+    private static final long EVENT_HEARTBEAT_INTERVAL = 15000; // ms
+
+    private final List<MonitoredInput> inputs = new ArrayList<MonitoredInput>();
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private final InetAddress address;
+    private final int port;
+    private HttpServer server;
+
+    public static void main(String[] args) throws IOException
+    {
+        int port = DEFAULT_PORT;
+        InetAddress address = InetAddress.getLoopbackAddress();
+        int sampleSize = 4;
+        List<String> specs = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals(ARG_PORT) && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals(ARG_BIND) && i + 1 < args.length) {
+                address = InetAddress.getByName(args[++i]); // 0.0.0.0 for every interface
+            } else if (args[i].equals(ARG_SAMPLE_SIZE) && i + 1 < args.length) {
+                sampleSize = Integer.parseInt(args[++i]);
+            } else {
+                specs.add(args[i]);
+            }
+        }
+        if (specs.isEmpty()) {
+            System.err.println("No inputs specified; specify with: [-port port] [-bind address] [-sample size] input"
+                    + " [input...] where input is a file, FIFO or " + TCP_PREFIX + "host:port");
+            System.exit(EXIT_BAD_ARGS);
+        }
+        MetadataMonitor monitor = new MetadataMonitor(address, port);
+        for (String spec : specs) {
+            monitor.addInput(spec, sampleSize);
+        }
+        monitor.start();
+        log("monitoring " + specs.size() + " input(s) on " + address.getHostAddress() + " port " + monitor.getPort());
+    }
+
+    /**
+     * @param port the port to listen on, on the loopback interface
+     */
+    public MetadataMonitor(int port)
+    {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * @param address the address to listen on
+     * @param port the port to listen on, or 0 for any free port
+     */
+    public MetadataMonitor(InetAddress address, int port)
+    {
+        this.address = address;
+        this.port = port;
+    }
+
+    public void addInput(String spec, int sampleSize)
+    {
+        inputs.add(new MonitoredInput(spec, sampleSize));
+    }
+
+    public void start() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/metadata", new SnapshotHandler());
+        server.createContext("/events", new EventHandler());
+        server.setExecutor(Executors.newCachedThreadPool()); // event streams each hold on to a thread
+        server.start();
+        for (int i = 0; i < inputs.size(); i++) {
+            Thread thread = new Thread(inputs.get(i), "monitor-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    /**
+     * @return the port listened on
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    private String getSnapshot()
+    {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < inputs.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(inputs.get(i).getJson());
+        }
+        return sb.append(']').toString();
+    }
+
+    private class SnapshotHandler implements HttpHandler
+    {
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            byte[] body = getSnapshot().getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private class EventHandler implements HttpHandler
+    {
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            Writer out = new OutputStreamWriter(exchange.getResponseBody(), "UTF-8");
+            long[] seen = new long[inputs.size()];
+            long lastWrite = System.currentTimeMillis();
+            try {
+                while (true) {
+                    boolean wrote = false;
+                    for (int i = 0; i < inputs.size(); i++) {
+                        MonitoredInput input = inputs.get(i);
+                        long version = input.version;
+                        if (version != seen[i]) {
+                            seen[i] = version;
+                            out.write("event: metadata\ndata: " + input.getJson() + "\n\n");
+                            wrote = true;
+                        }
+                    }
+                    long now = System.currentTimeMillis();
+                    if (!wrote && now - lastWrite >= EVENT_HEARTBEAT_INTERVAL) {
+                        out.write(": heartbeat\n\n");
+                        wrote = true;
+                    }
+                    if (wrote) {
+                        out.flush();
+                        lastWrite = now;
+                    }
+                    Thread.sleep(EVENT_POLL_INTERVAL);
+                }
+            } catch (IOException e) {
+                // client went away
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * One monitored input and the last metadata published for it
+     */
+    private static class MonitoredInput implements Runnable, FrameListener
+    {
+        private final String spec;
+        private final int sampleSize;
+        private volatile String json;
+        private volatile long version = 0;
+
+        private MonitoredInput(String spec, int sampleSize)
+        {
+            this.spec = spec;
+            this.sampleSize = sampleSize;
+            setStatus("starting");
+        }
+
+        private String getJson()
+        {
+            return json;
+        }
+
+        private void setStatus(String status)
+        {
+            json = "{\"input\":" + quote(spec) + ",\"status\":" + quote(status) + "}";
+            version++;
+        }
+
+        public void frameRead(FrameMetadata metadata)
+        {
+            json = toJson(spec, metadata);
+            version++;
+        }
+
+        public void run()
+        {
+            boolean regularFile = !spec.startsWith(TCP_PREFIX) && new File(spec).isFile();
+            while (true) {
+                try {
+                    InputStream in = open();
+                    try {
+                        setStatus("reading");
+                        read(in);
+                    } finally {
+                        in.close();
+                    }
+                } catch (EOFException e) {
+                    setStatus("eof");
+                    if (regularFile) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    setStatus("error: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    setStatus("error: " + e);
+                    log(spec + ": " + e);
+                }
+                try {
+                    Thread.sleep(REOPEN_DELAY);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private InputStream open() throws IOException
+        {
+            if (spec.startsWith(TCP_PREFIX)) {
+                String address = spec.substring(TCP_PREFIX.length());
+                int colon = address.lastIndexOf(':');
+                Socket socket = new Socket(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+                return socket.getInputStream();
+            }
+            return new FileInputStream(spec);
+        }
+
+        private void read(InputStream in) throws IOException
+        {
+            DolbyEReader reader = new DolbyEReader(new StreamByteSource(in, sampleSize, BUFFER_SIZE), sampleSize, false);
+            reader.setLogLevel(LOGLEVEL_NONE);
+            reader.setBoundedMemory(); // inputs such as sockets and FIFOs may never end
+            reader.addFrameListener(this);
+            while (true) {
+                reader.probeForAESFrame();
+                reader.readFrameOrResync();
+            }
+        }
+    }
+
+    static String toJson(String input, FrameMetadata metadata)
+    {
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("{\"input\":").append(quote(input));
+        sb.append(",\"status\":\"reading\"");
+        sb.append(",\"frame\":").append(metadata.getFrame());
+        sb.append(",\"frameCounter\":").append(metadata.getFrameCounter());
+        sb.append(",\"timecode\":").append(quote(metadata.getTimecodeString()));
+        sb.append(",\"dropFrame\":").append(metadata.isDropFrame());
+        sb.append(",\"frameRateCode\":").append(metadata.getFrameRateCode());
+        sb.append(",\"programConfig\":").append(metadata.getProgramConfigId());
+        sb.append(",\"programConfigDescription\":").append(quote(String.valueOf(metadata.getProgramConfig())));
+        sb.append(",\"crcErrors\":").append(metadata.getCrcErrors());
+        sb.append(",\"programs\":[");
+        for (int p = 0; p < metadata.getPrograms(); p++) {
+            if (p > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"firstChannel\":").append(metadata.getProgramConfig().getProgramFirstChannel(p));
+            sb.append(",\"channels\":").append(metadata.getProgramConfig().getProgramChannels(p));
+            for (int f = 0; f < FrameMetadata.FIELD_COUNT; f++) {
+                sb.append(",\"").append(FrameMetadata.FIELD_NAMES[f]).append("\":").append(metadata.getProgramField(p, f));
+            }
+            sb.append('}');
+        }
+        sb.append("],\"peakMeter\":[");
+        for (int c = 0; c < metadata.getChannels(); c++) {
+            if (c > 0) {
+                sb.append(',');
+            }
+            sb.append(metadata.getPeakMeter(c));
+        }
+        sb.append("],\"rmsMeter\":[");
+        for (int c = 0; c < metadata.getChannels(); c++) {
+            if (c > 0) {
+                sb.append(',');
+            }
+            sb.append(metadata.getRmsMeter(c));
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static String quote(String s)
+    {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,339 @@
+package org.foraci.dolby.shard;
+
+import org.foraci.dolby.DamageLog;
+import org.foraci.dolby.DolbyEReader;
+import org.foraci.dolby.FrameIndex;
+import org.foraci.dolby.FrameListener;
+import org.foraci.dolby.MeterStatistics;
+import org.foraci.dolby.ParseRecorder;
+import org.foraci.dolby.ParseSummary;
+import org.foraci.dolby.dolbye.FrameMetadata;
+import org.foraci.dolby.s337m.BurstAlignmentStats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The result of reading one shard: its summary and frame index, its meter and burst alignment statistics, its
+ * anomalies (damaged regions and frame counter discontinuities) and its first and last frames. The results of
+ * consecutive shards of a file are appended in order into the result of the whole file, checking the frame counter
+ * (and gathering the guard band) across each shard boundary, so the merged result is the same as that of reading
+ * the file in one go.
+ */
+public class PartialResult
+{
+    private final ParseSummary summary;
+    private final FrameIndex index;
+    private final MeterStatistics meters;
+    private final BurstAlignmentStats bursts; // at byte positions in the input
+    private final List<Anomaly> anomalies;
+    private Edge first;
+    private Edge last;
+    private long endPosition;
+
+    /**
+     * @param sampleSize the sample size of the input, in bytes
+     */
+    public PartialResult(int sampleSize)
+    {
+        this(new ParseSummary(), new FrameIndex(), new MeterStatistics(null, 0), new BurstAlignmentStats(sampleSize),
+                new ArrayList<Anomaly>(), null, null, 0);
+    }
+
+    private PartialResult(ParseSummary summary, FrameIndex index, MeterStatistics meters, BurstAlignmentStats bursts,
+                          List<Anomaly> anomalies, Edge first, Edge last, long endPosition)
+    {
+        this.summary = summary;
+        this.index = index;
+        this.meters = meters;
+        this.bursts = bursts;
+        this.anomalies = anomalies;
+        this.first = first;
+        this.last = last;
+        this.endPosition = endPosition;
+    }
+
+    /**
+     * @param recorder the summary and frame index of the frames read from a shard (after its <code>finish()</code>)
+     * @param reader the reader of the shard, for the damaged regions and burst alignment it found
+     * @param meters the meter statistics of the frames read from the shard
+     * @param edges the frame counter discontinuities and edge frames found in the shard
+     * @return the result of the shard
+     */
+    public static PartialResult of(ParseRecorder recorder, DolbyEReader reader, MeterStatistics meters,
+                                   EdgeRecorder edges)
+    {
+        BurstAlignmentStats stats = reader.getBurstAlignmentStats();
+        BurstAlignmentStats bursts = new BurstAlignmentStats(stats.getSampleSize());
+        bursts.merge(stats, reader.toInputPosition(0));
+        List<Anomaly> anomalies = new ArrayList<Anomaly>(edges.jumps);
+        for (DamageLog.Region region : reader.getDamageLog().getRegions()) {
+            long end = (region.getEnd() == -1) ? -1 : reader.toInputPosition(region.getEnd());
+            anomalies.add(new Anomaly(region.getAfterFrame(), reader.toInputPosition(region.getStart()), "damaged to "
+                    + ((end == -1) ? "EOF" : Long.toString(end)) + " (" + region.getErrors()
+                    + " error(s), first: " + region.getReason() + ")"));
+        }
+        sort(anomalies);
+        return new PartialResult(recorder.getSummary(), recorder.getIndex(), meters, bursts, anomalies, edges.first,
+                edges.last, recorder.getEndPosition());
+    }
+
+    /**
+     * Appends the result of the shard following the shard(s) whose result this is
+     */
+    public void append(PartialResult next)
+    {
+        long frames = summary.getFrames();
+        if (last != null && next.first != null) {
+            Anomaly jump = last.checkFollowedBy(next.first, frames);
+            if (jump != null) {
+                anomalies.add(jump);
+            }
+        }
+        for (Anomaly anomaly : next.anomalies) {
+            anomalies.add(new Anomaly(anomaly.frame + frames, anomaly.position, anomaly.description));
+        }
+        sort(anomalies);
+        summary.merge(next.summary);
+        index.append(next.index);
+        meters.merge(next.meters);
+        bursts.merge(next.bursts, 0);
+        if (next.first != null) {
+            if (first == null) {
+                first = next.first;
+            }
+            last = next.last;
+            endPosition = next.endPosition;
+        }
+    }
+
+    private static void sort(List<Anomaly> anomalies)
+    {
+        Collections.sort(anomalies, new Comparator<Anomaly>()
+        {
+            public int compare(Anomaly a, Anomaly b)
+            {
+                return Long.compare(a.position, b.position);
+            }
+        });
+    }
+
+    public ParseSummary getSummary()
+    {
+        return summary;
+    }
+
+    public FrameIndex getIndex()
+    {
+        return index;
+    }
+
+    public List<Anomaly> getAnomalies()
+    {
+        return Collections.unmodifiableList(anomalies);
+    }
+
+    /**
+     * @return the byte position following the last complete frame
+     */
+    public long getEndPosition()
+    {
+        return endPosition;
+    }
+
+    public MeterStatistics getMeters()
+    {
+        return meters;
+    }
+
+    public BurstAlignmentStats getBurstAlignmentStats()
+    {
+        return bursts;
+    }
+
+    /**
+     * @param guardBand whether to report the burst alignment
+     * @param meters whether to report the meter statistics
+     */
+    public void report(PrintStream out, boolean guardBand, boolean meters)
+    {
+        summary.report(out);
+        out.println("anomalies: " + anomalies.size());
+        for (Anomaly anomaly : anomalies) {
+            out.println("\t" + anomaly);
+        }
+        if (guardBand) {
+            bursts.report(out);
+        }
+        if (meters) {
+            this.meters.report(out);
+        }
+    }
+
+    public void write(DataOutput out) throws IOException
+    {
+        summary.write(out);
+        index.write(out);
+        meters.write(out);
+        bursts.write(out);
+        out.writeInt(anomalies.size());
+        for (Anomaly anomaly : anomalies) {
+            out.writeLong(anomaly.frame);
+            out.writeLong(anomaly.position);
+            out.writeUTF(anomaly.description);
+        }
+        out.writeBoolean(first != null);
+        if (first != null) {
+            first.write(out);
+            last.write(out);
+        }
+        out.writeLong(endPosition);
+    }
+
+    public static PartialResult read(DataInput in) throws IOException
+    {
+        ParseSummary summary = ParseSummary.read(in);
+        FrameIndex index = FrameIndex.read(in);
+        MeterStatistics meters = MeterStatistics.read(in);
+        BurstAlignmentStats bursts = BurstAlignmentStats.read(in);
+        int count = in.readInt();
+        List<Anomaly> anomalies = new ArrayList<Anomaly>(count);
+        for (int i = 0; i < count; i++) {
+            anomalies.add(new Anomaly(in.readLong(), in.readLong(), in.readUTF()));
+        }
+        Edge first = null, last = null;
+        if (in.readBoolean()) {
+            first = Edge.read(in);
+            last = Edge.read(in);
+        }
+        return new PartialResult(summary, index, meters, bursts, anomalies, first, last, in.readLong());
+    }
+
+    /**
+     * Something wrong in the input, at a frame
+     */
+    public static class Anomaly
+    {
+        private final long frame;
+        private final long position;
+        private final String description;
+
+        /**
+         * @param frame the number of good frames read before the anomaly
+         * @param position the byte position of the anomaly
+         * @param description what is wrong
+         */
+        public Anomaly(long frame, long position, String description)
+        {
+            this.frame = frame;
+            this.position = position;
+            this.description = description;
+        }
+
+        public long getFrame()
+        {
+            return frame;
+        }
+
+        public long getPosition()
+        {
+            return position;
+        }
+
+        public String getDescription()
+        {
+            return description;
+        }
+
+        public String toString()
+        {
+            return "after frame " + frame + ": " + position + ": " + description;
+        }
+    }
+
+    /**
+     * The frame counter, timecode and position of a frame at the edge of a shard
+     */
+    public static class Edge
+    {
+        private final int frameCounter;
+        private final int timecode;
+        private final long position;
+
+        public Edge(FrameMetadata metadata, long position)
+        {
+            this(metadata.getFrameCounter(), metadata.getTimecode(), position);
+        }
+
+        private Edge(int frameCounter, int timecode, long position)
+        {
+            this.frameCounter = frameCounter;
+            this.timecode = timecode;
+            this.position = position;
+        }
+
+        /**
+         * @param frame the number of good frames read before the next frame
+         * @return the discontinuity between this frame and the next, or <code>null</code> if there is none
+         */
+        private Anomaly checkFollowedBy(Edge next, long frame)
+        {
+            if (next.frameCounter == ((frameCounter + 1) & 0xFFFF)) {
+                return null;
+            }
+            return new Anomaly(frame, next.position, "frame counter jumps from " + frameCounter + " ("
+                    + FrameMetadata.formatTimecode(timecode) + ") to " + next.frameCounter + " ("
+                    + FrameMetadata.formatTimecode(next.timecode) + ")");
+        }
+
+        private void write(DataOutput out) throws IOException
+        {
+            out.writeInt(frameCounter);
+            out.writeInt(timecode);
+            out.writeLong(position);
+        }
+
+        private static Edge read(DataInput in) throws IOException
+        {
+            return new Edge(in.readInt(), in.readInt(), in.readLong());
+        }
+    }
+
+    /**
+     * Records the first and last frames read from a shard, and the frame counter discontinuities in between
+     */
+    public static class EdgeRecorder implements FrameListener
+    {
+        private final DolbyEReader reader;
+        private final List<Anomaly> jumps = new ArrayList<Anomaly>();
+        private long frames = 0;
+        private Edge first;
+        private Edge last;
+
+        public EdgeRecorder(DolbyEReader reader)
+        {
+            this.reader = reader;
+        }
+
+        public void frameRead(FrameMetadata metadata)
+        {
+            Edge edge = new Edge(metadata, reader.toInputPosition(metadata.getPosition()));
+            if (last == null) {
+                first = edge;
+            } else {
+                Anomaly jump = last.checkFollowedBy(edge, frames);
+                if (jump != null) {
+                    jumps.add(jump);
+                }
+            }
+            last = edge;
+            frames++;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.foraci.dolby.shard;
+
+import org.foraci.dolby.cache.FileIdentity;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * One part of a sharded job: the bursts of an input file starting in a byte range. Ranges start at a burst
+ * preamble (or at the start of the file's 337M data), so each burst belongs to exactly one shard.
+ */
+public class Shard
+{
+    private final int number;
+    private final File file;
+    private final FileIdentity identity;
+    private final long start;
+    private final long end;
+    private final int sampleSize;
+    private final boolean bigEndian;
+
+    /**
+     * @param number the number of the shard in its job
+     * @param file the input file
+     * @param identity the identity of the file when the job was split
+     * @param start the byte position of the first burst of the shard
+     * @param end the byte position following the last burst starting in the shard (the file length for its last shard)
+     * @param sampleSize the sample size of the file
+     * @param bigEndian whether the samples of the file are big-endian
+     */
+    public Shard(int number, File file, FileIdentity identity, long start, long end, int sampleSize, boolean bigEndian)
+    {
+        this.number = number;
+        this.file = file;
+        this.identity = identity;
+        this.start = start;
+        this.end = end;
+        this.sampleSize = sampleSize;
+        this.bigEndian = bigEndian;
+    }
+
+    public int getNumber()
+    {
+        return number;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public FileIdentity getIdentity()
+    {
+        return identity;
+    }
+
+    public long getStart()
+    {
+        return start;
+    }
+
+    public long getEnd()
+    {
+        return end;
+    }
+
+    public int getSampleSize()
+    {
+        return sampleSize;
+    }
+
+    public boolean isBigEndian()
+    {
+        return bigEndian;
+    }
+
+    /**
+     * @return true if the shard ends where the other one starts, in the same file
+     */
+    public boolean isFollowedBy(Shard next)
+    {
+        return file.equals(next.file) && end == next.start;
+    }
+
+    public void write(DataOutput out) throws IOException
+    {
+        out.writeInt(number);
+        out.writeUTF(file.getPath());
+        identity.write(out);
+        out.writeLong(start);
+        out.writeLong(end);
+        out.writeInt(sampleSize);
+        out.writeBoolean(bigEndian);
+    }
+
+    public static Shard read(DataInput in) throws IOException
+    {
+        int number = in.readInt();
+        File file = new File(in.readUTF());
+        FileIdentity identity = FileIdentity.read(in);
+        long start = in.readLong();
+        long end = in.readLong();
+        int sampleSize = in.readInt();
+        boolean bigEndian = in.readBoolean();
+        return new Shard(number, file, identity, start, end, sampleSize, bigEndian);
+    }
+
+    public String toString()
+    {
+        return "shard " + number + ": " + file + " [" + start + ", " + end + ")";
+    }
+}
@@ -0,0 +1,464 @@
+package org.foraci.dolby.shard;
+
+import org.foraci.dolby.DolbyEReader;
+import org.foraci.dolby.MeterStatistics;
+import org.foraci.dolby.ParseRecorder;
+import org.foraci.dolby.ParserHelper;
+import org.foraci.dolby.ReadRange;
+import org.foraci.dolby.cache.FileIdentity;
+import org.foraci.dolby.cache.ResultCache;
+import org.foraci.dolby.dolbye.FrameMetadata;
+import org.foraci.dolby.s337m.BurstInfo;
+import org.foraci.dolby.s337m.FormatProbe;
+import org.foraci.dolby.s337m.StreamFormat;
+import org.foraci.dolby.util.io.MappedFileSource;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a scan of large inputs into shards that separate processes (or machines sharing a filesystem) can read,
+ * and merges their partial results into the report a single run would give. A job is a directory:
+ * <ul>
+ * <li><code>split</code> divides each input (a file, or the files listed in a manifest) into byte ranges starting at
+ * 337M burst preambles, writing a <code>.shard</code> file for each</li>
+ * <li><code>run</code> claims shards that have no result yet (by creating their <code>.claim</code> file, which
+ * only one process can do) and writes the <code>.part</code> result of each; any number of runs can work on a
+ * job at once</li>
+ * <li><code>merge</code> appends the results of the shards of each input in order, and reports them</li>
+ * </ul>
+ */
+public class ShardJob extends ParserHelper
+{
+    private static final int EXIT_BAD_ARGS = -1;
+    private static final int EXIT_INCOMPLETE = 1;
+    private static final String ARG_JOB = "-job";
+    private static final String ARG_IN = "-1";
+    private static final String ARG_MANIFEST = "-manifest";
+    private static final String ARG_SHARDS = "-shards";
+    private static final String ARG_SHARD_SIZE = "-shardsize";
+    private static final String ARG_SHARD = "-shard";
+    private static final String ARG_CACHE = "-cache";
+    private static final String ARG_LOG_LEVEL = "-v";
+    private static final String ARG_GUARDBAND = "-guardband";
+    private static final String ARG_METERS = "-meters";
+
+    private static final int MAGIC_SHARD = 0x44455331;
+    private static final int MAGIC_PART = 0x44455033;
+    private static final String SHARD_SUFFIX = ".shard";
+    private static final String CLAIM_SUFFIX = ".claim";
+    private static final String PART_SUFFIX = ".part";
+    private static final int BURST_HEADER_WORDS = 4; // the preamble and burst info
+    private static final int MAX_SPACING = 1024 * 1024; // bytes; well over a frame of bursts at 48 kHz
+    private static final int SPACING_TOLERANCE = 16; // the next burst may be off the spacing by this fraction of it
+
+    private final File dir;
+
+    public ShardJob(File dir)
+    {
+        this.dir = dir;
+    }
+
+    /**
+     * Splits a file into shards of about the given size, starting each at the first burst preamble from its
+     * nominal start, and writes them to the job
+     * @param file the input file
+     * @param shardSize the nominal size of each shard, in bytes
+     * @param firstNumber the number of the first shard
+     * @return the number of shards written
+     */
+    public int split(File file, long shardSize, int firstNumber) throws IOException
+    {
+        FileIdentity identity = FileIdentity.of(file);
+        StreamFormat format = FormatProbe.probe(file, null);
+        int sampleSize = (format != null) ? format.getSampleSize() : 4;
+        boolean bigEndian = (format != null) && format.isBigEndian();
+        int bitDepth = (format != null) ? format.getBitDepth() : 0;
+        long start = (format != null) ? format.getOffset() : 0;
+        long length = file.length();
+        // the spacing of the first two bursts, at which a preamble found further on must be followed by the next
+        long second = (bitDepth != 0) ? findNextBurst(file, start, sampleSize, bigEndian, bitDepth, MAX_SPACING) : -1;
+        long spacing = (second != -1) ? second - start : 0;
+        List<Long> starts = new ArrayList<Long>();
+        starts.add(start);
+        long pair = sampleSize * 2; // a burst starts on a subframe A word
+        for (long nominal = start + shardSize; nominal < length; nominal += shardSize) {
+            long aligned = nominal - (nominal - start) % pair;
+            long preamble = findPreamble(file, aligned, sampleSize, bigEndian, bitDepth, spacing,
+                    (int) Math.min(shardSize, Integer.MAX_VALUE));
+            if (preamble > starts.get(starts.size() - 1) && preamble < length) {
+                starts.add(preamble);
+            }
+        }
+        for (int i = 0; i < starts.size(); i++) {
+            long end = (i + 1 < starts.size()) ? starts.get(i + 1) : length;
+            Shard shard = new Shard(firstNumber + i, file, identity, starts.get(i), end, sampleSize, bigEndian);
+            writeShard(shard);
+            info(shard.toString());
+        }
+        return starts.size();
+    }
+
+    /**
+     * @return the position of the first burst preamble at or after the position that starts a valid burst followed by
+     * the next preamble at about the spacing (if known, that is greater than zero), or -1 if there is none within the
+     * limit. Words of audio or of a burst's payload can look like a preamble; they are passed over.
+     */
+    private static long findPreamble(File file, long position, int sampleSize, boolean bigEndian, int bitDepth,
+                                     long spacing, int limit) throws IOException
+    {
+        long end = position + limit;
+        while (position <= end) {
+            long preamble = probe(file, position, sampleSize, bigEndian, (int) (end - position));
+            if (preamble == -1 || spacing <= 0) {
+                return preamble;
+            }
+            long tolerance = spacing / SPACING_TOLERANCE;
+            long next = findNextBurst(file, preamble, sampleSize, bigEndian, bitDepth, (int) (spacing + tolerance));
+            if (next != -1 && Math.abs(next - preamble - spacing) <= tolerance) {
+                return preamble;
+            }
+            position = preamble + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the first burst preamble at or after the position, or -1 if there is none within
+     * the limit
+     */
+    private static long probe(File file, long position, int sampleSize, boolean bigEndian, int limit)
+            throws IOException
+    {
+        MappedFileSource source = new MappedFileSource(file, position, sampleSize);
+        try {
+            DolbyEReader reader = openReader(source, position, sampleSize, bigEndian);
+            reader.probeForAESFrame(limit);
+            return reader.getInputPosition();
+        } catch (IOException e) { // includes EOF
+            return -1;
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * @param preamble the position of a burst preamble
+     * @return the position of the next burst preamble, looking from the end of the burst's payload (as its burst info
+     * gives its length), or -1 if the burst info is not valid or there is no preamble within the limit of the first
+     */
+    private static long findNextBurst(File file, long preamble, int sampleSize, boolean bigEndian, int bitDepth,
+                                      int limit) throws IOException
+    {
+        long payloadEnd;
+        MappedFileSource source = new MappedFileSource(file, preamble, sampleSize);
+        try {
+            DolbyEReader reader = openReader(source, preamble, sampleSize, bigEndian);
+            reader.setLogLevel(LOGLEVEL_NONE); // the burst info of a false preamble is nonsense
+            reader.readPreamble();
+            BurstInfo info = reader.readBurstInfo();
+            payloadEnd = preamble + (BURST_HEADER_WORDS + (info.getBitLength() + bitDepth - 1) / bitDepth) * sampleSize;
+        } catch (IOException e) { // includes EOF
+            return -1;
+        } finally {
+            source.close();
+        }
+        if (payloadEnd - preamble > limit) {
+            return -1;
+        }
+        return probe(file, payloadEnd, sampleSize, bigEndian, (int) (preamble + limit - payloadEnd));
+    }
+
+    /**
+     * @param source the file, from the position
+     */
+    private static DolbyEReader openReader(MappedFileSource source, long position, int sampleSize, boolean bigEndian)
+    {
+        DolbyEReader reader = new DolbyEReader(source, sampleSize, false);
+        reader.setBigEndian(bigEndian);
+        reader.setInputOffset(position);
+        reader.setLogLevel(LOGLEVEL_WARN);
+        return reader;
+    }
+
+    /**
+     * Reads the shards of the job that have not been claimed by another run
+     * @param logLevel the log level of the readers
+     * @return the number of shards read
+     */
+    public int run(int logLevel) throws IOException
+    {
+        int count = 0;
+        for (File file : listShards()) {
+            Shard shard = readShard(file);
+            if (getPartFile(shard).exists() || !getClaimFile(shard).createNewFile()) {
+                continue; // done, or being done
+            }
+            run(shard, logLevel);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Reads a shard and writes its result
+     */
+    public void run(Shard shard, int logLevel) throws IOException
+    {
+        if (!shard.getIdentity().isUnchanged(FileIdentity.of(shard.getFile()))) {
+            throw new IOException(shard.getFile() + " has changed since the job was split");
+        }
+        log("reading " + shard);
+        long time = System.currentTimeMillis();
+        MappedFileSource source = new MappedFileSource(shard.getFile(), shard.getStart(), shard.getSampleSize());
+        DolbyEReader reader = openReader(source, shard.getStart(), shard.getSampleSize(), shard.isBigEndian());
+        reader.setLogLevel(logLevel);
+        ReadRange range = new ReadRange();
+        range.setEndByte(shard.getEnd());
+        reader.setRange(range);
+        ParseRecorder recorder = new ParseRecorder(reader);
+        PartialResult.EdgeRecorder edges = new PartialResult.EdgeRecorder(reader);
+        MeterStatistics meters = new MeterStatistics(null, 0);
+        reader.addFrameListener(recorder);
+        reader.addFrameListener(edges);
+        reader.addFrameListener(meters);
+        try {
+            while (!reader.isRangeEnded()) {
+                reader.probeForAESFrame();
+                reader.readFrameOrResync();
+            }
+        } catch (EOFException e) {
+            // the last shard of the file
+        } finally {
+            source.close();
+        }
+        recorder.finish();
+        PartialResult result = PartialResult.of(recorder, reader, meters, edges);
+        File part = getPartFile(shard);
+        File temp = new File(dir, part.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC_PART);
+            out.writeInt(shard.getNumber());
+            result.write(out);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(part)) {
+            throw new IOException("could not rename " + temp + " to " + part);
+        }
+        log("read " + shard + ": " + result.getSummary().getFrames() + " frame(s) in "
+                + (System.currentTimeMillis() - time) + " ms");
+    }
+
+    /**
+     * Merges the results of all the shards of the job, reporting each input in the order it was split
+     * @param cache the cache to store each input's result in (so it need not be read again), or <code>null</code>
+     * @param guardBand whether to report the burst alignment of each input
+     * @param meters whether to report the meter statistics of each input
+     * @return true if every shard had a result
+     */
+    public boolean merge(PrintStream out, ResultCache cache, boolean guardBand, boolean meters) throws IOException
+    {
+        boolean complete = true;
+        Shard first = null;
+        Shard previous = null;
+        PartialResult merged = null;
+        for (File file : listShards()) {
+            Shard shard = readShard(file);
+            if (previous != null && !previous.isFollowedBy(shard)) {
+                report(out, first, previous, merged, cache, guardBand, meters);
+                merged = null;
+            }
+            PartialResult result = readResult(shard);
+            if (result == null) {
+                out.println("no result for " + shard);
+                complete = false;
+                result = new PartialResult(shard.getSampleSize());
+            }
+            if (merged == null) {
+                first = shard;
+                merged = result;
+            } else {
+                merged.append(result);
+            }
+            previous = shard;
+        }
+        if (previous != null) {
+            report(out, first, previous, merged, cache, guardBand, meters);
+        }
+        return complete;
+    }
+
+    private void report(PrintStream out, Shard first, Shard last, PartialResult merged, ResultCache cache,
+                        boolean guardBand, boolean meters) throws IOException
+    {
+        out.println("file: " + last.getFile());
+        merged.report(out, guardBand, meters);
+        if (cache != null && last.getEnd() == last.getIdentity().getSize()) {
+            ResultCache.Entry entry = new ResultCache.Entry(new FileIdentity[] { last.getIdentity() },
+                    last.getSampleSize(), first.getStart(), last.isBigEndian(), FrameMetadata.GROUP_ALL, true,
+                    merged.getSummary(), merged.getIndex(), merged.getEndPosition()); // shards always resync
+            cache.put(entry, last.getFile());
+        }
+    }
+
+    /**
+     * @return the shard files of the job, in shard order
+     */
+    private File[] listShards() throws IOException
+    {
+        File[] files = dir.listFiles(new FilenameFilter()
+        {
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(SHARD_SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("not a job directory: " + dir);
+        }
+        Arrays.sort(files); // the names are zero-padded shard numbers
+        return files;
+    }
+
+    private File getShardFile(int number)
+    {
+        return new File(dir, String.format("%08d", number) + SHARD_SUFFIX);
+    }
+
+    private File getClaimFile(Shard shard)
+    {
+        return new File(dir, String.format("%08d", shard.getNumber()) + CLAIM_SUFFIX);
+    }
+
+    private File getPartFile(Shard shard)
+    {
+        return new File(dir, String.format("%08d", shard.getNumber()) + PART_SUFFIX);
+    }
+
+    private void writeShard(Shard shard) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getShardFile(shard.getNumber()))));
+        try {
+            out.writeInt(MAGIC_SHARD);
+            shard.write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private Shard readShard(File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC_SHARD) {
+                throw new IOException("not a shard: " + file);
+            }
+            return Shard.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the result of the shard, or <code>null</code> if it has not been read
+     */
+    private PartialResult readResult(Shard shard) throws IOException
+    {
+        File part = getPartFile(shard);
+        if (!part.isFile()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(part)));
+        try {
+            if (in.readInt() != MAGIC_PART || in.readInt() != shard.getNumber()) {
+                throw new IOException("not the result of " + shard + ": " + part);
+            }
+            return PartialResult.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the lines of a manifest that are not empty or comments (starting with <code>#</code>)
+     */
+    private static List<File> readManifest(File manifest) throws IOException
+    {
+        List<File> files = new ArrayList<File>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    files.add(new File(line));
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return files;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        String command = (args.length > 0) ? args[0] : null;
+        String jobArg = getArg(args, ARG_JOB);
+        if (jobArg == null || !("split".equals(command) || "run".equals(command) || "merge".equals(command))) {
+            System.err.println("Specify one of:\n"
+                    + "\tsplit -job dir (-1 filename | -manifest filename) [-shards n | -shardsize MB]\n"
+                    + "\trun -job dir [-shard n] [-v level]\n"
+                    + "\tmerge -job dir [-cache dir] [-guardband] [-meters]");
+            System.exit(EXIT_BAD_ARGS);
+        }
+        File dir = new File(jobArg);
+        ShardJob job = new ShardJob(dir);
+        if ("split".equals(command)) {
+            List<File> files = new ArrayList<File>();
+            if (findArg(args, ARG_MANIFEST)) {
+                files.addAll(readManifest(new File(getArg(args, ARG_MANIFEST))));
+            } else if (findArg(args, ARG_IN)) {
+                files.add(new File(getArg(args, ARG_IN)));
+            }
+            if (files.isEmpty()) {
+                System.err.println("No input; specify with " + ARG_IN + " or " + ARG_MANIFEST);
+                System.exit(EXIT_BAD_ARGS);
+            }
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("could not create job directory " + dir);
+            }
+            if (job.listShards().length > 0) {
+                throw new IOException("job directory already has shards: " + dir);
+            }
+            int number = 0;
+            for (File file : files) {
+                long shardSize;
+                if (findArg(args, ARG_SHARD_SIZE)) {
+                    shardSize = Long.parseLong(getArg(args, ARG_SHARD_SIZE)) * 1024 * 1024;
+                } else { // one shard per input unless asked otherwise
+                    int shards = (findArg(args, ARG_SHARDS)) ? Integer.parseInt(getArg(args, ARG_SHARDS)) : 1;
+                    shardSize = Math.max(file.length() / shards, 1);
+                }
+                number += job.split(file, shardSize, number);
+            }
+            log("split " + files.size() + " input(s) into " + number + " shard(s)");
+        } else if ("run".equals(command)) {
+            int logLevel = (findArg(args, ARG_LOG_LEVEL)) ? Integer.parseInt(getArg(args, ARG_LOG_LEVEL)) : LOGLEVEL_WARN;
+            if (findArg(args, ARG_SHARD)) { // e.g. again, after a run died holding its claim
+                job.run(job.readShard(job.getShardFile(Integer.parseInt(getArg(args, ARG_SHARD)))), logLevel);
+            } else {
+                log("read " + job.run(logLevel) + " shard(s)");
+            }
+        } else {
+            ResultCache cache = (findArg(args, ARG_CACHE))
+                    ? new ResultCache(new File(getArg(args, ARG_CACHE)), ResultCache.DEFAULT_MAX_SIZE) : null;
+            if (!job.merge(System.out, cache, findArg(args, ARG_GUARDBAND), findArg(args, ARG_METERS))) {
+                System.exit(EXIT_INCOMPLETE);
+            }
+        }
+    }
+}
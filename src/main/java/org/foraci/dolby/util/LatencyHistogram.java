@@ -0,0 +1,99 @@
+package org.foraci.dolby.util;
+
+import java.io.PrintStream;
+
+/**
+ * A histogram of latencies in ns with log-linear buckets (16 per power of two, so a value is reported to within
+ * about 6%), recorded without allocating. Not thread-safe: one thread records, others may read after it is done.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long max = 0;
+
+    public void record(long nanos)
+    {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[bucket(nanos)]++;
+        count++;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    private static int bucket(long value)
+    {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the highest value that falls in a bucket
+     */
+    private static long bucketValue(int bucket)
+    {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getMax()
+    {
+        return max;
+    }
+
+    /**
+     * @param percentile e.g. 99.9
+     * @return the latency in ns that the percentile of the values recorded are at or below (rounded up to the end of
+     * its bucket, but never more than the maximum), or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Prints the p50, p99 and p99.9 latencies (and the maximum) in us
+     */
+    public void report(PrintStream out, String what)
+    {
+        out.println(what + ": " + count + " frames, p50 " + micros(getPercentile(50)) + " us, p99 "
+                + micros(getPercentile(99)) + " us, p99.9 " + micros(getPercentile(99.9)) + " us, max "
+                + micros(max) + " us");
+    }
+
+    private static String micros(long nanos)
+    {
+        return String.format("%.1f", nanos / 1000.0);
+    }
+}
@@ -0,0 +1,93 @@
+package org.foraci.dolby.util;
+
+import org.foraci.dolby.DolbyEFrameRewriter;
+import org.foraci.dolby.DolbyEReader;
+import org.foraci.dolby.ParserHelper;
+import org.foraci.dolby.ReadRange;
+import org.foraci.dolby.s337m.FormatProbe;
+import org.foraci.dolby.s337m.StreamFormat;
+import org.foraci.dolby.util.io.StreamByteSource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Benchmark of patching a file in place. Each run copies the input to a scratch file (not timed), patches the
+ * dialnorm, description and timecode of every frame, and times the patch. The median rate is projected to a four
+ * hour file, the length the rewriter is meant to patch in seconds.
+ */
+public class RewriteBenchmark extends ParserHelper
+{
+    private static final int EXIT_BAD_ARGS = -1;
+    private static final String ARG_IN = "-1";
+    private static final String ARG_RUNS = "-runs";
+    private static final double PROJECTED_SECONDS = 4 * 60 * 60;
+
+    public static void main(String[] args) throws IOException
+    {
+        String name = getArg(args, ARG_IN);
+        if (name == null || !new File(name).isFile()) {
+            System.err.println("No file specified; specify with: -1 filename [-runs n]");
+            System.exit(EXIT_BAD_ARGS);
+        }
+        File input = new File(name);
+        int runs = (findArg(args, ARG_RUNS)) ? Integer.parseInt(getArg(args, ARG_RUNS)) : 5;
+        StreamFormat format = FormatProbe.probe(input, null);
+        if (format == null) {
+            System.err.println("No 337M bursts found in " + input);
+            System.exit(EXIT_BAD_ARGS);
+        }
+        log("detected " + format);
+        File scratch = File.createTempFile("rewrite", ".bin");
+        try {
+            long[] nanos = new long[runs];
+            int frames = 0;
+            double frameRate = 0;
+            for (int i = 0; i < runs; i++) {
+                Files.copy(input.toPath(), scratch.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                StreamByteSource in = new StreamByteSource(new FileInputStream(scratch), format.getSampleSize());
+                FileChannel channel = FileChannel.open(scratch.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    in.skipBytes(format.getOffset());
+                    DolbyEReader reader = new DolbyEReader(in, format.getSampleSize(), false);
+                    reader.setBigEndian(format.isBigEndian());
+                    reader.setInputOffset(format.getOffset());
+                    reader.setLogLevel(LOGLEVEL_WARN);
+                    DolbyEFrameRewriter rewriter = new DolbyEFrameRewriter(reader, channel, format.getSampleSize(),
+                            format.isBigEndian());
+                    rewriter.setDialnorm(-1, 31);
+                    rewriter.setDescription(-1, "benchmark");
+                    rewriter.setStartTimecode(ReadRange.parseTimecode("10:00:00:00"));
+                    long start = System.nanoTime();
+                    rewriter.run();
+                    nanos[i] = System.nanoTime() - start;
+                    frames = reader.getFrameCount();
+                    frameRate = reader.getFrameMetadata().getFrameRate();
+                } finally {
+                    channel.close();
+                    in.close();
+                }
+            }
+            Arrays.sort(nanos);
+            double median = nanos[runs / 2] / 1e9;
+            log("patched " + frames + " frames over " + runs + " run(s): median " + String.format("%.3f", median)
+                    + " s, min " + String.format("%.3f", nanos[0] / 1e9) + " s, max "
+                    + String.format("%.3f", nanos[runs - 1] / 1e9) + " s");
+            if (frames > 0 && frameRate > 0) {
+                double framesPerSecond = frames / median;
+                log("\t" + String.format("%.0f", framesPerSecond) + " frames/s, "
+                        + String.format("%.0f", framesPerSecond / frameRate) + "x real time; a 4 hour file at "
+                        + String.format("%.2f", frameRate) + " fps would take "
+                        + String.format("%.1f", PROJECTED_SECONDS * frameRate / framesPerSecond) + " s");
+            }
+        } finally {
+            scratch.delete();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.foraci.dolby.util;
+
+import org.foraci.dolby.DolbyEReader;
+import org.foraci.dolby.MetadataDelta;
+import org.foraci.dolby.MeterStatistics;
+import org.foraci.dolby.ParserHelper;
+import org.foraci.dolby.util.io.LoopingInputStream;
+import org.foraci.dolby.util.io.StreamByteSource;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Soak test for the bounded-memory mode of the reader: reads a capture over and over (as an endless input)
+ * for a given time, with recovery and the fixed-memory listeners on, and checks the heap used after a GC at each
+ * interval against the heap used after the first interval. Exits with a non-zero status if the heap grew by more
+ * than the tolerance.
+ */
+public class SoakRunner extends ParserHelper
+{
+    private static final int EXIT_BAD_ARGS = -1;
+    private static final int EXIT_HEAP_GREW = 1;
+    private static final String ARG_IN = "-1";
+    private static final String ARG_SAMPLE_SIZE = "-sample";
+    private static final String ARG_MINUTES = "-minutes";
+    private static final String ARG_INTERVAL = "-interval";
+    private static final String ARG_TOLERANCE = "-tolerance";
+    private static final int CHECK_EVERY_FRAMES = 256; // how often to look at the clock
+
+    public static void main(String[] args) throws IOException
+    {
+        String name = getArg(args, ARG_IN);
+        if (name == null) {
+            System.err.println("No file specified; specify with: -1 filename [-sample size] [-minutes m] [-interval seconds] [-tolerance MB]");
+            System.exit(EXIT_BAD_ARGS);
+        }
+        int sampleSize = (findArg(args, ARG_SAMPLE_SIZE)) ? Integer.parseInt(getArg(args, ARG_SAMPLE_SIZE)) : 4;
+        long duration = ((findArg(args, ARG_MINUTES)) ? Long.parseLong(getArg(args, ARG_MINUTES)) : 60) * 60 * 1000;
+        long interval = ((findArg(args, ARG_INTERVAL)) ? Long.parseLong(getArg(args, ARG_INTERVAL)) : 60) * 1000;
+        long tolerance = ((findArg(args, ARG_TOLERANCE)) ? Long.parseLong(getArg(args, ARG_TOLERANCE)) : 4) * 1024 * 1024;
+
+        LoopingInputStream loop = new LoopingInputStream(new File(name));
+        DolbyEReader reader = new DolbyEReader(new StreamByteSource(loop, sampleSize), sampleSize, false);
+        reader.setLogLevel(LOGLEVEL_WARN);
+        reader.setBoundedMemory();
+        reader.addFrameListener(new MeterStatistics(new PrintStream(new NullOutputStream()), 1500));
+        reader.addFrameListener(new MetadataDelta(new PrintStream(new NullOutputStream())));
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long start = System.currentTimeMillis();
+        long nextCheck = start + interval;
+        long baseline = -1;
+        long maxGrowth = 0;
+        int checks = 0;
+        while (System.currentTimeMillis() - start < duration) {
+            for (int i = 0; i < CHECK_EVERY_FRAMES; i++) {
+                reader.probeForAESFrame();
+                reader.readFrameOrResync();
+            }
+            long now = System.currentTimeMillis();
+            if (now < nextCheck) {
+                continue;
+            }
+            nextCheck = now + interval;
+            System.gc();
+            long used = memory.getHeapMemoryUsage().getUsed();
+            if (baseline == -1) {
+                baseline = used; // after warming up
+            }
+            maxGrowth = Math.max(maxGrowth, used - baseline);
+            checks++;
+            log("soak: " + ((now - start) / 1000) + " s, " + reader.getFrameCount() + " frames, " + loop.getLoops()
+                    + " loops, heap " + (used / 1024) + " KB (" + ((used - baseline) / 1024) + " KB over baseline)");
+        }
+        log("soak: " + checks + " heap checks, most growth " + (maxGrowth / 1024) + " KB, tolerance " + (tolerance / 1024) + " KB");
+        loop.close();
+        if (maxGrowth > tolerance) {
+            log("soak: FAILED, heap grew");
+            System.exit(EXIT_HEAP_GREW);
+        }
+        log("soak: passed");
+    }
+
+    private static class NullOutputStream extends OutputStream
+    {
+        public void write(int b)
+        {
+        }
+
+        public void write(byte[] b, int off, int len)
+        {
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.foraci.dolby.util;
+
+import org.foraci.dolby.DolbyEReader;
+import org.foraci.dolby.FirstFrameTimer;
+import org.foraci.dolby.ParserHelper;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Benchmark of the time from launching the reader to its first frame. Cold runs start a new JVM for each run
+ * (with a class data sharing archive, if given) and time from launching the process to the first frame; warm runs
+ * read the input again in this JVM, as the launcher does for each input after the first. The medians can be
+ * appended to a CSV file to track them over time.
+ */
+public class StartupBenchmark extends ParserHelper
+{
+    private static final int EXIT_BAD_ARGS = -1;
+    private static final String ARG_IN = "-1";
+    private static final String ARG_RUNS = "-runs";
+    private static final String ARG_CDS = "-cds";
+    private static final String ARG_RECORD = "-record";
+    private static final String AFTER_START = " ms after start";
+
+    public static void main(String[] args) throws Exception
+    {
+        String name = getArg(args, ARG_IN);
+        if (name == null) {
+            System.err.println("No file specified; specify with: -1 filename [-runs n] [-cds archive] [-record csvfile]");
+            System.exit(EXIT_BAD_ARGS);
+        }
+        int runs = (findArg(args, ARG_RUNS)) ? Integer.parseInt(getArg(args, ARG_RUNS)) : 10;
+        String archive = getArg(args, ARG_CDS);
+        String[] readerArgs = { "-1", name, "-aesprobe", "-recover", "-timing", "-v", Integer.toString(LOGLEVEL_WARN) };
+
+        long[] cold = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            cold[i] = runCold(readerArgs, archive);
+        }
+        long[] warm = new long[runs];
+        PrintStream stdout = System.out;
+        for (int i = 0; i < runs; i++) {
+            ByteArrayOutputStream captured = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(captured, true));
+            try {
+                DolbyEReader.run(readerArgs);
+            } finally {
+                System.setOut(stdout);
+            }
+            warm[i] = parseAfterStart(new BufferedReader(new StringReader(captured.toString())));
+        }
+        Arrays.sort(cold);
+        Arrays.sort(warm);
+        log("start to first frame over " + runs + " run(s)" + ((archive != null) ? ", with CDS archive " + archive : "") + ":");
+        log("\tcold (new JVM): median " + cold[runs / 2] + " ms, min " + cold[0] + " ms, max " + cold[runs - 1] + " ms");
+        log("\twarm (same JVM): median " + warm[runs / 2] + " ms, min " + warm[0] + " ms, max " + warm[runs - 1] + " ms");
+        if (findArg(args, ARG_RECORD)) {
+            File record = new File(getArg(args, ARG_RECORD));
+            boolean header = !record.exists();
+            PrintWriter out = new PrintWriter(new FileWriter(record, true));
+            try {
+                if (header) {
+                    out.println("time,java,input,runs,cds,cold_median_ms,cold_min_ms,warm_median_ms,warm_min_ms");
+                }
+                out.println(System.currentTimeMillis() + "," + System.getProperty("java.version") + "," + name + ","
+                        + runs + "," + (archive != null) + "," + cold[runs / 2] + "," + cold[0] + ","
+                        + warm[runs / 2] + "," + warm[0]);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @return the time from launching a JVM running the reader to its first frame, in ms
+     */
+    private static long runCold(String[] readerArgs, String archive) throws IOException, InterruptedException
+    {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        String[] command = (archive != null)
+                ? new String[] { java, "-XX:SharedArchiveFile=" + archive, "-Xshare:auto" } : new String[] { java };
+        command = concat(command, new String[] { "-cp", System.getProperty("java.class.path"), DolbyEReader.class.getName() });
+        command = concat(command, readerArgs);
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        long launched = System.currentTimeMillis();
+        Process process = builder.start();
+        long firstFrame = -1;
+        BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) { // read it all, so the process is not blocked on its output
+                if (firstFrame == -1 && line.startsWith(FirstFrameTimer.FIRST_FRAME_AT)) {
+                    String time = line.substring(FirstFrameTimer.FIRST_FRAME_AT.length());
+                    firstFrame = Long.parseLong(time.substring(0, time.indexOf(' ')));
+                }
+            }
+        } finally {
+            in.close();
+        }
+        int status = process.waitFor();
+        if (firstFrame == -1) {
+            throw new IOException("no frame read (exit status " + status + ")");
+        }
+        return firstFrame - launched;
+    }
+
+    /**
+     * @return the time to the first frame from the reader's timing line
+     */
+    private static long parseAfterStart(BufferedReader in) throws IOException
+    {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith(FirstFrameTimer.FIRST_FRAME_AT) && line.endsWith(AFTER_START + ")")) {
+                return Long.parseLong(line.substring(line.indexOf('(') + 1, line.length() - AFTER_START.length() - 1));
+            }
+        }
+        throw new IOException("no frame read");
+    }
+
+    private static String[] concat(String[] a, String[] b)
+    {
+        String[] both = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, both, a.length, b.length);
+        return both;
+    }
+}
@@ -0,0 +1,207 @@
+package org.foraci.dolby.util.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * An input stream over a file that keeps several large blocks of the file being read ahead of the
+ * reader with an <code>AsynchronousFileChannel</code>. Several of these streams (e.g. one per GXF track)
+ * prefetch at the same time, so the latency of each file is hidden behind the reading of the others.
+ * Skipping past the blocks already requested restarts the prefetch at the new position.
+ */
+public class AsyncPrefetchInputStream extends InputStream
+{
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    public static final int DEFAULT_DEPTH = 4;
+
+    private final AsynchronousFileChannel channel;
+    private final int blockSize;
+    private final ByteBuffer[] buffers;
+    private final long[] blockPositions;
+    private final Future<?>[] pending; // each yields the Integer count of its read
+    private int current = -1; // index of the buffer being read, or -1 before the first block
+    private ByteBuffer buffer = null;
+    private long nextBlockPosition = 0;
+    private long prefetchStart = 0;
+    private boolean eof = false;
+
+    public AsyncPrefetchInputStream(File file) throws IOException
+    {
+        this(file, DEFAULT_BLOCK_SIZE, DEFAULT_DEPTH);
+    }
+
+    /**
+     * @param file the file to read
+     * @param blockSize the size of each read
+     * @param depth the number of blocks requested ahead of the reader
+     * @throws IOException if the file could not be opened
+     */
+    public AsyncPrefetchInputStream(File file, int blockSize, int depth) throws IOException
+    {
+        this.channel = AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.blockSize = blockSize;
+        this.buffers = new ByteBuffer[depth];
+        this.blockPositions = new long[depth];
+        this.pending = new Future<?>[depth];
+        for (int i = 0; i < depth; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(blockSize);
+        }
+        prefetch();
+    }
+
+    private void prefetch()
+    {
+        prefetchStart = nextBlockPosition;
+        for (int i = 0; i < buffers.length; i++) {
+            request(i);
+        }
+        current = -1;
+        buffer = null;
+    }
+
+    private void request(int i)
+    {
+        buffers[i].clear();
+        blockPositions[i] = nextBlockPosition;
+        pending[i] = channel.read(buffers[i], nextBlockPosition);
+        nextBlockPosition += blockSize;
+    }
+
+    private int await(int i) throws IOException
+    {
+        try {
+            return (Integer) pending[i].get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Moves to the next block, handing the current one back for prefetching
+     * @return false at the end of the file
+     */
+    private boolean nextBlock() throws IOException
+    {
+        if (eof) {
+            return false;
+        }
+        if (current != -1) {
+            request(current);
+        }
+        current = (current + 1) % buffers.length;
+        ByteBuffer next = buffers[current];
+        int n = await(current);
+        while (n > 0 && next.hasRemaining()) { // a short read before the end of the file: finish the block
+            n = awaitShortRead(next);
+        }
+        next.flip();
+        buffer = next;
+        if (!buffer.hasRemaining()) {
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    private int awaitShortRead(ByteBuffer next) throws IOException
+    {
+        try {
+            return channel.read(next, blockPositions[current] + next.position()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    public int read() throws IOException
+    {
+        if ((buffer == null || !buffer.hasRemaining()) && !nextBlock()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if ((buffer == null || !buffer.hasRemaining()) && !nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    public long skip(long n) throws IOException
+    {
+        if (n <= 0 || eof) {
+            return 0;
+        }
+        if (buffer != null && n <= buffer.remaining()) {
+            buffer.position(buffer.position() + (int) n);
+            return n;
+        }
+        long start = getStreamPosition();
+        long target = start + n;
+        if (target < nextBlockPosition) {
+            // within the blocks already requested (even before the first is read): move to the one holding the target
+            while (buffer == null || target >= blockPositions[current] + buffer.limit()) {
+                if (!nextBlock()) {
+                    return Math.min(getStreamPosition(), channel.size()) - start;
+                }
+            }
+            buffer.position((int) (target - blockPositions[current]));
+            return n;
+        }
+        // past everything requested so far: drain the pending reads and restart the prefetch there
+        for (int i = 0; i < pending.length; i++) {
+            if (i != current) {
+                await(i);
+            }
+        }
+        nextBlockPosition = Math.min(target, channel.size());
+        prefetch();
+        return prefetchStart - start;
+    }
+
+    /**
+     * @return the position in the file of the next byte to be read
+     */
+    public long getStreamPosition()
+    {
+        return (buffer == null) ? prefetchStart : blockPositions[current] + buffer.position();
+    }
+
+    public int available() throws IOException
+    {
+        return (buffer == null) ? 0 : buffer.remaining();
+    }
+
+    public void close() throws IOException
+    {
+        for (int i = 0; i < pending.length; i++) {
+            if (i != current && pending[i] != null) {
+                try {
+                    await(i);
+                } catch (IOException e) {
+                    // closing anyway
+                }
+            }
+        }
+        channel.close();
+    }
+}
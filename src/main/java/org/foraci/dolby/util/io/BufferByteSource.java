@@ -0,0 +1,175 @@
+package org.foraci.dolby.util.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A source reading the samples of a <code>ByteBuffer</code> (from its position to its limit), e.g. a capture held
+ * in memory. Heap buffers are unpacked straight from their array; direct and mapped buffers a block at a time.
+ * Subclasses can move the buffer over a larger input (see {@link #map(long, int)}).
+ */
+public class BufferByteSource implements ByteSource
+{
+    private static final int BLOCK_WORDS = 4096; // words unpacked at a time from a buffer without an array
+
+    protected ByteBuffer buffer;
+    protected long base; // the source position of the start of the buffer
+    private final int sampleSize;
+    private boolean bigEndian = false;
+    private long markPosition = -1;
+    private byte[] block;
+
+    /**
+     * @param buffer the buffer, read from its position
+     */
+    public BufferByteSource(ByteBuffer buffer, int sampleSize)
+    {
+        this.buffer = buffer.slice();
+        this.base = 0;
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * For subclasses that {@link #map(long, int)} the buffer
+     */
+    protected BufferByteSource(int sampleSize)
+    {
+        this.buffer = ByteBuffer.allocate(0);
+        this.base = 0;
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Moves the buffer so it holds a position of the input
+     * @param position the source position the buffer must hold
+     * @param needed the number of bytes the buffer must hold from the position
+     * @return false if the input ends before then (this one holds the whole input, so always)
+     */
+    protected boolean map(long position, int needed) throws IOException
+    {
+        return false;
+    }
+
+    private void ensure(int needed) throws IOException
+    {
+        if (buffer.remaining() < needed && !map(getPosition(), needed)) {
+            throw new EOFException();
+        }
+    }
+
+    public void setBigEndian(boolean bigEndian)
+    {
+        this.bigEndian = bigEndian;
+    }
+
+    public int readWord() throws IOException
+    {
+        ensure(sampleSize);
+        int p = buffer.position();
+        int i = 0;
+        if (bigEndian) {
+            for (int n = 0; n < sampleSize; n++) {
+                i = (i << 8) | (buffer.get(p + n) & 0xFF);
+            }
+        } else {
+            for (int n = sampleSize - 1; n >= 0; n--) {
+                i = (i << 8) | (buffer.get(p + n) & 0xFF);
+            }
+        }
+        buffer.position(p + sampleSize);
+        return i << ((4 - sampleSize) * 8);
+    }
+
+    public void readWords(int[] dst, int off, int len) throws IOException
+    {
+        if (off < 0 || len < 0 || off + len > dst.length) {
+            throw new IndexOutOfBoundsException("off " + off + ", len " + len + ", length " + dst.length);
+        }
+        while (len > 0) {
+            int n = buffer.remaining() / sampleSize;
+            if (n == 0) {
+                ensure(sampleSize);
+                n = buffer.remaining() / sampleSize;
+            }
+            n = Math.min(n, len);
+            if (buffer.hasArray()) {
+                SampleWords.unpack(buffer.array(), buffer.arrayOffset() + buffer.position(), dst, off, 1, n,
+                        sampleSize, bigEndian);
+                buffer.position(buffer.position() + n * sampleSize);
+            } else {
+                if (block == null) {
+                    block = new byte[BLOCK_WORDS * sampleSize];
+                }
+                n = Math.min(n, BLOCK_WORDS);
+                buffer.get(block, 0, n * sampleSize);
+                SampleWords.unpack(block, 0, dst, off, 1, n, sampleSize, bigEndian);
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void skipWords(long n) throws IOException
+    {
+        skipBytes(n * sampleSize);
+    }
+
+    public void skipBytes(long n) throws IOException
+    {
+        seek(getPosition() + n);
+    }
+
+    private void seek(long position) throws IOException
+    {
+        long offset = position - base;
+        if (offset >= 0 && offset <= buffer.limit()) {
+            buffer.position((int) offset);
+        } else if (map(position, 0)) {
+            buffer.position((int) (position - base));
+        } else {
+            buffer.position(buffer.limit());
+            throw new EOFException();
+        }
+    }
+
+    public long align() throws IOException
+    {
+        long skipped = 0;
+        while (true) {
+            if (!buffer.hasRemaining() && !map(getPosition(), 1)) {
+                return skipped;
+            }
+            if (buffer.get(buffer.position()) != 0) {
+                return skipped;
+            }
+            buffer.position(buffer.position() + 1);
+            skipped++;
+        }
+    }
+
+    /**
+     * The mark is never lost
+     */
+    public void mark(int readLimit)
+    {
+        markPosition = getPosition();
+    }
+
+    public void reset() throws IOException
+    {
+        if (markPosition == -1) {
+            throw new IOException("no mark");
+        }
+        seek(markPosition);
+    }
+
+    public long getPosition()
+    {
+        return base + buffer.position();
+    }
+
+    public void close() throws IOException
+    {
+    }
+}
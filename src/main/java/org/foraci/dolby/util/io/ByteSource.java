@@ -0,0 +1,67 @@
+package org.foraci.dolby.util.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * The input of a reader: the sample words of a 337M stream, read one at a time or in bulk, with skips, a mark and
+ * a position. Implementations read from a stream ({@link StreamByteSource}), a <code>ByteBuffer</code>
+ * ({@link BufferByteSource}), a memory-mapped file ({@link MappedFileSource}) or two inputs in subframe mode
+ * ({@link SubframeWordReader}). Byte counts (skips, positions) are per input for a source with two inputs.
+ */
+public interface ByteSource
+{
+    /**
+     * @param bigEndian whether the samples are stored most significant byte first
+     */
+    void setBigEndian(boolean bigEndian);
+
+    /**
+     * @return the next sample word, left-justified (e.g. the low byte is zero for 3-byte samples)
+     * @throws EOFException if there are no more samples
+     */
+    int readWord() throws IOException;
+
+    /**
+     * Reads the next <code>len</code> sample words
+     * @throws IndexOutOfBoundsException if the words do not fit in <code>dst</code> from <code>off</code>
+     * @throws EOFException if the source ends first (the words before the end may have been read)
+     */
+    void readWords(int[] dst, int off, int len) throws IOException;
+
+    /**
+     * Skips whole sample words
+     * @throws EOFException if the source ends first
+     */
+    void skipWords(long n) throws IOException;
+
+    /**
+     * Skips bytes (in each input), e.g. to probe for a preamble at every byte alignment
+     * @throws EOFException if the source ends first
+     */
+    void skipBytes(long n) throws IOException;
+
+    /**
+     * Skips the bytes that are zero (in all inputs)
+     * @return the number of bytes skipped (in each input)
+     */
+    long align() throws IOException;
+
+    /**
+     * @param readLimit the number of bytes that can be read (from each input) before the mark may be lost
+     */
+    void mark(int readLimit);
+
+    /**
+     * Goes back to the mark
+     * @throws IOException if the mark was lost
+     */
+    void reset() throws IOException;
+
+    /**
+     * @return the number of bytes consumed (from each input), from where the source started
+     */
+    long getPosition();
+
+    void close() throws IOException;
+}
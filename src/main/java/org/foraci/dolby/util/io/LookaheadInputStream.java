@@ -0,0 +1,173 @@
+package org.foraci.dolby.util.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A buffered input stream for inputs that can only be read once (stdin, pipes, FIFOs, sockets). It has a large
+ * fixed-size buffer of its own, so data can be looked at ahead of the reader (see {@link #peek(int)}) and marks
+ * can be rewound to as long as the reader stays within the rewind window. Memory use is fixed by the buffer size.
+ */
+public class LookaheadInputStream extends InputStream
+{
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int pos = 0;
+    private int limit = 0;
+    private int markPos = -1;
+    private int markLimit = 0;
+    private boolean eof = false;
+
+    public LookaheadInputStream(InputStream in)
+    {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param in the input
+     * @param bufferSize the size of the buffer, which bounds both the lookahead and the rewind window
+     */
+    public LookaheadInputStream(InputStream in, int bufferSize)
+    {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * @return the size of the buffer; marks with a larger read limit can not always be rewound to
+     */
+    public int getBufferSize()
+    {
+        return buffer.length;
+    }
+
+    /**
+     * Fills the buffer until at least <code>n</code> bytes follow the read position, or the input ends
+     * @return true if <code>n</code> bytes are buffered
+     */
+    private boolean fill(int n) throws IOException
+    {
+        if (n > buffer.length) {
+            throw new IllegalArgumentException("can not buffer " + n + " bytes in " + buffer.length);
+        }
+        while (limit - pos < n && !eof) {
+            if (limit == buffer.length) {
+                compact();
+            }
+            int r = in.read(buffer, limit, buffer.length - limit);
+            if (r == -1) {
+                eof = true;
+            } else {
+                limit += r;
+            }
+        }
+        return limit - pos >= n;
+    }
+
+    /**
+     * Moves the data still needed (from the mark, if it is within its limit, or else the read position)
+     * to the start of the buffer
+     */
+    private void compact()
+    {
+        int keep = pos;
+        if (markPos != -1) {
+            if (pos - markPos <= markLimit) {
+                keep = markPos;
+            } else {
+                markPos = -1; // read past the limit: the mark is lost
+            }
+        }
+        if (keep == 0) { // the buffer is full from the mark on, so the rewind window is used up
+            markPos = -1;
+            keep = pos;
+        }
+        System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+        pos -= keep;
+        limit -= keep;
+        if (markPos != -1) {
+            markPos -= keep;
+        }
+    }
+
+    /**
+     * Looks at the next bytes without reading them. A mark is only kept if its read limit and the bytes looked at
+     * fit in the buffer together.
+     * @param n the number of bytes to look at (at most the buffer size)
+     * @return a copy of the next <code>n</code> bytes, or of fewer if the input ends first
+     */
+    public byte[] peek(int n) throws IOException
+    {
+        fill(n);
+        int len = Math.min(n, limit - pos);
+        byte[] copy = new byte[len];
+        System.arraycopy(buffer, pos, copy, 0, len);
+        return copy;
+    }
+
+    public int read() throws IOException
+    {
+        if (pos == limit && !fill(1)) {
+            return -1;
+        }
+        return buffer[pos++] & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos == limit && !fill(1)) {
+            return -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(buffer, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    public long skip(long n) throws IOException
+    {
+        if (n <= 0) {
+            return 0;
+        }
+        if (pos == limit && !fill(1)) {
+            return 0;
+        }
+        int s = (int) Math.min(n, limit - pos);
+        pos += s;
+        return s;
+    }
+
+    public int available() throws IOException
+    {
+        return (limit - pos) + in.available();
+    }
+
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    public void mark(int readLimit)
+    {
+        markPos = pos;
+        markLimit = Math.min(readLimit, buffer.length);
+    }
+
+    public void reset() throws IOException
+    {
+        if (markPos == -1) {
+            throw new IOException("mark lost (rewind window is " + buffer.length + " bytes)");
+        }
+        pos = markPos;
+    }
+
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
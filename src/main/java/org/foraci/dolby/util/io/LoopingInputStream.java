@@ -0,0 +1,75 @@
+package org.foraci.dolby.util.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An endless input stream that reads a file over and over, e.g. to feed a reader a capture for hours
+ */
+public class LoopingInputStream extends InputStream
+{
+    private final File file;
+    private InputStream in;
+    private long loops = 0;
+
+    public LoopingInputStream(File file) throws IOException
+    {
+        if (file.length() == 0) {
+            throw new IOException("can not loop an empty file: " + file);
+        }
+        this.file = file;
+        this.in = new FileInputStream(file);
+    }
+
+    /**
+     * @return the number of times the end of the file was reached
+     */
+    public long getLoops()
+    {
+        return loops;
+    }
+
+    private void reopen() throws IOException
+    {
+        in.close();
+        in = new FileInputStream(file);
+        loops++;
+    }
+
+    public int read() throws IOException
+    {
+        int b = in.read();
+        if (b == -1) {
+            reopen();
+            b = in.read();
+        }
+        return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        int n = in.read(b, off, len);
+        if (n == -1) {
+            reopen();
+            n = in.read(b, off, len);
+        }
+        return n;
+    }
+
+    public long skip(long n) throws IOException
+    {
+        long skipped = in.skip(n);
+        if (skipped <= 0 && n > 0) {
+            reopen();
+            skipped = in.skip(n);
+        }
+        return skipped;
+    }
+
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
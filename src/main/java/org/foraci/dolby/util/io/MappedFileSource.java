@@ -0,0 +1,57 @@
+package org.foraci.dolby.util.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * A source reading the samples of a file through a memory-mapped window, which is moved along the file as it is
+ * read (so files of any size can be read, and starting part way into a file costs nothing)
+ */
+public class MappedFileSource extends BufferByteSource
+{
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long start;
+    private final long size;
+    private final int windowSize;
+
+    /**
+     * @param start the byte position in the file of the start of the source (position 0 of the source)
+     */
+    public MappedFileSource(File file, long start, int sampleSize) throws IOException
+    {
+        this(file, start, sampleSize, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedFileSource(File file, long start, int sampleSize, int windowSize) throws IOException
+    {
+        super(sampleSize);
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.start = start;
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        map(0, 0);
+    }
+
+    protected boolean map(long position, int needed) throws IOException
+    {
+        long offset = start + position;
+        if (offset < start || offset + needed > size) {
+            return false;
+        }
+        long length = Math.min(windowSize, size - offset);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        base = position;
+        return true;
+    }
+
+    public void close() throws IOException
+    {
+        file.close();
+    }
+}
@@ -0,0 +1,53 @@
+package org.foraci.dolby.util.io;
+
+/**
+ * Unpacks the 2, 3 or 4-byte samples of a 337M stream into left-justified 32-bit words (e.g. the low byte is zero
+ * for 3-byte samples)
+ */
+public final class SampleWords
+{
+    private SampleWords()
+    {
+    }
+
+    /**
+     * @return the sample at the position, as a left-justified word
+     */
+    public static int unpack(byte[] src, int pos, int sampleSize, boolean bigEndian)
+    {
+        int i = 0;
+        if (bigEndian) {
+            for (int n = 0; n < sampleSize; n++) {
+                i = (i << 8) | (src[pos + n] & 0xFF);
+            }
+        } else {
+            for (int n = sampleSize - 1; n >= 0; n--) {
+                i = (i << 8) | (src[pos + n] & 0xFF);
+            }
+        }
+        return i << ((4 - sampleSize) * 8);
+    }
+
+    /**
+     * Unpacks consecutive samples into every <code>stride</code>th word of <code>dst</code>
+     * @param count the number of samples
+     */
+    public static void unpack(byte[] src, int srcPos, int[] dst, int dstPos, int stride, int count, int sampleSize,
+                              boolean bigEndian)
+    {
+        final int end = dstPos + count * stride;
+        if (sampleSize == 3 && !bigEndian) {
+            for (int d = dstPos, s = srcPos; d < end; d += stride, s += 3) {
+                dst[d] = ((src[s] & 0xFF) << 8) | ((src[s + 1] & 0xFF) << 16) | ((src[s + 2] & 0xFF) << 24);
+            }
+        } else if (sampleSize == 4 && !bigEndian) {
+            for (int d = dstPos, s = srcPos; d < end; d += stride, s += 4) {
+                dst[d] = (src[s] & 0xFF) | ((src[s + 1] & 0xFF) << 8) | ((src[s + 2] & 0xFF) << 16) | ((src[s + 3] & 0xFF) << 24);
+            }
+        } else {
+            for (int d = dstPos, s = srcPos; d < end; d += stride, s += sampleSize) {
+                dst[d] = unpack(src, s, sampleSize, bigEndian);
+            }
+        }
+    }
+}
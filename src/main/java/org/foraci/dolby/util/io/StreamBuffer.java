@@ -0,0 +1,149 @@
+package org.foraci.dolby.util.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A buffered input with its own mark (which may span more than the buffer, in which case it grows), whose buffer
+ * is read directly by the sources built on it
+ */
+class StreamBuffer
+{
+    private final InputStream in;
+    byte[] buffer;
+    int pos = 0;
+    int limit = 0;
+    private int markPos = -1;
+    private int markLimit = 0;
+    private long streamPosition = 0; // bytes read from the stream into the buffer
+    private boolean eof = false;
+
+    StreamBuffer(InputStream in, int bufferSize)
+    {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    int available()
+    {
+        return limit - pos;
+    }
+
+    long getPosition()
+    {
+        return streamPosition - (limit - pos);
+    }
+
+    /**
+     * @return true if at least n bytes are buffered
+     */
+    boolean ensure(int n) throws IOException
+    {
+        while (limit - pos < n && !eof) {
+            if (limit == buffer.length) {
+                compact(n);
+            }
+            int r = in.read(buffer, limit, buffer.length - limit);
+            if (r == -1) {
+                eof = true;
+            } else {
+                limit += r;
+                streamPosition += r;
+            }
+        }
+        return limit - pos >= n;
+    }
+
+    private void compact(int needed)
+    {
+        int keep = pos;
+        if (markPos != -1) {
+            if (pos - markPos <= markLimit) {
+                keep = markPos;
+            } else {
+                markPos = -1;
+            }
+        }
+        int size = limit - keep;
+        byte[] target = buffer;
+        if (keep == 0 || size + needed > buffer.length) {
+            target = new byte[Math.max(buffer.length * 2, size + needed)];
+        }
+        System.arraycopy(buffer, keep, target, 0, size);
+        buffer = target;
+        pos -= keep;
+        limit -= keep;
+        if (markPos != -1) {
+            markPos -= keep;
+        }
+    }
+
+    /**
+     * Skips bytes, skipping what is not buffered in the input itself (a seek, for a file). While a mark is set and
+     * the skip ends within its read limit, the bytes are read through into the buffer instead, so a reset can go
+     * back over them; a skip past the limit loses the mark, and seeks.
+     * @throws EOFException if the input ends first
+     */
+    void skip(long n) throws IOException
+    {
+        int s = (int) Math.min(n, limit - pos);
+        pos += s;
+        n -= s;
+        if (n == 0) {
+            return;
+        }
+        if (markPos != -1 && pos + n - markPos <= markLimit) { // keep the skipped bytes for a reset
+            while (n > 0) {
+                if (!ensure((int) Math.min(n, buffer.length / 2))) {
+                    throw new EOFException();
+                }
+                s = (int) Math.min(n, limit - pos);
+                pos += s;
+                n -= s;
+            }
+            return;
+        }
+        markPos = -1;
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    eof = true;
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            streamPosition += skipped;
+            n -= skipped;
+        }
+    }
+
+    void mark(int readLimit)
+    {
+        mark(readLimit, 0);
+    }
+
+    /**
+     * Marks a position before the read position, e.g. the first of the bytes a source unpacked but did not consume
+     * @param unread the number of bytes before the read position (which must still be in the buffer)
+     */
+    void mark(int readLimit, int unread)
+    {
+        markPos = pos - unread;
+        markLimit = readLimit + unread;
+    }
+
+    void reset() throws IOException
+    {
+        if (markPos == -1) {
+            throw new IOException("mark lost");
+        }
+        pos = markPos;
+    }
+
+    void close() throws IOException
+    {
+        in.close();
+    }
+}
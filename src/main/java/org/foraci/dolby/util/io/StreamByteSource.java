@@ -0,0 +1,105 @@
+package org.foraci.dolby.util.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A source reading the samples of an input stream through a buffer of its own, unpacking them in bulk
+ */
+public class StreamByteSource implements ByteSource
+{
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final StreamBuffer input;
+    private final int sampleSize;
+    private boolean bigEndian = false;
+
+    public StreamByteSource(InputStream in, int sampleSize)
+    {
+        this(in, sampleSize, DEFAULT_BUFFER_SIZE);
+    }
+
+    public StreamByteSource(InputStream in, int sampleSize, int bufferSize)
+    {
+        this.input = new StreamBuffer(in, bufferSize);
+        this.sampleSize = sampleSize;
+    }
+
+    public void setBigEndian(boolean bigEndian)
+    {
+        this.bigEndian = bigEndian;
+    }
+
+    public int readWord() throws IOException
+    {
+        if (input.limit - input.pos < sampleSize && !input.ensure(sampleSize)) {
+            throw new EOFException();
+        }
+        int word = SampleWords.unpack(input.buffer, input.pos, sampleSize, bigEndian);
+        input.pos += sampleSize;
+        return word;
+    }
+
+    public void readWords(int[] dst, int off, int len) throws IOException
+    {
+        if (off < 0 || len < 0 || off + len > dst.length) {
+            throw new IndexOutOfBoundsException("off " + off + ", len " + len + ", length " + dst.length);
+        }
+        while (len > 0) {
+            int n = input.available() / sampleSize;
+            if (n == 0) {
+                if (!input.ensure((int) Math.min((long) len * sampleSize, input.buffer.length))
+                        && input.available() < sampleSize) {
+                    throw new EOFException();
+                }
+                n = input.available() / sampleSize;
+            }
+            n = Math.min(n, len);
+            SampleWords.unpack(input.buffer, input.pos, dst, off, 1, n, sampleSize, bigEndian);
+            input.pos += n * sampleSize;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void skipWords(long n) throws IOException
+    {
+        input.skip(n * sampleSize);
+    }
+
+    public void skipBytes(long n) throws IOException
+    {
+        input.skip(n);
+    }
+
+    public long align() throws IOException
+    {
+        long skipped = 0;
+        while (input.ensure(1) && input.buffer[input.pos] == 0) {
+            input.pos++;
+            skipped++;
+        }
+        return skipped;
+    }
+
+    public void mark(int readLimit)
+    {
+        input.mark(readLimit);
+    }
+
+    public void reset() throws IOException
+    {
+        input.reset();
+    }
+
+    public long getPosition()
+    {
+        return input.getPosition();
+    }
+
+    public void close() throws IOException
+    {
+        input.close();
+    }
+}
@@ -0,0 +1,252 @@
+package org.foraci.dolby.util.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the sample words of a 337M stream split across two inputs (subframe mode, e.g. two GXF audio tracks),
+ * where consecutive words of the stream alternate between the inputs. Blocks of samples are read from each input
+ * into its own byte buffer and de-interleaved in bulk into a combined buffer of left-justified 32-bit words.
+ * Positions, skips and marks are kept per input, in bytes, so no accounting has to be halved by the caller.
+ * A mark keeps the unpacked block, and a reset to a mark in the same block just steps back in it; after the inputs
+ * are repositioned, small blocks are unpacked at first, so probing byte by byte does not unpack a whole block per byte.
+ */
+public class SubframeWordReader implements ByteSource
+{
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    private static final int WORD_BLOCK = 4096; // words unpacked at a time
+    private static final int FIRST_BLOCK = 16; // words unpacked first after the inputs are repositioned
+
+    private final StreamBuffer input1;
+    private final StreamBuffer input2;
+    private final int sampleSize;
+    private boolean bigEndian;
+    private final int[] words = new int[WORD_BLOCK];
+    private int wordPos = 0;
+    private int wordCount = 0;
+    private int blockPhase = 0; // the input (0 or 1) of the first word in the block
+    private int phase = 0; // the input of the next word after the block
+    private int markPhase = 0;
+    private int blockWords = WORD_BLOCK; // words to unpack next, doubling up to WORD_BLOCK
+    private long block = 0; // counts the blocks unpacked (and dropped), to tell if the mark is in the current block
+    private long markBlock = -1;
+    private int markWordPos = 0;
+
+    public SubframeWordReader(InputStream in1, InputStream in2, int sampleSize)
+    {
+        this(in1, in2, sampleSize, DEFAULT_BUFFER_SIZE);
+    }
+
+    public SubframeWordReader(InputStream in1, InputStream in2, int sampleSize, int bufferSize)
+    {
+        this.input1 = new StreamBuffer(in1, bufferSize);
+        this.input2 = new StreamBuffer(in2, bufferSize);
+        this.sampleSize = sampleSize;
+    }
+
+    public void setBigEndian(boolean bigEndian)
+    {
+        sync();
+        this.bigEndian = bigEndian;
+    }
+
+    /**
+     * @return the next sample word, left-justified (e.g. the low byte is zero for 3-byte samples)
+     * @throws EOFException if either input has no more samples
+     */
+    public int readWord() throws IOException
+    {
+        if (wordPos == wordCount) {
+            fill();
+        }
+        return words[wordPos++];
+    }
+
+    public void readWords(int[] dst, int off, int len) throws IOException
+    {
+        if (off < 0 || len < 0 || off + len > dst.length) {
+            throw new IndexOutOfBoundsException("off " + off + ", len " + len + ", length " + dst.length);
+        }
+        while (len > 0) {
+            if (wordPos == wordCount) {
+                fill();
+            }
+            int n = Math.min(len, wordCount - wordPos);
+            System.arraycopy(words, wordPos, dst, off, n);
+            wordPos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Skips whole words of the combined stream
+     * @param n the number of words
+     */
+    public void skipWords(long n) throws IOException
+    {
+        sync();
+        if (n > 0 && phase == 1) {
+            input2.skip(sampleSize);
+            phase = 0;
+            n--;
+        }
+        long pairs = n / 2;
+        input1.skip(pairs * sampleSize);
+        input2.skip(pairs * sampleSize);
+        if (n % 2 == 1) {
+            input1.skip(sampleSize);
+            phase = 1;
+        }
+    }
+
+    /**
+     * Skips bytes in each input (e.g. to probe for a preamble at every byte alignment)
+     * @param n the number of bytes to skip in each input
+     */
+    public void skipBytes(long n) throws IOException
+    {
+        sync();
+        input1.skip(n);
+        input2.skip(n);
+    }
+
+    /**
+     * Skips the bytes that are zero in both inputs
+     * @return the number of bytes skipped in each input
+     */
+    public long align() throws IOException
+    {
+        sync();
+        long skipped = 0;
+        while (input1.ensure(1) && input2.ensure(1)
+                && input1.buffer[input1.pos] == 0 && input2.buffer[input2.pos] == 0) {
+            input1.pos++;
+            input2.pos++;
+            skipped++;
+        }
+        return skipped;
+    }
+
+    /**
+     * @param readLimit the number of bytes that can be read from each input before the mark is lost
+     */
+    public void mark(int readLimit)
+    {
+        input1.mark(readLimit, unconsumed(0) * sampleSize);
+        input2.mark(readLimit, unconsumed(1) * sampleSize);
+        markPhase = nextPhase();
+        markBlock = block;
+        markWordPos = wordPos;
+    }
+
+    public void reset() throws IOException
+    {
+        if (markBlock == block) { // nothing was unpacked or repositioned since the mark
+            wordPos = markWordPos;
+            return;
+        }
+        input1.reset();
+        input2.reset();
+        drop();
+        phase = markPhase;
+    }
+
+    /**
+     * @return the number of bytes consumed from the first input (which is a sample ahead of the second after an
+     * odd number of words)
+     */
+    public long getPosition()
+    {
+        return getPosition1();
+    }
+
+    /**
+     * @return the number of bytes consumed from the first input
+     */
+    public long getPosition1()
+    {
+        return input1.getPosition() - unconsumed(0) * sampleSize;
+    }
+
+    /**
+     * @return the number of bytes consumed from the second input
+     */
+    public long getPosition2()
+    {
+        return input2.getPosition() - unconsumed(1) * sampleSize;
+    }
+
+    public void close() throws IOException
+    {
+        input1.close();
+        input2.close();
+    }
+
+    /**
+     * @return the number of words unpacked for the input but not consumed yet
+     */
+    private int unconsumed(int input)
+    {
+        int n = wordCount - wordPos;
+        return (nextPhase() == input) ? (n + 1) / 2 : n / 2; // the words alternate between the inputs
+    }
+
+    /**
+     * @return the input of the next word
+     */
+    private int nextPhase()
+    {
+        return (wordPos == wordCount) ? phase : (blockPhase + wordPos) & 1;
+    }
+
+    private void drop()
+    {
+        wordPos = wordCount = 0;
+        blockWords = FIRST_BLOCK;
+        block++;
+    }
+
+    /**
+     * Hands the words unpacked but not consumed back to the byte buffers, so the inputs can be repositioned
+     */
+    private void sync()
+    {
+        input1.pos -= unconsumed(0) * sampleSize;
+        input2.pos -= unconsumed(1) * sampleSize;
+        phase = nextPhase();
+        drop();
+    }
+
+    private void fill() throws IOException
+    {
+        StreamBuffer first = (phase == 0) ? input1 : input2;
+        StreamBuffer second = (phase == 0) ? input2 : input1;
+        int pairs = blockWords / 2;
+        blockWords = Math.min(blockWords * 2, WORD_BLOCK);
+        block++;
+        first.ensure(pairs * sampleSize);
+        second.ensure(pairs * sampleSize);
+        pairs = Math.min(pairs, Math.min(first.available(), second.available()) / sampleSize);
+        blockPhase = phase;
+        wordPos = 0;
+        if (pairs == 0) {
+            if (!first.ensure(sampleSize)) {
+                wordCount = 0;
+                throw new EOFException();
+            }
+            words[0] = SampleWords.unpack(first.buffer, first.pos, sampleSize, bigEndian);
+            first.pos += sampleSize;
+            wordCount = 1;
+            phase ^= 1;
+            return;
+        }
+        SampleWords.unpack(first.buffer, first.pos, words, 0, 2, pairs, sampleSize, bigEndian);
+        SampleWords.unpack(second.buffer, second.pos, words, 1, 2, pairs, sampleSize, bigEndian);
+        first.pos += pairs * sampleSize;
+        second.pos += pairs * sampleSize;
+        wordCount = pairs * 2;
+    }
+
+}
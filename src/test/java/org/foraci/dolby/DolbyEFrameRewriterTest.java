@@ -0,0 +1,134 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameMetadata;
+import org.foraci.dolby.util.io.StreamByteSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Patches a stream in place, reads it back and checks the fields patched and the CRCs regenerated
+ */
+public class DolbyEFrameRewriterTest
+{
+    private static final int FRAMES = 40;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        DolbyEStreamBuilder builder = new DolbyEStreamBuilder();
+        for (int i = 0; i < FRAMES; i++) {
+            builder.addFrame(i % 3 == 0); // keyed and unkeyed frames
+        }
+        file = File.createTempFile("rewrite", ".bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(builder.toByteArray());
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void testUnpatched() throws IOException
+    {
+        List<FrameMetadata> frames = read();
+        assertEquals(FRAMES, frames.size());
+        for (FrameMetadata frame : frames) {
+            assertEquals(0, frame.getCrcErrors());
+            for (int p = 0; p < DolbyEStreamBuilder.PROGRAMS; p++) {
+                assertEquals(DolbyEStreamBuilder.DIALNORM, frame.getProgramField(p, FrameMetadata.DIALNORM));
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        StreamByteSource in = new StreamByteSource(new FileInputStream(file), DolbyEStreamBuilder.SAMPLE_SIZE);
+        DolbyEReader reader = open(in);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        DolbyEFrameRewriter rewriter = new DolbyEFrameRewriter(reader, channel, DolbyEStreamBuilder.SAMPLE_SIZE, false);
+        rewriter.setDialnorm(-1, 9);
+        rewriter.setDescription(0, "AB");
+        rewriter.setStartTimecode(ReadRange.parseTimecode("01:02:03:04"));
+        try {
+            rewriter.run();
+        } finally {
+            channel.close();
+            in.close();
+        }
+
+        List<FrameMetadata> frames = read();
+        assertEquals(FRAMES, frames.size());
+        for (int i = 0; i < FRAMES; i++) {
+            FrameMetadata frame = frames.get(i);
+            assertEquals("CRC errors in frame " + i, 0, frame.getCrcErrors());
+            for (int p = 0; p < DolbyEStreamBuilder.PROGRAMS; p++) {
+                assertEquals(9, frame.getProgramField(p, FrameMetadata.DIALNORM));
+            }
+            int f = 4 + i;
+            assertEquals((1 << 24) | (2 << 16) | ((3 + f / 30) << 8) | (f % 30), frame.getTimecode());
+            if (i >= 3) { // the description is sent a character a frame: STX, 'A', 'B', ETX
+                assertEquals("AB", frame.getDescription(0));
+            }
+        }
+    }
+
+    private DolbyEReader open(StreamByteSource in)
+    {
+        DolbyEReader reader = new DolbyEReader(in, DolbyEStreamBuilder.SAMPLE_SIZE, false);
+        reader.setLogLevel(ParserHelper.LOGLEVEL_WARN);
+        return reader;
+    }
+
+    /**
+     * @return a copy of the metadata of every frame in the file
+     */
+    private List<FrameMetadata> read() throws IOException
+    {
+        final List<FrameMetadata> frames = new ArrayList<FrameMetadata>();
+        StreamByteSource in = new StreamByteSource(new FileInputStream(file), DolbyEStreamBuilder.SAMPLE_SIZE);
+        DolbyEReader reader = open(in);
+        reader.addFrameListener(new FrameListener()
+        {
+            public void frameRead(FrameMetadata metadata)
+            {
+                FrameMetadata copy = new FrameMetadata();
+                metadata.copyTo(copy);
+                frames.add(copy);
+            }
+        });
+        try {
+            while (true) {
+                reader.probeForAESFrame();
+                reader.readFrameOrResync();
+            }
+        } catch (EOFException e) {
+            // done
+        } finally {
+            in.close();
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,136 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameMetadata;
+import org.foraci.dolby.util.io.StreamByteSource;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Reads built streams and checks every segment passes its CRC
+ */
+public class DolbyEReaderTest
+{
+    /**
+     * The key of each frame is reset, so a frame that is not keyed after one that is (and the other way round) still
+     * de-keys every segment, audio included, to words that pass their CRC
+     */
+    @Test
+    public void testKeyedUnkeyedKeyed() throws IOException
+    {
+        boolean[] keyed = { true, true, false, false, true, false, true, true };
+        DolbyEStreamBuilder builder = new DolbyEStreamBuilder();
+        for (boolean k : keyed) {
+            builder.addFrame(k);
+        }
+        List<FrameMetadata> frames = read(builder.toByteArray());
+        assertEquals(keyed.length, frames.size());
+        for (int i = 0; i < keyed.length; i++) {
+            FrameMetadata frame = frames.get(i);
+            assertEquals("CRC errors in frame " + i, 0, frame.getCrcErrors());
+            assertEquals(i, frame.getFrameCounter());
+            assertEquals(DolbyEStreamBuilder.DIALNORM, frame.getProgramField(0, FrameMetadata.DIALNORM));
+        }
+    }
+
+    /**
+     * Sampled frames are skipped by seeking in the input, even with the mark a resync would go back to
+     */
+    @Test
+    public void testSamplingSkipsUnderRecover() throws IOException
+    {
+        DolbyEStreamBuilder builder = new DolbyEStreamBuilder(1000); // frames of about 64 KB
+        for (int i = 0; i < 30; i++) {
+            builder.addFrame(false);
+        }
+        byte[] stream = builder.toByteArray();
+        final long[] skipped = new long[1];
+        InputStream in = new ByteArrayInputStream(stream)
+        {
+            public synchronized long skip(long n)
+            {
+                long s = super.skip(n);
+                skipped[0] += s;
+                return s;
+            }
+        };
+        DolbyEReader reader = new DolbyEReader(new StreamByteSource(in, DolbyEStreamBuilder.SAMPLE_SIZE, 1024),
+                DolbyEStreamBuilder.SAMPLE_SIZE, false);
+        reader.setSampling(3);
+        List<FrameMetadata> frames = read(reader);
+        assertEquals(10, frames.size());
+        assertEquals(30, reader.getFrameCount());
+        for (int i = 0; i < frames.size(); i++) {
+            assertEquals(i * 3, frames.get(i).getFrameCounter());
+        }
+        assertTrue("skipped " + skipped[0] + " of " + stream.length + " bytes", skipped[0] > stream.length / 4);
+    }
+
+    /**
+     * Bad arguments are rejected before anything is created or opened, here the cache directory
+     */
+    @Test
+    public void testBadArgs() throws Exception
+    {
+        File input = File.createTempFile("input", ".bin");
+        File dir = File.createTempFile("cache", "");
+        dir.delete();
+        String[][] bad = { { "-every", "0" }, { "-everysec", "-1" }, { "-meterwindow", "x" }, { "-v", "x" },
+                { "-lowlatency", "nap" }, { "-offset", "-3" }, { "-groups", "nothing" }, { "-cachesize", "0" } };
+        try {
+            for (String[] args : bad) {
+                try {
+                    DolbyEReader.run(new String[] { "-1", input.getPath(), "-aesprobe", "-cache", dir.getPath(),
+                            args[0], args[1] });
+                    fail("accepted " + Arrays.toString(args));
+                } catch (IllegalArgumentException e) {
+                    assertFalse(Arrays.toString(args) + " created the cache", dir.exists());
+                }
+            }
+        } finally {
+            input.delete();
+            dir.delete();
+        }
+    }
+
+    private static List<FrameMetadata> read(byte[] stream) throws IOException
+    {
+        return read(new DolbyEReader(new ByteArrayInputStream(stream), DolbyEStreamBuilder.SAMPLE_SIZE));
+    }
+
+    private static List<FrameMetadata> read(DolbyEReader reader) throws IOException
+    {
+        final List<FrameMetadata> frames = new ArrayList<FrameMetadata>();
+        reader.setLogLevel(ParserHelper.LOGLEVEL_WARN);
+        reader.addFrameListener(new FrameListener()
+        {
+            public void frameRead(FrameMetadata metadata)
+            {
+                FrameMetadata copy = new FrameMetadata();
+                metadata.copyTo(copy);
+                frames.add(copy);
+            }
+        });
+        try {
+            while (true) {
+                reader.probeForAESFrame();
+                reader.readFrameOrResync();
+            }
+        } catch (EOFException e) {
+            // done
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,228 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.SegmentCrc;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Builds 337M streams of 20-bit Dolby E frames for the tests: program config 0 (5.1+2) at 29.97 fps, each frame
+ * with a metadata segment carrying one AC3+XBSI subsegment, the audio, metadata extension and meter segments, and a
+ * CRC ending every segment. Frames are keyed or not, one by one. Samples are 4 bytes, little-endian, with the
+ * Dolby E word in the top 20 bits, and each burst is followed by a guard band of zero samples.
+ * <p>
+ * The field widths are spelled out here rather than taken from the parser, so the tests check its layout.
+ */
+public class DolbyEStreamBuilder
+{
+    public static final int SAMPLE_SIZE = 4;
+    public static final int PROGRAMS = 2;
+    public static final int DIALNORM = 20;
+
+    private static final int BIT_DEPTH = 20;
+    private static final int SYNC = 0x788E;
+    private static final int PA = 0x6F872000;
+    private static final int PB = 0x54E1F000;
+    private static final int DATA_MODE_20 = 1;
+    private static final int DATA_TYPE_DOLBYE = 28;
+    private static final int PROGRAM_CONFIG = 0;
+    private static final int CHANNELS = 8;
+    private static final int FRAME_RATE_CODE = 4; // 29.97 fps, so the frame has the metadata extension segment
+    private static final int METADATA_SIZE = 40; // words
+    private static final int CHANNEL_SIZE = 30; // words per channel in each audio segment, unless given
+    private static final int METADATA_EXT_SIZE = 1; // words
+    private static final int METER_SIZE = 8; // words
+    private static final int GUARD_BAND = 20; // samples
+    /** the AC3+XBSI program fields, datarate to dynrng4 */
+    private static final int[] AC3_FIELD_WIDTHS = {
+            5, 3, 3, 2, 2, 2, 1, 5, 1, 8, 1, 5, 2, 1, 1,
+            1, 2, 3, 3, 3, 3, 1, 2, 2, 1, 8, 1,
+            1, 1, 1, 1, 1, 1, 1, 8, 1, 8, 8, 8, 8,
+    };
+    private static final int AC3_DIALNORM = 7;
+    private static final int AC3_ACMOD = 2;
+
+    private final int channelSize;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final Random random = new Random(7);
+    private int[] frame = new int[4096];
+    private int frameWords;
+    private int[] pending = new int[4096]; // the words of the segment being built
+    private int pendingWords = 0;
+    private long bits; // bits not yet made into a word, in the low bits
+    private int bitCount;
+    private int frames = 0;
+
+    public DolbyEStreamBuilder()
+    {
+        this(CHANNEL_SIZE);
+    }
+
+    /**
+     * @param channelSize the words per channel in each audio segment (up to 1023), which sets the size of a frame
+     */
+    public DolbyEStreamBuilder(int channelSize)
+    {
+        this.channelSize = channelSize;
+    }
+
+    /**
+     * Adds a frame, numbered and timecoded from 00:00:00:00 by its position in the stream
+     * @param keyed whether the segments of the frame are keyed
+     */
+    public void addFrame(boolean keyed)
+    {
+        frameWords = 0;
+        frame[frameWords++] = SYNC | (keyed ? 1 : 0);
+        int f = frames;
+        int ff = f % 30;
+        int ss = (f / 30) % 60;
+        put(0, 4); // metadata id
+        put(METADATA_SIZE, 10);
+        put(PROGRAM_CONFIG, 6);
+        put(FRAME_RATE_CODE, 4);
+        put(FRAME_RATE_CODE, 4); // original frame rate code
+        put(f & 0xFFFF, 16);
+        put(0, 10);
+        put(0, 2);
+        put(0, 4);
+        put(0, 9);
+        put(0, 3);
+        put(0, 4);
+        put(0, 9);
+        put(ss / 10, 3);
+        put(ss % 10, 4);
+        put(0, 9);
+        put(0, 1); // not drop frame
+        put(ff / 10, 2);
+        put(ff % 10, 4);
+        put(0, 8); // reserved
+        for (int c = 0; c < CHANNELS; c++) {
+            put(channelSize, 10);
+        }
+        put(METADATA_EXT_SIZE, 8);
+        put(METER_SIZE, 8);
+        for (int p = 0; p < PROGRAMS; p++) {
+            put(0, 8); // no description character
+            put(0, 2); // bandwidth
+        }
+        for (int c = 0; c < CHANNELS; c++) {
+            put(0, 25); // revision, bitpool, begin and end gain
+        }
+        int ac3Bits = PROGRAMS; // the addbsie bits
+        for (int width : AC3_FIELD_WIDTHS) {
+            ac3Bits += width * PROGRAMS;
+        }
+        put(1, 4); // AC3+XBSI subsegment
+        put(ac3Bits, 12);
+        for (int p = 0; p < PROGRAMS; p++) {
+            for (int i = 0; i < AC3_FIELD_WIDTHS.length; i++) {
+                put((i == AC3_DIALNORM) ? DIALNORM : ((i == AC3_ACMOD) ? 2 : 0), AC3_FIELD_WIDTHS[i]);
+            }
+        }
+        put(0, PROGRAMS); // no addbsi
+        put(0, 4); // end of subsegments
+        segment(METADATA_SIZE, keyed);
+        audio(keyed);
+        put(0, 4); // no metadata extension subsegments
+        segment(METADATA_EXT_SIZE, keyed);
+        audio(keyed);
+        for (int c = 0; c < CHANNELS * 2; c++) {
+            put(100 + c, 10); // peak then RMS meters
+        }
+        segment(METER_SIZE, keyed);
+        writeBurst();
+        frames++;
+    }
+
+    /**
+     * @return the stream built so far
+     */
+    public byte[] toByteArray()
+    {
+        return out.toByteArray();
+    }
+
+    private void audio(boolean keyed)
+    {
+        int split = CHANNELS / 2;
+        for (int half = 0; half < 2; half++) {
+            int words = ((half == 0) ? split : CHANNELS - split) * channelSize;
+            for (int i = 0; i < words; i++) {
+                put(random.nextInt(1 << BIT_DEPTH), BIT_DEPTH);
+            }
+            segment(words, keyed);
+        }
+    }
+
+    private void put(int value, int n)
+    {
+        for (int i = n - 1; i >= 0; i--) {
+            bits = (bits << 1) | ((value >>> i) & 1);
+            bitCount++;
+            if (bitCount == BIT_DEPTH) {
+                pending[pendingWords++] = (int) bits;
+                bits = 0;
+                bitCount = 0;
+            }
+        }
+    }
+
+    /**
+     * Ends a segment: pads it to its size, then adds it to the frame with its key and CRC
+     */
+    private void segment(int size, boolean keyed)
+    {
+        if (bitCount > 0) {
+            put(0, BIT_DEPTH - bitCount);
+        }
+        while (pendingWords < size) {
+            pending[pendingWords++] = 0;
+        }
+        if (pendingWords > size) {
+            throw new IllegalStateException("segment of " + pendingWords + " words is over its size of " + size);
+        }
+        int key = (keyed) ? random.nextInt(1 << BIT_DEPTH) : 0;
+        if (keyed) {
+            append(key);
+        }
+        long crc = 0;
+        for (int i = 0; i < size; i++) {
+            crc = SegmentCrc.update(crc, pending[i], BIT_DEPTH);
+            append(pending[i] ^ key);
+        }
+        append(SegmentCrc.toWord(crc, BIT_DEPTH) ^ key);
+        pendingWords = 0;
+    }
+
+    private void append(int word)
+    {
+        if (frameWords == frame.length) {
+            int[] grown = new int[frame.length * 2];
+            System.arraycopy(frame, 0, grown, 0, frameWords);
+            frame = grown;
+        }
+        frame[frameWords++] = word;
+    }
+
+    private void writeBurst()
+    {
+        writeSample(PA);
+        writeSample(PB);
+        writeSample((DATA_MODE_20 << 21) | (DATA_TYPE_DOLBYE << 16));
+        writeSample((frameWords * BIT_DEPTH) << 12);
+        for (int i = 0; i < frameWords; i++) {
+            writeSample(frame[i] << (32 - BIT_DEPTH));
+        }
+        for (int i = 0; i < GUARD_BAND; i++) {
+            writeSample(0);
+        }
+    }
+
+    private void writeSample(int sample)
+    {
+        for (int n = 0; n < SAMPLE_SIZE; n++) {
+            out.write(sample >>> (n * 8));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameMetadata;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Hands frames off to a listener that is held up, so the ring fills and the frames that do not fit are dropped
+ */
+public class FrameHandoffTest
+{
+    private static final int CAPACITY = 2;
+    private static final int FRAMES = 10;
+
+    @Test
+    public void testDropsWhenFull() throws InterruptedException
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> counters = new ArrayList<Integer>();
+        FrameHandoff handoff = new FrameHandoff(new FrameListener()
+        {
+            public void frameRead(FrameMetadata metadata)
+            {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                counters.add(metadata.getFrameCounter());
+            }
+        }, CAPACITY, FrameHandoff.WAIT_PARK);
+        handoff.start();
+        FrameMetadata metadata = new FrameMetadata();
+        for (int i = 0; i < FRAMES; i++) {
+            metadata.setFrameCounter(i);
+            handoff.frameRead(metadata);
+        }
+        // a slot is only freed once the listener returns, so only the first frames fit
+        assertEquals(FRAMES - CAPACITY, handoff.getDropped());
+        release.countDown();
+        handoff.close();
+        assertEquals("[0, 1]", counters.toString());
+        assertEquals(CAPACITY, handoff.getLatency().getCount());
+    }
+}
@@ -0,0 +1,77 @@
+package org.foraci.dolby;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Looks frames up by position, appends the index of a tail and round-trips an index through its stored form
+ */
+public class FrameIndexTest
+{
+    private static final long PERIOD = 2258;
+
+    @Test
+    public void testFindFrame()
+    {
+        FrameIndex index = build(100, 1000, 0);
+        assertEquals(100, index.size());
+        assertEquals(-1, index.findFrame(999)); // before the first frame
+        assertEquals(0, index.findFrame(1000));
+        assertEquals(0, index.findFrame(1000 + PERIOD - 1));
+        assertEquals(1, index.findFrame(1000 + PERIOD));
+        assertEquals(99, index.findFrame(Long.MAX_VALUE)); // after the last
+        assertEquals(1000 + 42 * PERIOD, index.getPosition(42));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testPositionPastEnd()
+    {
+        build(10, 0, 0).getPosition(10);
+    }
+
+    @Test
+    public void testAppend()
+    {
+        FrameIndex index = build(20, 0, 0); // grows past its initial capacity
+        index.append(build(3000, 20 * PERIOD, 20));
+        assertEquals(3020, index.size());
+        for (int i = 0; i < index.size(); i++) {
+            assertEquals(i * PERIOD, index.getPosition(i));
+        }
+        assertEquals(2999, index.findFrame(2999 * PERIOD + 1));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        FrameIndex index = build(50, 0, 0);
+        index.add(5L * Integer.MAX_VALUE); // too far for a delta
+        index.add(5L * Integer.MAX_VALUE + PERIOD);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.write(new DataOutputStream(bytes));
+        FrameIndex read = FrameIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(index.size(), read.size());
+        for (int i = 0; i < index.size(); i++) {
+            assertEquals(index.getPosition(i), read.getPosition(i));
+        }
+    }
+
+    /**
+     * @return an index of frames a period apart, the first at <code>start</code>
+     */
+    private static FrameIndex build(int frames, long start, int capacity)
+    {
+        FrameIndex index = new FrameIndex(capacity);
+        for (int i = 0; i < frames; i++) {
+            index.add(start + i * PERIOD);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,120 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameMetadata;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Merges the summaries of the two parts of a stream and round-trips a summary through its stored form
+ */
+public class ParseSummaryTest
+{
+    private static final int FRAMES = 12;
+    private static final int SPLIT = 5;
+    private static final int DATA_TYPE_DOLBYE = 28;
+
+    @Test
+    public void testMerge() throws IOException
+    {
+        List<FrameMetadata> frames = readFrames();
+        ParseSummary whole = summarize(frames, 0, FRAMES);
+        ParseSummary merged = summarize(frames, 0, SPLIT);
+        merged.merge(summarize(frames, SPLIT, FRAMES));
+        assertEquals(FRAMES, merged.getFrames());
+        assertEquals(0, merged.getFirstTimecode());
+        assertEquals(FRAMES - 1, merged.getLastTimecode()); // 00:00:00:11
+        assertEquals(FRAMES, merged.getBurstCount(DATA_TYPE_DOLBYE));
+        assertEquals(2, merged.getDamagedRegions());
+        assertEquals(report(whole), report(merged));
+    }
+
+    @Test
+    public void testMergeEmpty() throws IOException
+    {
+        List<FrameMetadata> frames = readFrames();
+        ParseSummary empty = new ParseSummary();
+        empty.merge(summarize(frames, 0, FRAMES));
+        assertEquals(report(summarize(frames, 0, FRAMES)), report(empty));
+        ParseSummary tail = summarize(frames, 0, FRAMES);
+        tail.merge(new ParseSummary()); // e.g. a grown input whose tail has no complete frame yet
+        assertEquals(report(summarize(frames, 0, FRAMES)), report(tail));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        ParseSummary summary = summarize(readFrames(), 0, FRAMES);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        summary.write(new DataOutputStream(bytes));
+        ParseSummary read = ParseSummary.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(summary.getFrames(), read.getFrames());
+        assertEquals(summary.getLastTimecode(), read.getLastTimecode());
+        assertEquals(summary.getFrameRateCode(), read.getFrameRateCode());
+        assertEquals(report(summary), report(read));
+    }
+
+    /**
+     * @return a summary of frames <code>from</code> (inclusive) to <code>to</code>, with a burst count per frame
+     * and a damaged region per part
+     */
+    private static ParseSummary summarize(List<FrameMetadata> frames, int from, int to)
+    {
+        ParseSummary summary = new ParseSummary();
+        for (int i = from; i < to; i++) {
+            summary.add(frames.get(i));
+        }
+        summary.addBursts(DATA_TYPE_DOLBYE, to - from);
+        summary.addDamagedRegions((from == 0 && to == FRAMES) ? 2 : 1);
+        return summary;
+    }
+
+    private static String report(ParseSummary summary) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, "UTF-8");
+        summary.report(out);
+        return bytes.toString("UTF-8");
+    }
+
+    private static List<FrameMetadata> readFrames() throws IOException
+    {
+        DolbyEStreamBuilder builder = new DolbyEStreamBuilder();
+        for (int i = 0; i < FRAMES; i++) {
+            builder.addFrame(i % 2 == 0);
+        }
+        final List<FrameMetadata> frames = new ArrayList<FrameMetadata>();
+        DolbyEReader reader = new DolbyEReader(new ByteArrayInputStream(builder.toByteArray()),
+                DolbyEStreamBuilder.SAMPLE_SIZE);
+        reader.setLogLevel(ParserHelper.LOGLEVEL_WARN);
+        reader.addFrameListener(new FrameListener()
+        {
+            public void frameRead(FrameMetadata metadata)
+            {
+                FrameMetadata copy = new FrameMetadata();
+                metadata.copyTo(copy);
+                frames.add(copy);
+            }
+        });
+        try {
+            while (true) {
+                reader.probeForAESFrame();
+                reader.readFrameOrResync();
+            }
+        } catch (EOFException e) {
+            // done
+        }
+        assertEquals(FRAMES, frames.size());
+        return frames;
+    }
+}
@@ -0,0 +1,219 @@
+package org.foraci.dolby;
+
+import org.foraci.dolby.dolbye.FrameMetadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reads ranges of a built stream: ranges open at either end, start timecodes before the first frame and after the
+ * last, and ranges seeked to through the frame index of a cached result, whether the index holds the start or not
+ */
+public class ReadRangeTest
+{
+    private static final int FRAMES = 17;
+    private static final int CACHED_FRAMES = 10;
+
+    private byte[] stream;
+    private byte[] head; // the first CACHED_FRAMES frames
+    private final long[] positions = new long[FRAMES];
+    private File dir;
+    private File input;
+
+    @Before
+    public void setUp()
+    {
+        DolbyEStreamBuilder builder = new DolbyEStreamBuilder();
+        for (int i = 0; i < FRAMES; i++) {
+            if (i == CACHED_FRAMES) {
+                head = builder.toByteArray();
+            }
+            positions[i] = builder.toByteArray().length;
+            builder.addFrame(i % 3 == 0);
+        }
+        stream = builder.toByteArray();
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (dir != null) {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+        if (input != null) {
+            input.delete();
+        }
+    }
+
+    @Test
+    public void testParseTimecode()
+    {
+        assertEquals((1 << 24) | (2 << 16) | (3 << 8) | 4, ReadRange.parseTimecode("01:02:03:04"));
+        assertEquals((1 << 24) | (2 << 16) | (3 << 8) | 4, ReadRange.parseTimecode("01:02:03;04"));
+        try {
+            ReadRange.parseTimecode("01:02:03");
+            throw new AssertionError("parsed a timecode without frames");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOpenEnded() throws IOException
+    {
+        ReadRange range = new ReadRange();
+        range.setStartFrame(12);
+        assertEquals("[12, 13, 14, 15, 16]", counters(read(stream, range)));
+        range = new ReadRange();
+        range.setEndFrame(4);
+        assertEquals("[0, 1, 2, 3]", counters(read(stream, range)));
+        range = new ReadRange();
+        range.setEndTimecode(ReadRange.parseTimecode("00:00:00:03")); // the frame with the end timecode is read
+        assertEquals("[0, 1, 2, 3]", counters(read(stream, range)));
+        range = new ReadRange();
+        range.setStartByte(positions[14] - 1); // starts at the next preamble
+        assertEquals("[14, 15, 16]", counters(read(stream, range)));
+        range = new ReadRange();
+        range.setStartTimecode(ReadRange.parseTimecode("00:00:00:10"));
+        assertEquals("[10, 11, 12, 13, 14, 15, 16]", counters(read(stream, range)));
+    }
+
+    @Test
+    public void testTimecodeBeforeFirstFrame() throws IOException
+    {
+        byte[] tail = Arrays.copyOfRange(stream, (int) positions[5], stream.length); // starts at 00:00:00:05
+        ReadRange range = new ReadRange();
+        range.setStartTimecode(ReadRange.parseTimecode("00:00:00:02"));
+        range.setMaxFrames(3);
+        assertEquals("[5, 6, 7]", counters(read(tail, range)));
+    }
+
+    @Test
+    public void testTimecodeAfterLastFrame() throws IOException
+    {
+        ReadRange range = new ReadRange();
+        range.setStartTimecode(ReadRange.parseTimecode("00:00:01:00"));
+        assertEquals("[]", counters(read(stream, range)));
+    }
+
+    @Test
+    public void testIndexed() throws Exception
+    {
+        cacheHead();
+        assertEquals("frame 5 (00:00:00.05)", firstFrame("-startframe", "5"));
+        assertEquals("frame 3 (00:00:00.03)", firstFrame("-startbyte", "" + (positions[3] - 10)));
+    }
+
+    @Test
+    public void testIndexMiss() throws Exception
+    {
+        cacheHead();
+        // past the frames indexed: frames are skipped from the start of the input, so they keep their numbers
+        assertEquals("frame 12 (00:00:00.12)", firstFrame("-startframe", "12"));
+        // or read from the byte position, so they are numbered from there
+        assertEquals("frame 0 (00:00:00.12)", firstFrame("-startbyte", "" + positions[12]));
+    }
+
+    /**
+     * Reads the first frames of the input through a cache, then appends the rest of the stream to it
+     */
+    private void cacheHead() throws Exception
+    {
+        dir = File.createTempFile("cache", "");
+        dir.delete();
+        input = File.createTempFile("range", ".bin");
+        write(head);
+        run(); // indexes the first frames
+        write(stream);
+    }
+
+    /**
+     * @return the first change printed, which names the first frame of the range read
+     */
+    private String firstFrame(String arg, String value) throws Exception
+    {
+        String out = run(arg, value, "-frames", "2", "-delta");
+        int start = out.indexOf("\nframe ") + 1;
+        return out.substring(start, out.indexOf("): ", start) + 1);
+    }
+
+    private String run(String... args) throws Exception
+    {
+        List<String> list = new ArrayList<String>(Arrays.asList("-1", input.getPath(), "-aesprobe", "-recover",
+                "-cache", dir.getPath()));
+        list.addAll(Arrays.asList(args));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(bytes, true, "UTF-8"));
+        try {
+            DolbyEReader.run(list.toArray(new String[list.size()]));
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString("UTF-8");
+    }
+
+    private void write(byte[] data) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(input);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<FrameMetadata> read(byte[] data, ReadRange range) throws IOException
+    {
+        final List<FrameMetadata> frames = new ArrayList<FrameMetadata>();
+        DolbyEReader reader = new DolbyEReader(new ByteArrayInputStream(data), DolbyEStreamBuilder.SAMPLE_SIZE);
+        reader.setLogLevel(ParserHelper.LOGLEVEL_WARN);
+        reader.setRange(range);
+        reader.addFrameListener(new FrameListener()
+        {
+            public void frameRead(FrameMetadata metadata)
+            {
+                FrameMetadata copy = new FrameMetadata();
+                metadata.copyTo(copy);
+                frames.add(copy);
+            }
+        });
+        try {
+            while (!reader.isRangeEnded()) {
+                reader.probeForAESFrame();
+                reader.readFrameOrResync();
+            }
+        } catch (EOFException e) {
+            // done
+        }
+        return frames;
+    }
+
+    /**
+     * @return the frame counters of the frames, which number them from the start of the stream built
+     */
+    private static String counters(List<FrameMetadata> frames)
+    {
+        List<Integer> counters = new ArrayList<Integer>();
+        for (FrameMetadata frame : frames) {
+            counters.add(frame.getFrameCounter());
+        }
+        return counters.toString();
+    }
+}
@@ -0,0 +1,143 @@
+package org.foraci.dolby.anc;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Detects the policy of tracks of synthetic packets written each way, and of tracks too short or too ambiguous to
+ * tell
+ */
+public class GxfAncPolicyTest
+{
+    @Test
+    public void testNineBit() throws IOException
+    {
+        byte[] track = track(GxfAncPolicy.CHECKSUM_9BIT, 4);
+        assertEquals(GxfAncPolicy.CHECKSUM_9BIT, GxfAncPolicy.detect(track, track.length));
+        ByteArrayInputStream in = new ByteArrayInputStream(track);
+        assertEquals(GxfAncPolicy.CHECKSUM_9BIT, GxfAncPolicy.detect(in));
+        assertEquals(track.length, in.available()); // left where it was
+    }
+
+    @Test
+    public void testEightBit()
+    {
+        byte[] track = track(GxfAncPolicy.CHECKSUM_8BIT, 4);
+        assertEquals(GxfAncPolicy.CHECKSUM_8BIT, GxfAncPolicy.detect(track, track.length));
+    }
+
+    @Test
+    public void testNoParity()
+    {
+        byte[] track = track(GxfAncPolicy.CHECKSUM_8BIT_NO_PARITY, 4);
+        assertEquals(GxfAncPolicy.CHECKSUM_8BIT_NO_PARITY, GxfAncPolicy.detect(track, track.length));
+    }
+
+    @Test
+    public void testTooShort()
+    {
+        byte[] track = track(GxfAncPolicy.CHECKSUM_9BIT, 1);
+        assertEquals(GxfAncPolicy.CHECKSUM_8BIT, GxfAncPolicy.detect(track, 0));
+        assertEquals(GxfAncPolicy.CHECKSUM_8BIT, GxfAncPolicy.detect(track, 5)); // not a whole header
+        assertEquals(GxfAncPolicy.CHECKSUM_8BIT, GxfAncPolicy.detect(track, track.length - 1)); // no checksum word
+    }
+
+    @Test
+    public void testAmbiguous()
+    {
+        // an 8-bit checksum word whose parity happens to be b8 of the 9-bit sum matches both checksums, so a track
+        // of only such packets can't be told from the 9-bit policy
+        byte[] packet = packet(GxfAncPolicy.CHECKSUM_8BIT, 0);
+        for (int first = 1; sum(packet) != checksum(packet); first++) {
+            packet = packet(GxfAncPolicy.CHECKSUM_8BIT, first);
+        }
+        assertEquals(GxfAncPolicy.CHECKSUM_9BIT, GxfAncPolicy.detect(packet, packet.length));
+        // but any packet that only matches the 8-bit checksum tells
+        byte[] track = concat(packet, track(GxfAncPolicy.CHECKSUM_8BIT, 1));
+        assertEquals(GxfAncPolicy.CHECKSUM_8BIT, GxfAncPolicy.detect(track, track.length));
+    }
+
+    /**
+     * @return packets of the policy whose 8-bit and 9-bit checksum words differ, so the policy can be told
+     */
+    private static byte[] track(int policy, int packets)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int first = 1; packets > 0; first++) {
+            byte[] packet = packet(policy, first);
+            boolean nineBit = (checksum(packet) == sum(packet));
+            if (policy == GxfAncPolicy.CHECKSUM_8BIT_NO_PARITY || nineBit == (policy == GxfAncPolicy.CHECKSUM_9BIT)) {
+                out.write(packet, 0, packet.length);
+                packets--;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return a packet with three user data words, the first given, written with the parity bytes and checksum
+     * word of the policy
+     */
+    private static byte[] packet(int policy, int first)
+    {
+        int[] words = { 0x41, 0x05, 0x03, first, 0x80, 0xFF }; // DID, SDID, DC and the user data words
+        byte[] packet = new byte[(words.length + 1) * 2];
+        for (int i = 0; i < words.length; i++) {
+            packet[i * 2] = (byte) words[i];
+            packet[i * 2 + 1] = (byte) ((policy == GxfAncPolicy.CHECKSUM_8BIT_NO_PARITY) ? 0 : parity(words[i]));
+        }
+        int sum = sum(packet);
+        int last = words.length * 2;
+        packet[last] = (byte) sum;
+        if (policy == GxfAncPolicy.CHECKSUM_9BIT) {
+            int b8 = (sum >> 8) & 1;
+            packet[last + 1] = (byte) (b8 | ((b8 ^ 1) << 1));
+        } else if (policy == GxfAncPolicy.CHECKSUM_8BIT) {
+            packet[last + 1] = (byte) parity(sum & 0xFF);
+        }
+        return packet;
+    }
+
+    /**
+     * @return the 9-bit checksum of the words of a packet before its checksum word
+     */
+    private static int sum(byte[] packet)
+    {
+        AncChecksum sum = new AncChecksum();
+        for (int i = 0; i < packet.length - 2; i += 2) {
+            sum.add(Smpte291GxfInputStream.checksumWord(packet[i] & 0xFF, packet[i + 1] & 0xFF));
+        }
+        return sum.sum();
+    }
+
+    /**
+     * @return the checksum word of a packet, with its b8
+     */
+    private static int checksum(byte[] packet)
+    {
+        int last = packet.length - 2;
+        return Smpte291GxfInputStream.checksumWord(packet[last] & 0xFF, packet[last + 1] & 0xFF);
+    }
+
+    /**
+     * @return the parity byte of a word: b8 the even parity of the word, b9 its complement
+     */
+    private static int parity(int value)
+    {
+        int b8 = Integer.bitCount(value) % 2;
+        return b8 | ((b8 ^ 1) << 1);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b)
+    {
+        byte[] c = new byte[a.length + b.length];
+        System.arraycopy(a, 0, c, 0, a.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+}
@@ -0,0 +1,41 @@
+package org.foraci.dolby.anc;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Counts the position of a track read through a buffer, across a mark and reset as the policy detection does
+ */
+public class TrackPositionInputStreamTest
+{
+    private static final long START = 5000;
+
+    @Test
+    public void testPosition() throws IOException
+    {
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        TrackPositionInputStream in = new TrackPositionInputStream(
+                new BufferedInputStream(new ByteArrayInputStream(data), 64), START);
+        in.mark(64);
+        assertEquals(64, in.read(new byte[64], 0, 64));
+        assertEquals(START + 64, in.getPosition());
+        in.reset();
+        assertEquals(START, in.getPosition());
+        assertEquals(0, in.read());
+        assertEquals(10, in.skip(10));
+        assertEquals(START + 11, in.getPosition());
+        assertEquals(11, in.read());
+        while (in.read() != -1) {
+            // to the end
+        }
+        assertEquals(START + data.length, in.getPosition());
+    }
+}
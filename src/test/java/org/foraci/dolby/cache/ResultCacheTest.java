@@ -0,0 +1,182 @@
+package org.foraci.dolby.cache;
+
+import org.foraci.dolby.DolbyEReader;
+import org.foraci.dolby.DolbyEStreamBuilder;
+import org.foraci.dolby.FrameIndex;
+import org.foraci.dolby.ParseSummary;
+import org.foraci.dolby.dolbye.FrameMetadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stores and checks cached results, and reads an input that has grown through the cache: the result merged from
+ * the cached part and the tail must be the result of reading the whole input
+ */
+public class ResultCacheTest
+{
+    private static final int FRAMES = 10;
+    private static final int MORE_FRAMES = 7;
+    private static final int SAMPLE_SIZE = DolbyEStreamBuilder.SAMPLE_SIZE;
+    private static final int GROUPS = FrameMetadata.GROUP_ALL;
+    private static final int DATA_TYPE_DOLBYE = 28;
+
+    private File dir;
+    private File input;
+    private byte[] head;
+    private byte[] whole;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        DolbyEStreamBuilder builder = new DolbyEStreamBuilder();
+        for (int i = 0; i < FRAMES + MORE_FRAMES; i++) {
+            if (i == FRAMES) {
+                head = builder.toByteArray();
+            }
+            builder.addFrame(i % 3 == 0);
+        }
+        whole = builder.toByteArray();
+        dir = File.createTempFile("cache", "");
+        dir.delete();
+        input = File.createTempFile("input", ".bin");
+        write(head);
+    }
+
+    @After
+    public void tearDown()
+    {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+        input.delete();
+    }
+
+    @Test
+    public void testCheck() throws IOException
+    {
+        ResultCache cache = new ResultCache(dir, ResultCache.DEFAULT_MAX_SIZE);
+        assertEquals(null, cache.get(input));
+        cache.put(entry(FileIdentity.of(input), true), input);
+        ResultCache.Entry cached = cache.get(input);
+        assertEquals(3, cached.getSummary().getBurstCount(DATA_TYPE_DOLBYE));
+        assertEquals(3, cached.getIndex().size());
+        assertEquals(2000, cached.getIndex().getPosition(2));
+        assertEquals(3000, cached.getEndPosition());
+        assertEquals(ResultCache.HIT, ResultCache.check(cached, SAMPLE_SIZE, 0, false, GROUPS, true, input));
+        assertEquals(ResultCache.MISS, ResultCache.check(cached, SAMPLE_SIZE, 0, false, GROUPS, false, input));
+        assertEquals(ResultCache.MISS, ResultCache.check(cached, 3, 0, false, GROUPS, true, input));
+        assertEquals(ResultCache.MISS, ResultCache.check(cached, SAMPLE_SIZE, 4, false, GROUPS, true, input));
+        assertEquals(ResultCache.MISS, ResultCache.check(cached, SAMPLE_SIZE, 0, true, GROUPS, true, input));
+        assertEquals(ResultCache.MISS,
+                ResultCache.check(cached, SAMPLE_SIZE, 0, false, FrameMetadata.GROUP_METERS, true, input));
+        assertEquals(ResultCache.MISS, ResultCache.check(null, SAMPLE_SIZE, 0, false, GROUPS, true, input));
+    }
+
+    @Test
+    public void testGrownAndChanged() throws IOException
+    {
+        ResultCache cache = new ResultCache(dir, ResultCache.DEFAULT_MAX_SIZE);
+        cache.put(entry(FileIdentity.of(input), false), input);
+        write(whole);
+        ResultCache.Entry cached = cache.get(input);
+        assertEquals(ResultCache.GROWN, ResultCache.check(cached, SAMPLE_SIZE, 0, false, GROUPS, false, input));
+        RandomAccessFile raf = new RandomAccessFile(input, "rw");
+        try {
+            raf.seek(100);
+            raf.write(raf.read() ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+        assertEquals(ResultCache.MISS, ResultCache.check(cached, SAMPLE_SIZE, 0, false, GROUPS, false, input));
+    }
+
+    @Test
+    public void testReadGrownInput() throws Exception
+    {
+        read(input, dir);
+        ResultCache cache = new ResultCache(dir, ResultCache.DEFAULT_MAX_SIZE);
+        assertEquals(FRAMES, cache.get(input).getSummary().getFrames());
+        write(whole);
+        read(input, dir); // reads only the tail, and merges it with the cached part
+
+        File fresh = new File(dir, "fresh");
+        File copy = new File(fresh, "input.bin");
+        fresh.mkdir();
+        try {
+            FileOutputStream out = new FileOutputStream(copy);
+            try {
+                out.write(whole);
+            } finally {
+                out.close();
+            }
+            read(copy, fresh);
+            ResultCache.Entry merged = cache.get(input);
+            ResultCache.Entry full = new ResultCache(fresh, ResultCache.DEFAULT_MAX_SIZE).get(copy);
+            assertEquals(FRAMES + MORE_FRAMES, merged.getSummary().getFrames());
+            assertEquals(full.getSummary().getFrames(), merged.getSummary().getFrames());
+            assertEquals(full.getSummary().getFirstTimecode(), merged.getSummary().getFirstTimecode());
+            assertEquals(full.getSummary().getLastTimecode(), merged.getSummary().getLastTimecode());
+            assertEquals(full.getSummary().getCrcErrors(), merged.getSummary().getCrcErrors());
+            assertEquals(full.getSummary().getBurstCount(DATA_TYPE_DOLBYE), merged.getSummary().getBurstCount(DATA_TYPE_DOLBYE));
+            assertEquals(full.getEndPosition(), merged.getEndPosition());
+            assertTrue(merged.isRecover());
+            assertEquals(positions(full.getIndex()), positions(merged.getIndex()));
+        } finally {
+            for (File file : fresh.listFiles()) {
+                file.delete();
+            }
+            fresh.delete();
+        }
+    }
+
+    private void write(byte[] data) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(input);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void read(File file, File cacheDir) throws Exception
+    {
+        DolbyEReader.run(new String[] { "-1", file.getPath(), "-aesprobe", "-recover", "-v", "-1",
+                "-cache", cacheDir.getPath() });
+    }
+
+    private static ResultCache.Entry entry(FileIdentity identity, boolean recover)
+    {
+        ParseSummary summary = new ParseSummary();
+        FrameIndex index = new FrameIndex();
+        for (int i = 0; i < 3; i++) {
+            summary.addBursts(DATA_TYPE_DOLBYE, 1);
+            index.add(i * 1000);
+        }
+        return new ResultCache.Entry(new FileIdentity[] { identity }, SAMPLE_SIZE, 0, false, GROUPS, recover,
+                summary, index, 3000);
+    }
+
+    private static String positions(FrameIndex index)
+    {
+        long[] positions = new long[index.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = index.getPosition(i);
+        }
+        return Arrays.toString(positions);
+    }
+}
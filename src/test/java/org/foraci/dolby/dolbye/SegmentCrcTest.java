@@ -0,0 +1,74 @@
+package org.foraci.dolby.dolbye;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the table-driven CRC against a bitwise division by the polynomial
+ */
+public class SegmentCrcTest
+{
+    private static final int WORDS = 10000;
+
+    /**
+     * @return the CRC including the word, dividing bit by bit (the way the reader did before it had a table)
+     */
+    private static long reference(long crc, int word, int bitDepth)
+    {
+        final int n = 16;
+        long divisor = 0x18005L;
+        final int shift = bitDepth + n - 1;
+        long mask = 1L << shift;
+        long m = (crc << bitDepth) | word;
+        int s = shift - n;
+        divisor <<= s;
+        do {
+            if ((m & mask) != 0) {
+                m ^= divisor;
+            }
+            mask >>>= 1;
+            divisor >>>= 1;
+            s--;
+        } while (s >= 0);
+        return m;
+    }
+
+    private static void check(int bitDepth)
+    {
+        Random random = new Random(bitDepth);
+        int max = (1 << bitDepth) - 1;
+        int[] edges = { 0, 1, max, max - 1, 1 << (bitDepth - 1) };
+        long crc = 0;
+        long expected = 0;
+        for (int i = 0; i < edges.length + WORDS; i++) {
+            int word = (i < edges.length) ? edges[i] : random.nextInt(max + 1);
+            crc = SegmentCrc.update(crc, word, bitDepth);
+            expected = reference(expected, word, bitDepth);
+            assertEquals(bitDepth + "-bit word " + i, expected, crc);
+        }
+        int crcWord = SegmentCrc.toWord(crc, bitDepth);
+        assertEquals(reference(expected, 0, bitDepth), crcWord);
+        assertEquals(0, SegmentCrc.update(crc, crcWord, bitDepth)); // a segment and its CRC word leave zero
+    }
+
+    @Test
+    public void test16Bit()
+    {
+        check(16);
+    }
+
+    @Test
+    public void test20Bit()
+    {
+        check(20);
+    }
+
+    @Test
+    public void test24Bit()
+    {
+        check(24);
+    }
+}
@@ -0,0 +1,88 @@
+package org.foraci.dolby.s337m;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Merges the statistics of the two parts of a stream, read apart and stored, into those of the whole stream
+ */
+public class BurstAlignmentStatsTest
+{
+    private static final int SAMPLE_SIZE = 4;
+    private static final int BURSTS = 20;
+    private static final int SPLIT = 7;
+
+    @Test
+    public void testMerge() throws IOException
+    {
+        BurstAlignmentStats whole = gather(0, BURSTS, 0);
+        long offset = start(SPLIT);
+        BurstAlignmentStats merged = roundTrip(gather(0, SPLIT, 0));
+        merged.merge(roundTrip(gather(SPLIT, BURSTS, offset)), offset);
+        assertEquals(BURSTS, merged.getBurstCount());
+        assertEquals(whole.getGuardBandMin(), merged.getGuardBandMin());
+        assertEquals(whole.getGuardBandMax(), merged.getGuardBandMax());
+        assertEquals(whole.getPeriodMin(), merged.getPeriodMin());
+        assertEquals(whole.getPeriodMax(), merged.getPeriodMax());
+        assertEquals(whole.getPeriodJitter(), merged.getPeriodJitter(), 1e-9);
+        assertEquals(Arrays.toString(whole.getGuardBandHistogram()),
+                Arrays.toString(merged.getGuardBandHistogram()));
+        assertEquals(report(whole), report(merged));
+    }
+
+    @Test
+    public void testMergeEmpty() throws IOException
+    {
+        BurstAlignmentStats empty = new BurstAlignmentStats(SAMPLE_SIZE);
+        empty.merge(gather(0, BURSTS, 0), 0);
+        assertEquals(report(gather(0, BURSTS, 0)), report(empty));
+        BurstAlignmentStats tail = gather(0, BURSTS, 0);
+        tail.merge(new BurstAlignmentStats(SAMPLE_SIZE), 0);
+        assertEquals(report(gather(0, BURSTS, 0)), report(tail));
+    }
+
+    /**
+     * @param offset the position of the first burst's preamble, taken as position 0 of the part
+     * @return the statistics of bursts <code>from</code> (inclusive) to <code>to</code>
+     */
+    private static BurstAlignmentStats gather(int from, int to, long offset)
+    {
+        BurstAlignmentStats stats = new BurstAlignmentStats(SAMPLE_SIZE);
+        for (int i = from; i < to; i++) {
+            stats.burstStart(start(i) - offset);
+            stats.burstEnd(start(i) + 2000 + (i % 3) * 8 - offset);
+        }
+        return stats;
+    }
+
+    /**
+     * @return the position of a burst's preamble, at a period that varies a little
+     */
+    private static long start(int burst)
+    {
+        return burst * 2240L + (burst % 4) * SAMPLE_SIZE;
+    }
+
+    private static BurstAlignmentStats roundTrip(BurstAlignmentStats stats) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        stats.write(new DataOutputStream(bytes));
+        return BurstAlignmentStats.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static String report(BurstAlignmentStats stats) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        stats.report(new PrintStream(bytes, true, "UTF-8"));
+        return bytes.toString("UTF-8");
+    }
+}
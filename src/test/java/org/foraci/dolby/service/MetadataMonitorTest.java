@@ -0,0 +1,152 @@
+package org.foraci.dolby.service;
+
+import org.foraci.dolby.DolbyEReader;
+import org.foraci.dolby.DolbyEStreamBuilder;
+import org.foraci.dolby.FrameListener;
+import org.foraci.dolby.ParserHelper;
+import org.foraci.dolby.dolbye.FrameMetadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the JSON rendered for a frame, and the status the monitor serves for an input read to its end and for one
+ * that fails
+ */
+public class MetadataMonitorTest
+{
+    private static final int FRAMES = 10;
+    private static final long TIMEOUT = 5000; // ms
+
+    private File file;
+    private MetadataMonitor monitor;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        DolbyEStreamBuilder builder = new DolbyEStreamBuilder();
+        for (int i = 0; i < FRAMES; i++) {
+            builder.addFrame(false);
+        }
+        file = File.createTempFile("monitor", ".bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(builder.toByteArray());
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (monitor != null) {
+            monitor.stop();
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testToJson() throws IOException
+    {
+        final FrameMetadata last = new FrameMetadata();
+        DolbyEReader reader = new DolbyEReader(new ByteArrayInputStream(readFile()), DolbyEStreamBuilder.SAMPLE_SIZE);
+        reader.setLogLevel(ParserHelper.LOGLEVEL_WARN);
+        reader.addFrameListener(new FrameListener()
+        {
+            public void frameRead(FrameMetadata metadata)
+            {
+                metadata.copyTo(last);
+            }
+        });
+        try {
+            while (true) {
+                reader.probeForAESFrame();
+                reader.readFrameOrResync();
+            }
+        } catch (EOFException e) {
+            // done
+        }
+        String json = MetadataMonitor.toJson("in\"put", last);
+        assertTrue(json, json.startsWith("{\"input\":\"in\\\"put\",\"status\":\"reading\","));
+        assertTrue(json, json.contains(",\"frameCounter\":" + (FRAMES - 1) + ","));
+        assertTrue(json, json.contains(",\"crcErrors\":0,"));
+        assertTrue(json, json.contains(",\"dialnorm\":" + DolbyEStreamBuilder.DIALNORM + ","));
+        assertTrue(json, json.endsWith("]}"));
+    }
+
+    @Test
+    public void testEof() throws IOException, InterruptedException
+    {
+        String status = snapshotOf(file.getPath());
+        assertEquals("[{\"input\":\"" + file.getPath().replace("\\", "\\\\") + "\",\"status\":\"eof\"}]", status);
+    }
+
+    @Test
+    public void testRuntimeError() throws IOException, InterruptedException
+    {
+        String status = snapshotOf("tcp:nohost"); // no port, so opening it throws
+        assertTrue(status, status.startsWith("[{\"input\":\"tcp:nohost\",\"status\":\"error: java.lang."));
+    }
+
+    /**
+     * Monitors one input and waits for it to leave the starting and reading states
+     * @return the snapshot then served by <code>/metadata</code>
+     */
+    private String snapshotOf(String spec) throws IOException, InterruptedException
+    {
+        monitor = new MetadataMonitor(0);
+        monitor.addInput(spec, DolbyEStreamBuilder.SAMPLE_SIZE);
+        monitor.start();
+        URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), monitor.getPort(), "/metadata");
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("application/json", connection.getContentType());
+            String body = new String(readAll(connection.getInputStream()), "UTF-8");
+            if (!body.contains("\"status\":\"starting\"") && !body.contains("\"status\":\"reading\"")) {
+                return body;
+            }
+            Thread.sleep(20);
+        }
+        fail("input " + spec + " still starting or reading after " + TIMEOUT + " ms");
+        return null;
+    }
+
+    private byte[] readFile() throws IOException
+    {
+        return readAll(new FileInputStream(file));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+}
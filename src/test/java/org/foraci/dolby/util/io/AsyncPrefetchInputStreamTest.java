@@ -0,0 +1,90 @@
+package org.foraci.dolby.util.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reads and skips through a file in small blocks, within the blocks requested ahead and past them
+ */
+public class AsyncPrefetchInputStreamTest
+{
+    private static final int LENGTH = 10000;
+    private static final int BLOCK_SIZE = 1000;
+    private static final int DEPTH = 3;
+
+    private File file;
+    private AsyncPrefetchInputStream in;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = File.createTempFile("prefetch", ".bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < LENGTH; i++) {
+                out.write(valueAt(i));
+            }
+        } finally {
+            out.close();
+        }
+        in = new AsyncPrefetchInputStream(file, BLOCK_SIZE, DEPTH);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        in.close();
+        file.delete();
+    }
+
+    @Test
+    public void testSkipBeforeFirstRead() throws IOException
+    {
+        assertEquals(2500, in.skip(2500));
+        assertEquals(2500, in.getStreamPosition());
+        assertEquals(valueAt(2500), in.read());
+    }
+
+    @Test
+    public void testSkipWithinRequested() throws IOException
+    {
+        assertEquals(valueAt(0), in.read());
+        assertEquals(10, in.skip(10));
+        assertEquals(valueAt(11), in.read());
+        assertEquals(1700, in.skip(1700)); // into the next block but one
+        assertEquals(1712, in.getStreamPosition());
+        assertEquals(valueAt(1712), in.read());
+    }
+
+    @Test
+    public void testSkipPastRequested() throws IOException
+    {
+        assertEquals(valueAt(0), in.read());
+        assertEquals(6000, in.skip(6000));
+        assertEquals(6001, in.getStreamPosition());
+        assertEquals(valueAt(6001), in.read());
+        byte[] b = new byte[10];
+        assertEquals(10, in.read(b, 0, b.length));
+        assertEquals(valueAt(6002), b[0] & 0xFF);
+    }
+
+    @Test
+    public void testSkipToEnd() throws IOException
+    {
+        assertEquals(9000, in.skip(9000));
+        assertEquals(1000, in.skip(5000)); // only what is left
+        assertEquals(-1, in.read());
+    }
+
+    private static int valueAt(int position)
+    {
+        return (position * 7 + position / 251) & 0xFF;
+    }
+}
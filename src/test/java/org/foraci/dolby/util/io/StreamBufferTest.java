@@ -0,0 +1,138 @@
+package org.foraci.dolby.util.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Reads, skips, marks and resets through a buffer much smaller than the data, so every step crosses refills
+ */
+public class StreamBufferTest
+{
+    private static final int LENGTH = 1000;
+    private static final int BUFFER_SIZE = 16;
+
+    @Test
+    public void testSkipWithoutMark() throws IOException
+    {
+        CountingInput in = new CountingInput();
+        StreamBuffer buffer = new StreamBuffer(in, BUFFER_SIZE);
+        assertEquals(valueAt(0), read(buffer));
+        buffer.skip(500);
+        assertEquals(501, buffer.getPosition());
+        assertTrue("skipped " + in.skipped + " bytes in the input", in.skipped >= 500 - BUFFER_SIZE);
+        assertEquals(valueAt(501), read(buffer));
+    }
+
+    @Test
+    public void testSkipWithMarkReadsThrough() throws IOException
+    {
+        CountingInput in = new CountingInput();
+        StreamBuffer buffer = new StreamBuffer(in, BUFFER_SIZE);
+        assertEquals(valueAt(0), read(buffer));
+        buffer.mark(300);
+        buffer.skip(250);
+        assertEquals(0, in.skipped);
+        assertEquals(valueAt(251), read(buffer));
+        buffer.reset();
+        assertEquals(1, buffer.getPosition());
+        for (int i = 1; i < 300; i++) {
+            assertEquals(valueAt(i), read(buffer));
+        }
+    }
+
+    @Test
+    public void testMarkBeforeReadPosition() throws IOException
+    {
+        StreamBuffer buffer = new StreamBuffer(new CountingInput(), BUFFER_SIZE);
+        for (int i = 0; i < 10; i++) {
+            read(buffer);
+        }
+        buffer.mark(100, 4); // four bytes read but not consumed by a source
+        for (int i = 10; i < 90; i++) {
+            assertEquals(valueAt(i), read(buffer));
+        }
+        buffer.reset();
+        assertEquals(6, buffer.getPosition());
+        assertEquals(valueAt(6), read(buffer));
+    }
+
+    @Test
+    public void testMarkLost() throws IOException
+    {
+        CountingInput in = new CountingInput();
+        StreamBuffer buffer = new StreamBuffer(in, BUFFER_SIZE);
+        buffer.mark(10);
+        buffer.skip(100); // past the limit of the mark, so it seeks
+        assertTrue("skipped " + in.skipped + " bytes in the input", in.skipped > 0);
+        assertEquals(valueAt(100), read(buffer));
+        try {
+            buffer.reset();
+            fail("reset to a mark read past its limit");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSkipPastEnd() throws IOException
+    {
+        StreamBuffer buffer = new StreamBuffer(new CountingInput(), BUFFER_SIZE);
+        buffer.skip(LENGTH - 1);
+        assertEquals(valueAt(LENGTH - 1), read(buffer));
+        try {
+            buffer.skip(1);
+            fail("skipped past the end");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    private static int read(StreamBuffer buffer) throws IOException
+    {
+        if (!buffer.ensure(1)) {
+            throw new EOFException();
+        }
+        return buffer.buffer[buffer.pos++] & 0xFF;
+    }
+
+    private static int valueAt(int position)
+    {
+        return (position * 7 + position / 251) & 0xFF;
+    }
+
+    /**
+     * The test data, counting the bytes skipped rather than read
+     */
+    private static class CountingInput extends ByteArrayInputStream
+    {
+        private long skipped = 0;
+
+        private CountingInput()
+        {
+            super(data());
+        }
+
+        public synchronized long skip(long n)
+        {
+            long s = super.skip(n);
+            skipped += s;
+            return s;
+        }
+
+        private static byte[] data()
+        {
+            byte[] data = new byte[LENGTH];
+            for (int i = 0; i < LENGTH; i++) {
+                data[i] = (byte) valueAt(i);
+            }
+            return data;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.foraci.dolby.util.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reads, skips, marks and resets a stream of words split across two inputs, with byte buffers of a few samples so
+ * the words cross refills and unpacked blocks
+ */
+public class SubframeWordReaderTest
+{
+    private static final int WORDS = 2000;
+    private static final int SAMPLE_SIZE = 4;
+    private static final int BUFFER_SIZE = 64;
+
+    @Test
+    public void testRead() throws IOException
+    {
+        SubframeWordReader reader = open();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(wordAt(i), reader.readWord());
+        }
+        int[] words = new int[WORDS - 10];
+        reader.readWords(words, 0, words.length);
+        for (int i = 0; i < words.length; i++) {
+            assertEquals(wordAt(10 + i), words[i]);
+        }
+    }
+
+    @Test
+    public void testSkipWords() throws IOException
+    {
+        SubframeWordReader reader = open();
+        for (int i = 0; i < 3; i++) {
+            reader.readWord();
+        }
+        reader.skipWords(501);
+        assertEquals(504 / 2 * SAMPLE_SIZE, reader.getPosition1());
+        assertEquals(504 / 2 * SAMPLE_SIZE, reader.getPosition2());
+        assertEquals(wordAt(504), reader.readWord());
+        reader.skipWords(2);
+        assertEquals(wordAt(507), reader.readWord()); // the odd word, from the second input
+        assertEquals(wordAt(508), reader.readWord());
+    }
+
+    @Test
+    public void testResetInBlock() throws IOException
+    {
+        SubframeWordReader reader = open();
+        reader.readWord();
+        reader.mark(SAMPLE_SIZE * 100);
+        reader.readWord();
+        reader.readWord();
+        reader.reset();
+        assertEquals(wordAt(1), reader.readWord());
+    }
+
+    @Test
+    public void testResetAcrossBlocks() throws IOException
+    {
+        SubframeWordReader reader = open();
+        for (int i = 0; i < 5; i++) {
+            reader.readWord();
+        }
+        reader.mark(SAMPLE_SIZE * 1000);
+        for (int i = 5; i < 700; i++) {
+            assertEquals(wordAt(i), reader.readWord());
+        }
+        reader.reset();
+        assertEquals(5 / 2 * SAMPLE_SIZE + SAMPLE_SIZE, reader.getPosition1());
+        assertEquals(5 / 2 * SAMPLE_SIZE, reader.getPosition2());
+        for (int i = 5; i < 10; i++) {
+            assertEquals(wordAt(i), reader.readWord());
+        }
+    }
+
+    @Test
+    public void testResetAfterSkip() throws IOException
+    {
+        SubframeWordReader reader = open();
+        reader.readWord();
+        reader.mark(SAMPLE_SIZE * 1000);
+        reader.skipWords(1201);
+        assertEquals(wordAt(1202), reader.readWord());
+        reader.skipBytes(SAMPLE_SIZE * 10);
+        assertEquals(wordAt(1223), reader.readWord());
+        reader.reset();
+        assertEquals(wordAt(1), reader.readWord());
+        assertEquals(wordAt(2), reader.readWord());
+    }
+
+    private static SubframeWordReader open()
+    {
+        byte[] in1 = new byte[WORDS / 2 * SAMPLE_SIZE];
+        byte[] in2 = new byte[WORDS / 2 * SAMPLE_SIZE];
+        for (int i = 0; i < WORDS; i++) {
+            byte[] in = (i % 2 == 0) ? in1 : in2;
+            int word = wordAt(i);
+            for (int n = 0; n < SAMPLE_SIZE; n++) {
+                in[i / 2 * SAMPLE_SIZE + n] = (byte) (word >>> (n * 8)); // little-endian
+            }
+        }
+        return new SubframeWordReader(new ByteArrayInputStream(in1), new ByteArrayInputStream(in2), SAMPLE_SIZE,
+                BUFFER_SIZE);
+    }
+
+    private static int wordAt(int i)
+    {
+        return i * 0x01010101 + (i << 20);
+    }
+}